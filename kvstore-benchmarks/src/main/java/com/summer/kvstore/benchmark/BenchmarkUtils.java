@@ -0,0 +1,106 @@
+package com.summer.kvstore.benchmark;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * benchmark数据集工具类
+ *
+ * 每个benchmark在自己的临时目录中生成数据，结束后删除，不使用默认工作目录
+ */
+public class BenchmarkUtils {
+
+    private BenchmarkUtils() {
+    }
+
+    /**
+     * 创建临时数据目录
+     * @param prefix 目录名前缀
+     * @return 以/结尾的目录路径，可以直接作为LsmKvStore的数据目录
+     */
+    public static String createTempDir(String prefix) throws IOException {
+        return Files.createTempDirectory(prefix).toAbsolutePath() + "/";
+    }
+
+    /**
+     * 递归删除目录
+     * @param dir
+     */
+    public static void deleteDir(String dir) throws IOException {
+        Path root = Paths.get(dir);
+        if (!Files.exists(root)) {
+            return;
+        }
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path d, IOException e) throws IOException {
+                Files.delete(d);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * 复制一份数据目录（只有一层文件），会修改数据目录的benchmark每次从同一个模板开始
+     * @param from 模板目录
+     * @param prefix 新目录名前缀
+     * @return 新目录路径
+     */
+    public static String copyDir(String from, String prefix) throws IOException {
+        String to = createTempDir(prefix);
+        try (Stream<Path> files = Files.list(Paths.get(from))) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.copy(file, Paths.get(to).resolve(file.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        return to;
+    }
+
+    /**
+     * 定长的key，按编号排序和按字节排序一致
+     * @param index
+     * @return
+     */
+    public static byte[] key(long index) {
+        return String.format("user%012d", index).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 不存在的key，排在index和index+1之间，可以测试布隆过滤器
+     * @param index
+     * @return
+     */
+    public static byte[] missingKey(long index) {
+        return String.format("user%012d.", index).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 随机value，一半内容可压缩
+     * @param size
+     * @param random
+     * @return
+     */
+    public static byte[] value(int size, Random random) {
+        byte[] value = new byte[size];
+        random.nextBytes(value);
+        for (int i = 0; i < size / 2; i++) {
+            value[i] = 'v';
+        }
+        return value;
+    }
+}
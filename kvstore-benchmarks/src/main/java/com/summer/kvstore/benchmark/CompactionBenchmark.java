@@ -0,0 +1,90 @@
+package com.summer.kvstore.benchmark;
+
+import com.summer.kvstore.model.Options;
+import com.summer.kvstore.service.LsmKvStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compactioner合并level0的耗时
+ *
+ * 模板目录中有l0Files个key范围互相重叠的level0 sstable，WAL为空。每次测量复制一份模板，
+ * 用l0CompactionTrigger=1打开，启动时调度一次把全部level0合并到level1的compaction，
+ * 关闭时等待它完成（关闭后不再调度后续的compaction）。合并的数据量为l0Files * entriesPerFile条
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CompactionBenchmark {
+
+    @Param({"100", "1024"})
+    public int valueSize;
+
+    @Param({"8"})
+    public int l0Files;
+
+    @Param({"20000"})
+    public int entriesPerFile;
+
+    private String templateDir;
+
+    private String dataDir;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        Options options = new Options();
+        options.setWriteBufferSize(1024L * 1024 * 1024);
+        //超过阈值才切换memtable，写入l0Files * entriesPerFile条后WAL中没有剩余数据
+        options.setStoreThreshold(entriesPerFile - 1);
+        options.setL0CompactionTrigger(Integer.MAX_VALUE);
+        templateDir = BenchmarkUtils.createTempDir("kvstore-compaction-template-");
+        LsmKvStore kvStore = new LsmKvStore(templateDir, options);
+        Random random = new Random(0);
+        int keySpace = l0Files * entriesPerFile / 2;
+        for (int i = 0; i < l0Files * entriesPerFile; i++) {
+            kvStore.set(BenchmarkUtils.key(random.nextInt(keySpace)), BenchmarkUtils.value(valueSize, random));
+        }
+        kvStore.close();
+    }
+
+    @Setup(Level.Iteration)
+    public void copyTemplate() throws IOException {
+        dataDir = BenchmarkUtils.copyDir(templateDir, "kvstore-compaction-bench-");
+    }
+
+    @Benchmark
+    public void compactLevel0() throws IOException {
+        Options options = new Options();
+        options.setWriteBufferSize(1024L * 1024 * 1024);
+        options.setL0CompactionTrigger(1);
+        new LsmKvStore(dataDir, options).close();
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteCopy() throws IOException {
+        BenchmarkUtils.deleteDir(dataDir);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkUtils.deleteDir(templateDir);
+    }
+}
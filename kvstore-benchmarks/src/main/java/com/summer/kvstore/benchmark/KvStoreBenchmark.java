@@ -0,0 +1,107 @@
+package com.summer.kvstore.benchmark;
+
+import com.summer.kvstore.model.Options;
+import com.summer.kvstore.service.LsmKvStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LsmKvStore的set/get/rm吞吐
+ *
+ * 每次试验在临时目录中新建一个实例并预先写入keyCount条数据，之后在这些key上随机读写。
+ * 默认单线程，Threads4和Threads16子类用多个线程并发访问同一个实例
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+@Threads(1)
+@State(Scope.Benchmark)
+public class KvStoreBenchmark {
+
+    @Param({"16", "100", "1024", "16384"})
+    public int valueSize;
+
+    @Param({"100000"})
+    public int keyCount;
+
+    private String dataDir;
+
+    private LsmKvStore kvStore;
+
+    /**
+     * 预先生成的key，避免格式化key的开销计入结果
+     */
+    private byte[][] keys;
+
+    private byte[] value;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dataDir = BenchmarkUtils.createTempDir("kvstore-bench-");
+        kvStore = new LsmKvStore(dataDir, new Options());
+        value = BenchmarkUtils.value(valueSize, new Random(0));
+        keys = new byte[keyCount][];
+        for (int i = 0; i < keyCount; i++) {
+            keys[i] = BenchmarkUtils.key(i);
+            kvStore.set(keys[i], value);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        kvStore.close();
+        BenchmarkUtils.deleteDir(dataDir);
+    }
+
+    @Benchmark
+    public void set() {
+        kvStore.set(randomKey(), value);
+    }
+
+    @Benchmark
+    public byte[] get() {
+        return kvStore.get(randomKey());
+    }
+
+    @Benchmark
+    public void rm() {
+        kvStore.rm(randomKey());
+    }
+
+    private byte[] randomKey() {
+        return keys[ThreadLocalRandom.current().nextInt(keyCount)];
+    }
+
+    /**
+     * 4个线程并发访问
+     */
+    @Threads(4)
+    public static class Threads4 extends KvStoreBenchmark {
+    }
+
+    /**
+     * 16个线程并发访问
+     */
+    @Threads(16)
+    public static class Threads16 extends KvStoreBenchmark {
+    }
+}
@@ -0,0 +1,137 @@
+package com.summer.kvstore.benchmark;
+
+import com.summer.kvstore.cache.BlockCache;
+import com.summer.kvstore.comparator.BytewiseComparator;
+import com.summer.kvstore.compress.CompressionCodec;
+import com.summer.kvstore.compress.CompressionCodecs;
+import com.summer.kvstore.constants.KVConstants;
+import com.summer.kvstore.model.command.Command;
+import com.summer.kvstore.model.command.SetCommand;
+import com.summer.kvstore.model.sstable.SsTable;
+import com.summer.kvstore.utils.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * sstable的构建吞吐和点查延迟
+ *
+ * build按条数计算吞吐（条/秒）；queryHit查询存在的key，queryMiss查询相邻key之间不存在的key，
+ * 主要由布隆过滤器过滤。cached为true时数据块读取经过BlockCache
+ */
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SsTableBenchmark {
+
+    private static final int ENTRIES = 100000;
+
+    @Param({"100", "1024"})
+    public int valueSize;
+
+    @Param({"100"})
+    public int partSize;
+
+    @Param({"none", "snappy", "deflate"})
+    public String codec;
+
+    @Param({"true", "false"})
+    public boolean cached;
+
+    private String dataDir;
+
+    private ConcurrentSkipListMap<byte[], Command> index;
+
+    private byte[][] keys;
+
+    private byte[][] missingKeys;
+
+    private SsTable ssTable;
+
+    private long nextFileNumber = 1;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dataDir = BenchmarkUtils.createTempDir("kvstore-sstable-bench-");
+        index = new ConcurrentSkipListMap<>(BytewiseComparator.INSTANCE);
+        keys = new byte[ENTRIES][];
+        missingKeys = new byte[ENTRIES][];
+        Random random = new Random(0);
+        for (int i = 0; i < ENTRIES; i++) {
+            keys[i] = BenchmarkUtils.key(i);
+            missingKeys[i] = BenchmarkUtils.missingKey(i);
+            index.put(keys[i], new SetCommand(keys[i], BenchmarkUtils.value(valueSize, random)));
+        }
+        long fileNumber = nextFileNumber++;
+        buildTable(fileNumber).close();
+        ssTable = SsTable.createFromFile(FileUtils.buildSstableFilePath(dataDir, fileNumber, 0));
+        if (cached) {
+            ssTable.setBlockCache(new BlockCache(256 * 1024 * 1024));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        ssTable.close();
+        BenchmarkUtils.deleteDir(dataDir);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(ENTRIES)
+    public void build() throws IOException {
+        long fileNumber = nextFileNumber++;
+        buildTable(fileNumber).close();
+        new File(FileUtils.buildSstableFilePath(dataDir, fileNumber, 0)).delete();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Command queryHit() {
+        return ssTable.query(keys[ThreadLocalRandom.current().nextInt(ENTRIES)]);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Command queryMiss() {
+        return ssTable.query(missingKeys[ThreadLocalRandom.current().nextInt(ENTRIES)]);
+    }
+
+    private SsTable buildTable(long fileNumber) throws IOException {
+        return SsTable.createFromIndex(dataDir, fileNumber, partSize, index, codec(), 0,
+                KVConstants.DEFAULT_BLOOM_BITS_PER_KEY);
+    }
+
+    private CompressionCodec codec() {
+        switch (codec) {
+            case "none":
+                return CompressionCodecs.NONE;
+            case "deflate":
+                return CompressionCodecs.DEFLATE;
+            default:
+                return CompressionCodecs.SNAPPY;
+        }
+    }
+}
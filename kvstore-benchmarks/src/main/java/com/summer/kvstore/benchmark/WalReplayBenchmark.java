@@ -0,0 +1,83 @@
+package com.summer.kvstore.benchmark;
+
+import com.summer.kvstore.model.Options;
+import com.summer.kvstore.service.LsmKvStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 启动时重放WAL的耗时
+ *
+ * 模板目录中只有WAL没有sstable（memtable足够大，不会触发持久化），每次测量前复制一份模板，
+ * 测量打开实例到可以处理请求的时间
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WalReplayBenchmark {
+
+    @Param({"100", "1024"})
+    public int valueSize;
+
+    @Param({"100000"})
+    public int entries;
+
+    private Options options;
+
+    private String templateDir;
+
+    private String dataDir;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        options = new Options();
+        options.setWriteBufferSize(1024L * 1024 * 1024);
+        templateDir = BenchmarkUtils.createTempDir("kvstore-wal-template-");
+        LsmKvStore kvStore = new LsmKvStore(templateDir, options);
+        Random random = new Random(0);
+        for (int i = 0; i < entries; i++) {
+            kvStore.set(BenchmarkUtils.key(random.nextInt(entries)), BenchmarkUtils.value(valueSize, random));
+        }
+        kvStore.close();
+    }
+
+    @Setup(Level.Iteration)
+    public void copyTemplate() throws IOException {
+        dataDir = BenchmarkUtils.copyDir(templateDir, "kvstore-wal-bench-");
+    }
+
+    @Benchmark
+    public long restoreFromWal() throws IOException {
+        LsmKvStore kvStore = new LsmKvStore(dataDir, options);
+        kvStore.close();
+        return kvStore.getStartupTimeMillis();
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteCopy() throws IOException {
+        BenchmarkUtils.deleteDir(dataDir);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkUtils.deleteDir(templateDir);
+    }
+}
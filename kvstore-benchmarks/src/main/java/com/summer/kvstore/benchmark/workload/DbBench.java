@@ -0,0 +1,582 @@
+package com.summer.kvstore.benchmark.workload;
+
+import com.summer.kvstore.benchmark.BenchmarkUtils;
+import com.summer.kvstore.compress.CompressionCodec;
+import com.summer.kvstore.compress.CompressionCodecs;
+import com.summer.kvstore.iterator.KvIterator;
+import com.summer.kvstore.model.Options;
+import com.summer.kvstore.service.KvStore;
+import com.summer.kvstore.service.LsmKvStore;
+import com.summer.kvstore.statistics.Histogram;
+import com.summer.kvstore.wal.WalSyncMode;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * db_bench/YCSB风格的负载驱动，针对KvStore接口执行一组负载并输出吞吐和延迟分布
+ *
+ * 负载：
+ * <ul>
+ *     <li>fillseq/fillrandom：清空数据目录后顺序/随机写入num条</li>
+ *     <li>overwrite：按分布覆盖写已有的key</li>
+ *     <li>readrandom/readmissing：按分布读取存在/不存在的key</li>
+ *     <li>readwhilewriting：threads个线程读取，另一个线程持续覆盖写（不计入结果）</li>
+ *     <li>seekrandom：seek到随机key之后next seek_nexts次</li>
+ *     <li>ycsba-ycsbf：YCSB核心负载A-F，需要先用fill类负载装载数据</li>
+ * </ul>
+ * 每个负载输出ops/sec、MB/s和延迟分位数；写入类负载输出写放大，结束时输出累计的写放大和空间放大。
+ * 写放大 = 写入磁盘的字节数（WAL + flush + compaction）/ 用户写入的key和value字节数，
+ * 空间放大 = 数据目录大小 / 存活key的逻辑大小
+ *
+ * 运行：java -cp benchmarks.jar com.summer.kvstore.benchmark.workload.DbBench --benchmarks=fillrandom,ycsba
+ */
+public class DbBench {
+
+    private static final int VALUE_POOL_SIZE = 1024 * 1024;
+
+    private final WorkloadConfig config;
+
+    private final String dataDir;
+
+    /**
+     * 没有指定数据目录时使用临时目录，结束后删除
+     */
+    private final boolean tempDir;
+
+    private KvStore kvStore;
+
+    /**
+     * 半可压缩的随机数据，value从中截取
+     */
+    private final byte[] valuePool;
+
+    /**
+     * [0, num)中写入过的key，计算空间放大时使用
+     */
+    private AtomicLongArray writtenKeys;
+
+    /**
+     * YCSB insert使用的下一个编号，从num开始递增
+     */
+    private final AtomicLong insertCursor = new AtomicLong();
+
+    private ZipfianGenerator zipfian;
+
+    private ZipfianGenerator latest;
+
+    /**
+     * 本次运行中用户写入的字节数
+     */
+    private final AtomicLong userBytesWritten = new AtomicLong();
+
+    public DbBench(WorkloadConfig config) throws IOException {
+        this.config = config;
+        this.tempDir = config.db == null;
+        this.dataDir = tempDir ? BenchmarkUtils.createTempDir("kvstore-dbbench-") : config.db;
+        Random random = new Random(config.seed);
+        this.valuePool = BenchmarkUtils.value(Math.max(VALUE_POOL_SIZE, config.valueSize * 2), random);
+        this.writtenKeys = new AtomicLongArray((int) ((config.num + 63) / 64));
+        this.insertCursor.set(config.num);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (Arrays.asList(args).contains("--help")) {
+            System.out.println(WorkloadConfig.USAGE);
+            return;
+        }
+        new DbBench(WorkloadConfig.parse(args)).run();
+    }
+
+    /**
+     * 按顺序执行全部负载
+     */
+    public void run() throws Exception {
+        printHeader();
+        if (!config.useExistingDb) {
+            destroyDb();
+        }
+        openDb();
+        try {
+            for (String benchmark : config.benchmarks) {
+                runBenchmark(benchmark);
+            }
+            printAmplification();
+            if (config.statistics) {
+                System.out.println("STATISTICS:\n" + kvStore.getStatistics());
+            }
+        } finally {
+            kvStore.close();
+            if (tempDir) {
+                BenchmarkUtils.deleteDir(dataDir);
+            }
+        }
+    }
+
+    private void runBenchmark(String name) throws Exception {
+        long writes = config.num;
+        long reads = config.readOps();
+        switch (name) {
+            case "fillseq":
+                if (!config.useExistingDb) {
+                    reopenFresh();
+                }
+                execute(name, writes, (w, i) -> write(w, "write", (w.offset + i) % config.num), false);
+                break;
+            case "fillrandom":
+                if (!config.useExistingDb) {
+                    reopenFresh();
+                }
+                execute(name, writes, (w, i) -> write(w, "write", uniformKey(w.random)), false);
+                break;
+            case "overwrite":
+                execute(name, writes, (w, i) -> write(w, "write", nextKey(w.random)), false);
+                break;
+            case "readrandom":
+                execute(name, reads, (w, i) -> read(w, "read", key(nextKey(w.random), false)), false);
+                break;
+            case "readmissing":
+                execute(name, reads, (w, i) -> read(w, "read", key(nextKey(w.random), true)), false);
+                break;
+            case "readwhilewriting":
+                execute(name, reads, (w, i) -> read(w, "read", key(nextKey(w.random), false)), true);
+                break;
+            case "seekrandom":
+                execute(name, reads, (w, i) -> seek(w, "seek", nextKey(w.random), config.seekNexts), false);
+                break;
+            case "ycsba":
+                //50%读 50%更新
+                execute(name, reads, (w, i) -> readOrUpdate(w, 0.5), false);
+                break;
+            case "ycsbb":
+                //95%读 5%更新
+                execute(name, reads, (w, i) -> readOrUpdate(w, 0.95), false);
+                break;
+            case "ycsbc":
+                //100%读
+                execute(name, reads, (w, i) -> readOrUpdate(w, 1.0), false);
+                break;
+            case "ycsbd":
+                //95%读最近插入的数据 5%插入
+                execute(name, reads, (w, i) -> {
+                    if (w.random.nextDouble() < 0.95) {
+                        read(w, "read", key(latestKey(w.random), false));
+                    } else {
+                        write(w, "insert", insertCursor.getAndIncrement());
+                    }
+                }, false);
+                break;
+            case "ycsbe":
+                //95%短范围扫描 5%插入
+                execute(name, reads, (w, i) -> {
+                    if (w.random.nextDouble() < 0.95) {
+                        seek(w, "scan", nextKey(w.random), 1 + w.random.nextInt(config.seekNexts));
+                    } else {
+                        write(w, "insert", insertCursor.getAndIncrement());
+                    }
+                }, false);
+                break;
+            case "ycsbf":
+                //50%读 50%读后修改写
+                execute(name, reads, (w, i) -> {
+                    long index = nextKey(w.random);
+                    if (w.random.nextDouble() < 0.5) {
+                        read(w, "read", key(index, false));
+                    } else {
+                        long start = System.nanoTime();
+                        byte[] key = key(index, false);
+                        kvStore.get(key);
+                        byte[] value = newValue(w.random);
+                        kvStore.set(key, value);
+                        w.record("rmw", System.nanoTime() - start);
+                        markWritten(index);
+                        w.bytes += key.length + value.length;
+                        w.written += key.length + value.length;
+                    }
+                }, false);
+                break;
+            default:
+                System.out.println("未知的负载: " + name);
+        }
+    }
+
+    /**
+     * 负载中的一次操作
+     */
+    private interface Operation {
+        void execute(Worker worker, long index) throws IOException;
+    }
+
+    /**
+     * 每个线程的状态，结束后合并
+     */
+    private static class Worker {
+        final Random random;
+
+        /**
+         * fillseq中这个线程负责的编号起点
+         */
+        final long offset;
+
+        final Map<String, Histogram> histograms = new TreeMap<>();
+
+        long ops;
+
+        long bytes;
+
+        long written;
+
+        long reads;
+
+        long found;
+
+        Worker(long seed, long offset) {
+            this.random = new Random(seed);
+            this.offset = offset;
+        }
+
+        void record(String type, long nanos) {
+            histograms.computeIfAbsent(type, t -> new Histogram()).record(nanos);
+        }
+    }
+
+    /**
+     * 启动threads个线程执行负载，统计并输出结果
+     *
+     * @param name 负载名
+     * @param totalOps 总操作数，duration大于0时忽略
+     * @param operation 操作
+     * @param backgroundWriter 是否启动一个不计入结果的写线程
+     */
+    private void execute(String name, long totalOps, Operation operation, boolean backgroundWriter)
+            throws Exception {
+        int threads = config.threads;
+        long deadline = config.duration > 0 ? System.nanoTime() + config.duration * 1000000000L : 0;
+        long diskBytesBefore = diskBytesWritten();
+        List<Worker> workers = new ArrayList<>();
+        List<Thread> threadList = new ArrayList<>();
+        CountDownLatch startLatch = new CountDownLatch(1);
+        List<Throwable> errors = new ArrayList<>();
+        long perThread = totalOps / threads;
+        for (int t = 0; t < threads; t++) {
+            long ops = perThread + (t < totalOps % threads ? 1 : 0);
+            Worker worker = new Worker(config.seed + t * 7919L + name.hashCode(), t * perThread);
+            workers.add(worker);
+            threadList.add(new Thread(() -> {
+                try {
+                    startLatch.await();
+                    for (long i = 0; deadline > 0 ? System.nanoTime() < deadline : i < ops; i++) {
+                        operation.execute(worker, i);
+                        worker.ops++;
+                    }
+                } catch (Throwable e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            }, "dbbench-" + name + "-" + t));
+        }
+
+        AtomicBoolean readersDone = new AtomicBoolean();
+        Worker writer = new Worker(config.seed - 1, 0);
+        Thread writerThread = null;
+        if (backgroundWriter) {
+            writerThread = new Thread(() -> {
+                try {
+                    startLatch.await();
+                    while (!readersDone.get()) {
+                        write(writer, "write", nextKey(writer.random));
+                        writer.ops++;
+                    }
+                } catch (Throwable e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            }, "dbbench-" + name + "-writer");
+            writerThread.start();
+        }
+        for (Thread thread : threadList) {
+            thread.start();
+        }
+        long start = System.nanoTime();
+        startLatch.countDown();
+        for (Thread thread : threadList) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - start;
+        readersDone.set(true);
+        if (writerThread != null) {
+            writerThread.join();
+        }
+        if (!errors.isEmpty()) {
+            throw new RuntimeException("负载执行失败," + name, errors.get(0));
+        }
+
+        Map<String, Histogram> histograms = new TreeMap<>();
+        Histogram all = new Histogram();
+        long ops = 0, bytes = 0, written = writer.written, readCount = 0, found = 0;
+        for (Worker worker : workers) {
+            ops += worker.ops;
+            bytes += worker.bytes;
+            written += worker.written;
+            readCount += worker.reads;
+            found += worker.found;
+            for (Map.Entry<String, Histogram> entry : worker.histograms.entrySet()) {
+                histograms.computeIfAbsent(entry.getKey(), t -> new Histogram()).merge(entry.getValue());
+                all.merge(entry.getValue());
+            }
+        }
+        userBytesWritten.addAndGet(written);
+        report(name, ops, bytes, elapsed, readCount, found, all, histograms, backgroundWriter ? writer : null,
+                written, diskBytesWritten() - diskBytesBefore);
+    }
+
+    private void report(String name, long ops, long bytes, long elapsedNanos, long reads, long found, Histogram all,
+                        Map<String, Histogram> histograms, Worker writer, long written, long diskBytes) {
+        double seconds = elapsedNanos / 1e9;
+        StringBuilder line = new StringBuilder(String.format("%-16s : %11.3f micros/op; %10.0f ops/sec; %8.1f MB/s;",
+                name, ops == 0 ? 0 : elapsedNanos / 1000.0 / ops * config.threads, ops / seconds,
+                bytes / 1048576.0 / seconds));
+        line.append(String.format(" (%d ops, %.1f s)", ops, seconds));
+        if (reads > 0) {
+            line.append(String.format(" (%d of %d found)", found, reads));
+        }
+        System.out.println(line);
+        System.out.println(String.format("    %-12s %s", "all", all.getData()));
+        if (histograms.size() > 1) {
+            for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+                System.out.println(String.format("    %-12s %s", entry.getKey(), entry.getValue().getData()));
+            }
+        }
+        if (writer != null) {
+            System.out.println(String.format("    %-12s %d writes in background", "writer", writer.ops));
+        }
+        if (written > 0 && diskBytes >= 0) {
+            System.out.println(String.format("    %-12s %.2f (disk %.1f MB / user %.1f MB, flush and compaction "
+                    + "may still be running)", "write-amp", diskBytes / (double) written, diskBytes / 1048576.0,
+                    written / 1048576.0));
+        }
+    }
+
+    /**
+     * 输出本次运行累计的写放大和空间放大
+     */
+    private void printAmplification() {
+        long userBytes = userBytesWritten.get();
+        long diskBytes = diskBytesWritten();
+        if (userBytes > 0 && diskBytes >= 0) {
+            LsmKvStore lsmKvStore = (LsmKvStore) kvStore;
+            System.out.println(String.format("Cumulative write amplification: %.2f (user %.1f MB, wal %.1f MB, "
+                            + "flush %.1f MB, compaction %.1f MB)", diskBytes / (double) userBytes,
+                    userBytes / 1048576.0, lsmKvStore.getWalBytesWritten() / 1048576.0,
+                    lsmKvStore.getFlushBytesWritten() / 1048576.0,
+                    lsmKvStore.getCompactionBytesWritten() / 1048576.0));
+        }
+        long liveKeys = insertCursor.get() - config.num;
+        for (int i = 0; i < writtenKeys.length(); i++) {
+            liveKeys += Long.bitCount(writtenKeys.get(i));
+        }
+        long logicalBytes = liveKeys * (config.keySize + config.valueSize);
+        if (logicalBytes > 0) {
+            long dirBytes = dirSize();
+            System.out.println(String.format("Space amplification: %.2f (disk %.1f MB / live data %.1f MB, %d keys)",
+                    dirBytes / (double) logicalBytes, dirBytes / 1048576.0, logicalBytes / 1048576.0, liveKeys));
+        }
+    }
+
+    private void write(Worker w, String type, long index) {
+        byte[] key = key(index, false);
+        byte[] value = newValue(w.random);
+        long start = System.nanoTime();
+        kvStore.set(key, value);
+        w.record(type, System.nanoTime() - start);
+        markWritten(index);
+        w.bytes += key.length + value.length;
+        w.written += key.length + value.length;
+    }
+
+    private void read(Worker w, String type, byte[] key) {
+        long start = System.nanoTime();
+        byte[] value = kvStore.get(key);
+        w.record(type, System.nanoTime() - start);
+        w.reads++;
+        if (value != null) {
+            w.found++;
+            w.bytes += key.length + value.length;
+        }
+    }
+
+    private void seek(Worker w, String type, long index, int nexts) {
+        byte[] key = key(index, false);
+        long start = System.nanoTime();
+        try (KvIterator iterator = kvStore.iterator()) {
+            iterator.seek(key);
+            w.reads++;
+            if (iterator.isValid()) {
+                w.found++;
+            }
+            for (int i = 0; i < nexts && iterator.isValid(); i++) {
+                w.bytes += iterator.keyBytes().length + iterator.valueBytes().length;
+                iterator.next();
+            }
+        }
+        w.record(type, System.nanoTime() - start);
+    }
+
+    private void readOrUpdate(Worker w, double readProportion) {
+        long index = nextKey(w.random);
+        if (w.random.nextDouble() < readProportion) {
+            read(w, "read", key(index, false));
+        } else {
+            write(w, "update", index);
+        }
+    }
+
+    /**
+     * 定长的十进制key，不足的位补0；missing为true时末尾加'.'，排在相邻的两个key之间
+     */
+    private byte[] key(long index, boolean missing) {
+        byte[] key = new byte[config.keySize + (missing ? 1 : 0)];
+        long value = index;
+        for (int i = config.keySize - 1; i >= 0; i--) {
+            key[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        if (missing) {
+            key[config.keySize] = '.';
+        }
+        return key;
+    }
+
+    private byte[] newValue(Random random) {
+        int offset = random.nextInt(valuePool.length - config.valueSize + 1);
+        return Arrays.copyOfRange(valuePool, offset, offset + config.valueSize);
+    }
+
+    private long uniformKey(Random random) {
+        return Math.floorMod(random.nextLong(), config.num);
+    }
+
+    /**
+     * 按--distribution选择[0, num)中的key
+     */
+    private long nextKey(Random random) {
+        if ("zipfian".equals(config.distribution)) {
+            return zipfian().next(random);
+        }
+        return uniformKey(random);
+    }
+
+    /**
+     * 最近插入的key概率最高，YCSB D使用
+     */
+    private long latestKey(Random random) {
+        return Math.max(0, insertCursor.get() - 1 - latest().next(random));
+    }
+
+    private synchronized ZipfianGenerator zipfian() {
+        if (zipfian == null) {
+            zipfian = new ZipfianGenerator(config.num, ZipfianGenerator.DEFAULT_THETA, true);
+        }
+        return zipfian;
+    }
+
+    private synchronized ZipfianGenerator latest() {
+        if (latest == null) {
+            latest = new ZipfianGenerator(config.num, ZipfianGenerator.DEFAULT_THETA, false);
+        }
+        return latest;
+    }
+
+    private void markWritten(long index) {
+        if (index >= config.num) {
+            return;
+        }
+        int word = (int) (index >>> 6);
+        long bit = 1L << (index & 63);
+        long current;
+        do {
+            current = writtenKeys.get(word);
+        } while ((current & bit) == 0 && !writtenKeys.compareAndSet(word, current, current | bit));
+    }
+
+    private long diskBytesWritten() {
+        return kvStore instanceof LsmKvStore ? ((LsmKvStore) kvStore).getDiskBytesWritten() : -1;
+    }
+
+    private long dirSize() {
+        File[] files = new File(dataDir).listFiles();
+        long size = 0;
+        if (files != null) {
+            for (File file : files) {
+                size += file.isFile() ? file.length() : 0;
+            }
+        }
+        return size;
+    }
+
+    private void openDb() {
+        new File(dataDir).mkdirs();
+        Options options = new Options();
+        options.setStoreThreshold(config.storeThreshold);
+        options.setPartSize(config.partSize);
+        options.setWriteBufferSize(config.writeBufferSize);
+        options.setBlockCacheSize(config.cacheSize);
+        options.setCompression(codec(config.compression));
+        options.setWalSyncMode("group".equals(config.walSync) ? WalSyncMode.GROUP : WalSyncMode.NONE);
+        kvStore = new LsmKvStore(dataDir, options);
+    }
+
+    /**
+     * fill类负载从空的数据目录开始
+     */
+    private void reopenFresh() throws IOException {
+        kvStore.close();
+        destroyDb();
+        writtenKeys = new AtomicLongArray(writtenKeys.length());
+        insertCursor.set(config.num);
+        userBytesWritten.set(0);
+        openDb();
+    }
+
+    private void destroyDb() throws IOException {
+        BenchmarkUtils.deleteDir(dataDir);
+    }
+
+    private static CompressionCodec codec(String name) {
+        switch (name) {
+            case "none":
+                return CompressionCodecs.NONE;
+            case "deflate":
+                return CompressionCodecs.DEFLATE;
+            case "snappy":
+                return CompressionCodecs.SNAPPY;
+            default:
+                throw new IllegalArgumentException("未知的压缩算法," + name + "\n" + WorkloadConfig.USAGE);
+        }
+    }
+
+    private void printHeader() {
+        System.out.println(String.format("Keys:       %d bytes each", config.keySize));
+        System.out.println(String.format("Values:     %d bytes each", config.valueSize));
+        System.out.println(String.format("Entries:    %d", config.num));
+        System.out.println(String.format("Threads:    %d", config.threads));
+        System.out.println(String.format("Keys dist:  %s", config.distribution));
+        System.out.println(String.format("Options:    storeThreshold=%d partSize=%d writeBufferSize=%d "
+                        + "cacheSize=%d compression=%s walSync=%s", config.storeThreshold, config.partSize,
+                config.writeBufferSize, config.cacheSize, config.compression, config.walSync));
+        System.out.println(String.format("DB:         %s", dataDir));
+        System.out.println("------------------------------------------------");
+    }
+}
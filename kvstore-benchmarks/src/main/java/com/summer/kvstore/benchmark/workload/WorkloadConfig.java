@@ -0,0 +1,174 @@
+package com.summer.kvstore.benchmark.workload;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 负载驱动的参数，命令行格式和db_bench一致：--name=value
+ */
+public class WorkloadConfig {
+
+    public static final String USAGE = "用法: DbBench [--name=value ...]\n"
+            + "  --benchmarks=fillseq,fillrandom,overwrite,readrandom,readmissing,readwhilewriting,seekrandom,\n"
+            + "               ycsba,ycsbb,ycsbc,ycsbd,ycsbe,ycsbf  按顺序执行，逗号分隔\n"
+            + "  --db=<dir>            数据目录，默认新建临时目录并在结束后删除\n"
+            + "  --use_existing_db     不清空数据目录，fill类负载也在已有数据上执行\n"
+            + "  --num=1000000         key的个数（key空间大小），写入类负载的操作数\n"
+            + "  --reads=-1            读取类负载的操作数，-1表示和num相同\n"
+            + "  --key_size=16         key的字节数\n"
+            + "  --value_size=100      value的字节数\n"
+            + "  --threads=1           并发线程数\n"
+            + "  --duration=0          每个负载执行的秒数，大于0时忽略操作数\n"
+            + "  --distribution=uniform  key的分布：uniform或zipfian\n"
+            + "  --seek_nexts=10       seekrandom每次seek之后的next次数，ycsbe的最大扫描长度\n"
+            + "  --store_threshold=0 --part_size=100 --write_buffer_size=4194304 --cache_size=8388608\n"
+            + "  --compression=snappy  none、snappy或deflate\n"
+            + "  --wal_sync=none       none或group\n"
+            + "  --seed=0              随机数种子\n"
+            + "  --statistics          结束时输出引擎的运行统计";
+
+    public List<String> benchmarks = Arrays.asList("fillseq", "fillrandom", "overwrite", "readrandom",
+            "readmissing", "readwhilewriting", "seekrandom");
+
+    public String db;
+
+    public boolean useExistingDb;
+
+    public long num = 1000000;
+
+    public long reads = -1;
+
+    public int keySize = 16;
+
+    public int valueSize = 100;
+
+    public int threads = 1;
+
+    public int duration;
+
+    public String distribution = "uniform";
+
+    public int seekNexts = 10;
+
+    public int storeThreshold = 0;
+
+    public int partSize = 100;
+
+    public long writeBufferSize = 4 * 1024 * 1024;
+
+    public long cacheSize = 8 * 1024 * 1024;
+
+    public String compression = "snappy";
+
+    public String walSync = "none";
+
+    public long seed;
+
+    public boolean statistics;
+
+    /**
+     * 解析命令行参数
+     * @param args
+     * @return
+     */
+    public static WorkloadConfig parse(String[] args) {
+        WorkloadConfig config = new WorkloadConfig();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("无法识别的参数," + arg + "\n" + USAGE);
+            }
+            int eq = arg.indexOf('=');
+            String name = eq < 0 ? arg.substring(2) : arg.substring(2, eq);
+            String value = eq < 0 ? "true" : arg.substring(eq + 1);
+            switch (name) {
+                case "benchmarks":
+                    config.benchmarks = new ArrayList<>();
+                    for (String benchmark : value.split(",")) {
+                        if (!benchmark.trim().isEmpty()) {
+                            config.benchmarks.add(benchmark.trim());
+                        }
+                    }
+                    break;
+                case "db":
+                    config.db = value.endsWith("/") ? value : value + "/";
+                    break;
+                case "use_existing_db":
+                    config.useExistingDb = Boolean.parseBoolean(value);
+                    break;
+                case "num":
+                    config.num = Long.parseLong(value);
+                    break;
+                case "reads":
+                    config.reads = Long.parseLong(value);
+                    break;
+                case "key_size":
+                    config.keySize = Integer.parseInt(value);
+                    break;
+                case "value_size":
+                    config.valueSize = Integer.parseInt(value);
+                    break;
+                case "threads":
+                    config.threads = Integer.parseInt(value);
+                    break;
+                case "duration":
+                    config.duration = Integer.parseInt(value);
+                    break;
+                case "distribution":
+                    config.distribution = value;
+                    break;
+                case "seek_nexts":
+                    config.seekNexts = Integer.parseInt(value);
+                    break;
+                case "store_threshold":
+                    config.storeThreshold = Integer.parseInt(value);
+                    break;
+                case "part_size":
+                    config.partSize = Integer.parseInt(value);
+                    break;
+                case "write_buffer_size":
+                    config.writeBufferSize = Long.parseLong(value);
+                    break;
+                case "cache_size":
+                    config.cacheSize = Long.parseLong(value);
+                    break;
+                case "compression":
+                    config.compression = value;
+                    break;
+                case "wal_sync":
+                    config.walSync = value;
+                    break;
+                case "seed":
+                    config.seed = Long.parseLong(value);
+                    break;
+                case "statistics":
+                    config.statistics = Boolean.parseBoolean(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("未知参数,--" + name + "\n" + USAGE);
+            }
+        }
+        config.validate();
+        return config;
+    }
+
+    /**
+     * 读取类负载的操作数
+     */
+    public long readOps() {
+        return reads < 0 ? num : reads;
+    }
+
+    private void validate() {
+        if (num <= 0 || threads <= 0 || valueSize < 0 || seekNexts <= 0) {
+            throw new IllegalArgumentException("num、threads、seek_nexts必须大于0，value_size不能小于0\n" + USAGE);
+        }
+        //insert类负载会写入num之后的编号，预留一位
+        if (keySize < Long.toString(num).length() + 1) {
+            throw new IllegalArgumentException("key_size太小，无法表示" + num + "个key\n" + USAGE);
+        }
+        if (!"uniform".equals(distribution) && !"zipfian".equals(distribution)) {
+            throw new IllegalArgumentException("未知的key分布," + distribution + "\n" + USAGE);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.summer.kvstore.benchmark.workload;
+
+import java.util.Random;
+
+/**
+ * zipfian分布的编号生成器，算法和YCSB的ZipfianGenerator一致（Gray等，"Quickly Generating Billion-Record
+ * Synthetic Databases"）
+ *
+ * 编号越小出现的概率越高；scrambled为true时用FNV哈希把热点打散到整个key空间，避免热点集中在相邻的key上。
+ * 构造时计算一次zeta(n)，之后线程安全
+ */
+public class ZipfianGenerator {
+
+    /**
+     * YCSB默认的zipfian常数
+     */
+    public static final double DEFAULT_THETA = 0.99;
+
+    private static final long FNV_OFFSET_BASIS_64 = 0xCBF29CE484222325L;
+
+    private static final long FNV_PRIME_64 = 1099511628211L;
+
+    private final long items;
+
+    private final double theta;
+
+    private final double zetan;
+
+    private final double alpha;
+
+    private final double eta;
+
+    private final boolean scrambled;
+
+    public ZipfianGenerator(long items, double theta, boolean scrambled) {
+        this.items = items;
+        this.theta = theta;
+        this.scrambled = scrambled;
+        this.zetan = zeta(items, theta);
+        this.alpha = 1.0 / (1.0 - theta);
+        double zeta2 = zeta(2, theta);
+        this.eta = (1 - Math.pow(2.0 / items, 1 - theta)) / (1 - zeta2 / zetan);
+    }
+
+    /**
+     * 生成[0, items)之间的编号
+     * @param random
+     * @return
+     */
+    public long next(Random random) {
+        double u = random.nextDouble();
+        double uz = u * zetan;
+        long rank;
+        if (uz < 1.0) {
+            rank = 0;
+        } else if (uz < 1.0 + Math.pow(0.5, theta)) {
+            rank = 1;
+        } else {
+            rank = Math.min(items - 1, (long) (items * Math.pow(eta * u - eta + 1, alpha)));
+        }
+        if (!scrambled) {
+            return rank;
+        }
+        return Math.floorMod(fnvHash64(rank), items);
+    }
+
+    private static double zeta(long n, double theta) {
+        double sum = 0;
+        for (long i = 0; i < n; i++) {
+            sum += 1 / Math.pow(i + 1, theta);
+        }
+        return sum;
+    }
+
+    private static long fnvHash64(long value) {
+        long hash = FNV_OFFSET_BASIS_64;
+        for (int i = 0; i < 8; i++) {
+            hash ^= value & 0xFF;
+            hash *= FNV_PRIME_64;
+            value >>>= 8;
+        }
+        return hash;
+    }
+}
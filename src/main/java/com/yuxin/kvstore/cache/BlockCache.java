@@ -0,0 +1,160 @@
+package com.summer.kvstore.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 解压后数据块的缓存
+ *
+ * 按key的哈希分片，每个分片独立加锁并按LRU淘汰，分片数和CPU核数相当，减少并发读时的锁竞争。
+ * 内存预算按数据块的字节数计算，平均分配给每个分片
+ */
+public class BlockCache {
+
+    /**
+     * 分片
+     */
+    private final Shard[] shards;
+
+    /**
+     * 分片数-1，分片数是2的幂
+     */
+    private final int shardMask;
+
+    /**
+     * @param capacity 缓存容量（单位：byte）
+     */
+    public BlockCache(long capacity) {
+        int shardNum = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 2 - 1);
+        shardNum = Math.min(shardNum, 64);
+        this.shards = new Shard[shardNum];
+        this.shardMask = shardNum - 1;
+        for (int i = 0; i < shardNum; i++) {
+            shards[i] = new Shard(capacity / shardNum);
+        }
+    }
+
+    /**
+     * 查询缓存
+     * @param key
+     * @return 不存在返回null
+     */
+    public byte[] get(BlockCacheKey key) {
+        return shardOf(key).get(key);
+    }
+
+    /**
+     * 放入缓存，超过容量时淘汰最久未使用的数据块
+     * @param key
+     * @param block 解压后的数据块
+     */
+    public void put(BlockCacheKey key, byte[] block) {
+        shardOf(key).put(key, block);
+    }
+
+    /**
+     * 淘汰某个sstable文件的所有数据块，sstable文件被删除时调用
+     * @param fileNumber
+     */
+    public void evictFile(long fileNumber) {
+        for (Shard shard : shards) {
+            shard.evictFile(fileNumber);
+        }
+    }
+
+    /**
+     * 已使用的容量（单位：byte）
+     */
+    public long getUsage() {
+        long usage = 0;
+        for (Shard shard : shards) {
+            usage += shard.getUsage();
+        }
+        return usage;
+    }
+
+    private Shard shardOf(BlockCacheKey key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return shards[h & shardMask];
+    }
+
+    /**
+     * 缓存分片
+     */
+    private static class Shard {
+        private final ReentrantLock lock = new ReentrantLock();
+
+        /**
+         * 按访问顺序排列，头部是最久未使用的
+         */
+        private final LinkedHashMap<BlockCacheKey, byte[]> blocks = new LinkedHashMap<>(16, 0.75f, true);
+
+        private final long capacity;
+
+        private long usage;
+
+        Shard(long capacity) {
+            this.capacity = capacity;
+        }
+
+        byte[] get(BlockCacheKey key) {
+            lock.lock();
+            try {
+                return blocks.get(key);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void put(BlockCacheKey key, byte[] block) {
+            //单个数据块超过分片容量时不缓存
+            if (block.length > capacity) {
+                return;
+            }
+            lock.lock();
+            try {
+                byte[] old = blocks.put(key, block);
+                if (old != null) {
+                    usage -= old.length;
+                }
+                usage += block.length;
+                Iterator<Map.Entry<BlockCacheKey, byte[]>> iterator = blocks.entrySet().iterator();
+                while (usage > capacity && iterator.hasNext()) {
+                    Map.Entry<BlockCacheKey, byte[]> eldest = iterator.next();
+                    usage -= eldest.getValue().length;
+                    iterator.remove();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void evictFile(long fileNumber) {
+            lock.lock();
+            try {
+                Iterator<Map.Entry<BlockCacheKey, byte[]>> iterator = blocks.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    Map.Entry<BlockCacheKey, byte[]> entry = iterator.next();
+                    if (entry.getKey().getFileNumber() == fileNumber) {
+                        usage -= entry.getValue().length;
+                        iterator.remove();
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        long getUsage() {
+            lock.lock();
+            try {
+                return usage;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.summer.kvstore.cache;
+
+import lombok.Data;
+
+/**
+ * 数据块缓存的key
+ */
+@Data
+public class BlockCacheKey {
+
+    /**
+     * sstable文件编号
+     */
+    private final long fileNumber;
+
+    /**
+     * 数据块在文件中的偏移
+     */
+    private final long offset;
+}
@@ -0,0 +1,215 @@
+package com.summer.kvstore.cache;
+
+import com.summer.kvstore.utils.LoggerUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * sstable文件句柄的缓存，限制同时打开的文件数
+ *
+ * sstable的元数据、稀疏索引和布隆过滤器常驻在SsTable对象中，只有文件句柄由这里管理：
+ * 读取数据块时按文件编号获取句柄，没有打开时打开文件，超过容量时关闭最久未使用的句柄。
+ * 和BlockCache一样按哈希分片，每个分片独立加锁；句柄带引用计数，淘汰时正在读取的句柄在读取完成后才关闭
+ */
+public class TableCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TableCache.class);
+
+    /**
+     * 分片
+     */
+    private final Shard[] shards;
+
+    /**
+     * 分片数-1，分片数是2的幂
+     */
+    private final int shardMask;
+
+    /**
+     * @param maxOpenFiles 最多同时打开的sstable文件数
+     */
+    public TableCache(int maxOpenFiles) {
+        int capacity = Math.max(1, maxOpenFiles);
+        int shardNum = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 2 - 1);
+        //每个分片至少能打开一个文件
+        shardNum = Math.min(Math.min(shardNum, 64), Integer.highestOneBit(capacity));
+        this.shards = new Shard[shardNum];
+        this.shardMask = shardNum - 1;
+        for (int i = 0; i < shardNum; i++) {
+            shards[i] = new Shard(capacity / shardNum);
+        }
+    }
+
+    /**
+     * 获取文件句柄，没有打开时打开文件，使用完需要调用release
+     *
+     * @param fileNumber 文件编号
+     * @param filePath 文件路径
+     * @return
+     */
+    public FileHandle acquire(long fileNumber, String filePath) throws IOException {
+        return shardOf(fileNumber).acquire(fileNumber, filePath);
+    }
+
+    /**
+     * 关闭并移除某个sstable文件的句柄，sstable不再使用或者文件被删除时调用
+     * @param fileNumber
+     */
+    public void evict(long fileNumber) {
+        shardOf(fileNumber).evict(fileNumber);
+    }
+
+    /**
+     * 当前缓存中打开的文件数
+     */
+    public int getOpenFiles() {
+        int openFiles = 0;
+        for (Shard shard : shards) {
+            openFiles += shard.size();
+        }
+        return openFiles;
+    }
+
+    private Shard shardOf(long fileNumber) {
+        int h = Long.hashCode(fileNumber);
+        h ^= (h >>> 16);
+        return shards[h & shardMask];
+    }
+
+    /**
+     * 打开的文件句柄
+     *
+     * 缓存持有一个引用，每次acquire增加一个引用，最后一个引用释放时关闭文件
+     */
+    public static class FileHandle {
+        private final RandomAccessFile file;
+
+        private final FileChannel channel;
+
+        private final AtomicInteger refs = new AtomicInteger(1);
+
+        FileHandle(String filePath) throws IOException {
+            this.file = new RandomAccessFile(filePath, "r");
+            this.channel = file.getChannel();
+        }
+
+        /**
+         * 文件通道，只能使用按位置读取，多个线程共享同一个句柄
+         * @return
+         */
+        public FileChannel getChannel() {
+            return channel;
+        }
+
+        /**
+         * 归还句柄
+         */
+        public void release() {
+            if (refs.decrementAndGet() == 0) {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    LoggerUtil.error(LOGGER, e, "[TableCache][release] close error");
+                }
+            }
+        }
+
+        private void ref() {
+            refs.incrementAndGet();
+        }
+    }
+
+    /**
+     * 缓存分片
+     */
+    private static class Shard {
+        private final ReentrantLock lock = new ReentrantLock();
+
+        /**
+         * 按访问顺序排列，头部是最久未使用的
+         */
+        private final LinkedHashMap<Long, FileHandle> handles = new LinkedHashMap<>(16, 0.75f, true);
+
+        private final int capacity;
+
+        Shard(int capacity) {
+            this.capacity = capacity;
+        }
+
+        FileHandle acquire(long fileNumber, String filePath) throws IOException {
+            lock.lock();
+            try {
+                FileHandle handle = handles.get(fileNumber);
+                if (handle != null) {
+                    handle.ref();
+                    return handle;
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            //打开文件不持有锁，并发打开同一个文件时只保留一个
+            FileHandle opened = new FileHandle(filePath);
+            List<FileHandle> evicted = new ArrayList<>();
+            FileHandle handle;
+            lock.lock();
+            try {
+                handle = handles.get(fileNumber);
+                if (handle == null) {
+                    handle = opened;
+                    handles.put(fileNumber, handle);
+                    Iterator<Map.Entry<Long, FileHandle>> iterator = handles.entrySet().iterator();
+                    while (handles.size() > capacity && iterator.hasNext()) {
+                        Map.Entry<Long, FileHandle> eldest = iterator.next();
+                        if (eldest.getValue() != handle) {
+                            evicted.add(eldest.getValue());
+                            iterator.remove();
+                        }
+                    }
+                } else {
+                    evicted.add(opened);
+                }
+                handle.ref();
+            } finally {
+                lock.unlock();
+            }
+            //关闭文件不持有锁
+            for (FileHandle fileHandle : evicted) {
+                fileHandle.release();
+            }
+            return handle;
+        }
+
+        void evict(long fileNumber) {
+            FileHandle handle;
+            lock.lock();
+            try {
+                handle = handles.remove(fileNumber);
+            } finally {
+                lock.unlock();
+            }
+            if (handle != null) {
+                handle.release();
+            }
+        }
+
+        int size() {
+            lock.lock();
+            try {
+                return handles.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
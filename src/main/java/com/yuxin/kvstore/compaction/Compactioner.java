@@ -1,24 +1,32 @@
 package com.summer.kvstore.compaction;
 
-import com.alibaba.fastjson.JSONObject;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
-import com.summer.kvstore.model.Position;
+import com.summer.kvstore.cache.BlockCache;
+import com.summer.kvstore.cache.TableCache;
+import com.summer.kvstore.comparator.KeyComparator;
+import com.summer.kvstore.constants.KVConstants;
+import com.summer.kvstore.model.Options;
 import com.summer.kvstore.model.command.Command;
 import com.summer.kvstore.model.command.RmCommand;
+import com.summer.kvstore.iterator.InternalIterator;
+import com.summer.kvstore.iterator.LevelIterator;
+import com.summer.kvstore.iterator.MergingIterator;
+import com.summer.kvstore.iterator.TableIterator;
 import com.summer.kvstore.model.sstable.SsTable;
-import com.summer.kvstore.utils.BlockUtils;
-import com.summer.kvstore.utils.ConvertUtil;
-import com.summer.kvstore.utils.FileUtils;
+import com.summer.kvstore.model.sstable.SsTableBuilder;
+import com.summer.kvstore.statistics.HistogramType;
+import com.summer.kvstore.statistics.Statistics;
+import com.summer.kvstore.statistics.Ticker;
 import com.summer.kvstore.utils.LoggerUtil;
-import org.apache.commons.collections.CollectionUtils;
+import com.summer.kvstore.version.SnapshotList;
+import com.summer.kvstore.version.Version;
+import com.summer.kvstore.version.VersionEdit;
+import com.summer.kvstore.version.VersionSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.File;
-import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
@@ -26,40 +34,99 @@ import java.util.concurrent.locks.ReentrantLock;
  *
  * 触发机制：
  * level0根据sstable文件数
- * 其他level根据文件总大小
+ * 其他level根据文件总大小，levelN的目标大小为 maxBytesForLevelBase * multiplier^(N-1)
+ *
+ * 每一层计算一个分数（level0为文件数/触发阈值，其他层为总大小/目标大小），分数不小于1的层需要compaction，
+ * 分数高的层优先。compaction在后台线程池中执行，输入文件不重叠的compaction可以并发执行
  */
 public class Compactioner {
     private final Logger LOGGER = LoggerFactory.getLogger(Compactioner.class);
 
     /**
-     * Level 0的sstable文件个数超过此阈值，触发compaction
+     * 用来执行compaction的线程池
      */
-    private final static Integer L0_DUMP_MAX_FILE_NUM = 3;
+    private final ExecutorService compactionExecutor;
 
     /**
-     * 其他level的sstable文件总大小超过此阈值，触发compaction（单位：byte）
+     * 锁，保护下面的调度状态
      */
-    private final static Integer L_OTHER_DUMP_MAX_FILE_SIZE = 100;
+    private final ReentrantLock mutex = new ReentrantLock();
 
     /**
-     * 用来执行compaction的线程池
+     * 正在参与compaction的sstable文件编号
      */
-    private ExecutorService compactionExecutor;
+    private final Set<Long> compactingFiles = new HashSet<>();
 
     /**
-     * compaction执行结果
+     * level0的compaction是否正在执行，level0同时只能有一个compaction
      */
-    private Future<?> backgroundCompactionFuture;
+    private boolean l0Compacting;
 
     /**
-     * 锁
+     * 正在执行的compaction个数
      */
-    private final ReentrantLock mutex = new ReentrantLock();
-    private List<SsTable> overlappedL0SSTableFileMetaInfos;
+    private int runningCompactions;
+
+    /**
+     * 每层上一次compaction的最大key，下一次从它之后的文件开始，保证整层的key范围轮流被compaction
+     */
+    private final byte[][] compactPointers = new byte[KVConstants.SSTABLE_MAX_LEVEL][];
+
+    /**
+     * 执行失败的compaction的输入文件编号。同样的输入不再重新调度，避免失败后立即重试形成死循环；
+     * 输入层或下一层的文件发生变化后输入集合随之改变，才会再次尝试
+     */
+    private final Set<Set<Long>> failedInputs = new HashSet<>();
+
+    private boolean closed;
 
-    public Compactioner() {
+    /**
+     * 存储配置
+     */
+    private final Options options;
+
+    /**
+     * 数据块缓存，为null表示不缓存
+     */
+    private final BlockCache blockCache;
+
+    /**
+     * sstable文件句柄缓存，compaction读取输入和写出的sstable与读取共用
+     */
+    private final TableCache tableCache;
+
+    /**
+     * 版本管理，compaction基于引用的版本选择输入，完成后提交VersionEdit
+     */
+    private final VersionSet versionSet;
+
+    /**
+     * 存活的快照，快照可见的旧版本不能丢弃
+     */
+    private final SnapshotList snapshots;
+
+    /**
+     * key的比较器
+     */
+    private final KeyComparator comparator;
+
+    /**
+     * 运行统计，记录compaction读写的字节数和耗时
+     */
+    private final Statistics statistics;
+
+    public Compactioner(Options options, BlockCache blockCache, TableCache tableCache, Statistics statistics,
+                        VersionSet versionSet, SnapshotList snapshots) {
+        this.options = options;
+        this.blockCache = blockCache;
+        this.tableCache = tableCache;
+        this.statistics = statistics;
+        this.versionSet = versionSet;
+        this.snapshots = snapshots;
+        this.comparator = options.getComparator();
         ThreadFactory compactionThreadFactory = new ThreadFactoryBuilder()
                 .setNameFormat("summer-kvstore-compaction-%s")
+                .setDaemon(true)
                 .setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler()
                 {
                     @Override
@@ -69,223 +136,447 @@ public class Compactioner {
                     }
                 })
                 .build();
-        compactionExecutor = Executors.newSingleThreadExecutor(compactionThreadFactory);
+        compactionExecutor = Executors.newFixedThreadPool(Math.max(1, options.getCompactionThreads()),
+                compactionThreadFactory);
     }
 
     /**
-     * compaction操作
-     *
-     * @param levelMetaInfos 每一层的sstable信息
+     * 检查各层是否需要compaction，需要的话提交到后台线程池执行
      */
-    public void compaction(Map<Integer, List<SsTable>> levelMetaInfos,
-                           AtomicLong nextFileNumber) {
+    public void maybeScheduleCompaction() {
         mutex.lock();
+        try {
+            //MANIFEST写入失败后版本不能再变更，compaction的结果无法提交
+            while (!closed && versionSet.getManifestError() == null
+                    && runningCompactions < Math.max(1, options.getCompactionThreads())) {
+                Compaction compaction = pickCompaction();
+                if (compaction == null) {
+                    return;
+                }
+                for (SsTable ssTable : compaction.allInputs()) {
+                    compactingFiles.add(ssTable.getFileNumber());
+                }
+                if (compaction.level == 0) {
+                    l0Compacting = true;
+                }
+                runningCompactions++;
+                compactionExecutor.execute(() -> runCompaction(compaction));
+            }
+        } finally {
+            mutex.unlock();
+        }
+    }
 
-        //同步执行
+    /**
+     * 停止调度新的compaction，等待正在执行的compaction完成
+     */
+    public void close() {
+        mutex.lock();
+        try {
+            closed = true;
+        } finally {
+            mutex.unlock();
+        }
+        compactionExecutor.shutdown();
         try {
-            doBackgroundCompaction(levelMetaInfos, nextFileNumber);
-        } catch (Exception e) {
-            LoggerUtil.error(LOGGER, e, "doBackgroundCompaction exception,", e);
+            compactionExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
+    }
 
-        /**
-        //提交线程池异步执行
-        this.backgroundCompactionFuture = compactionExecutor.submit(new Callable<Void>() {
-            @Override
-            public Void call() {
-                try {
-                    doBackgroundCompaction(levelMetaInfos, nextFileNumber);
-                } catch (Exception e) {
-                    System.out.println("doBackgroundCompaction,exception," + e);
-                    e.printStackTrace();
+    /**
+     * 按分数从高到低选择一个可以执行的compaction，调用时需要持有mutex
+     *
+     * @return 没有需要执行的compaction返回null，返回的compaction持有版本的引用
+     */
+    Compaction pickCompaction() {
+        Version version = versionSet.current();
+        try {
+            pruneFailedInputs(version);
+
+            //最后一层不再往下compaction
+            List<Integer> levels = new ArrayList<>();
+            Map<Integer, Double> scores = new HashMap<>();
+            for (int level = 0; level < KVConstants.SSTABLE_MAX_LEVEL - 1; level++) {
+                double score = computeScore(version, level);
+                if (score >= 1) {
+                    levels.add(level);
+                    scores.put(level, score);
                 }
-                return null;
             }
-        });
-         **/
-
-        mutex.unlock();
+            levels.sort((l1, l2) -> Double.compare(scores.get(l2), scores.get(l1)));
+
+            for (Integer level : levels) {
+                Compaction compaction = level == 0 ? pickL0Compaction(version)
+                        : pickLevelCompaction(version, level);
+                if (compaction != null) {
+                    LoggerUtil.debug(LOGGER, "pickCompaction,level={},score={},compaction={}", level,
+                            scores.get(level), compaction);
+                    //版本的引用转交给compaction，执行完后释放
+                    compaction.version = version;
+                    version = null;
+                    return compaction;
+                }
+            }
+            return null;
+        } finally {
+            if (version != null) {
+                version.unref();
+            }
+        }
     }
 
     /**
-     * 执行compaction操作
+     * 失败记录中的文件已经不在当前版本时，这条记录不会再被匹配到，直接清理
      *
-     * @param levelMetaInfos
-     * @param nextFileNumber
+     * @param version 当前版本
      */
-    private void doBackgroundCompaction(Map<Integer, List<SsTable>> levelMetaInfos,
-                                        AtomicLong nextFileNumber) throws IOException {
-        //TODO 并发处理
-
-        //先判断l0是否应该触发compaction
-        if (levelMetaInfos.get(0).size() <= L0_DUMP_MAX_FILE_NUM) {
+    private void pruneFailedInputs(Version version) {
+        if (failedInputs.isEmpty()) {
             return;
         }
+        Set<Long> liveFiles = new HashSet<>();
+        for (int level = 0; level < KVConstants.SSTABLE_MAX_LEVEL; level++) {
+            for (SsTable ssTable : version.getLevel(level)) {
+                liveFiles.add(ssTable.getFileNumber());
+            }
+        }
+        failedInputs.removeIf(fileNumbers -> !liveFiles.containsAll(fileNumbers));
+    }
 
-        LoggerUtil.debug(LOGGER, "doBackgroundCompaction begin...levelMetaInfos=" + levelMetaInfos);
-
-        //1. 执行l0的compaction
-        //找出和当前新产生的sstable存在重合key的sstable，和下一level的存在key重合的sstable进行合并，写入到下一level
-
-        //当前新产生的l0的sstable一定是文件编号最大的
-        List<SsTable> l0Sstables  = levelMetaInfos.get(0);
-        Optional<SsTable> maxFileNumOptional = l0Sstables.stream().max(Comparator.comparingLong(SsTable::getFileNumber));
-        SsTable lastL0SsTable = maxFileNumOptional.get();
-
-        LoggerUtil.debug(LOGGER, "doBackgroundCompaction,lastL0SsTable=" + lastL0SsTable);
+    /**
+     * 计算某一层的compaction分数
+     *
+     * @param level
+     * @return
+     */
+    double computeScore(Version version, int level) {
+        List<SsTable> ssTables = version.getLevel(level);
+        if (level == 0) {
+            return ssTables.size() / (double) Math.max(1, options.getL0CompactionTrigger());
+        }
+        return totalFileSize(ssTables) / (double) maxBytesForLevel(level);
+    }
 
-        List<SsTable> overlappedL0SSTableFileMetaInfos = findOverlapSstables(
-            lastL0SsTable.getTableMetaInfo().getSmallestKey(), lastL0SsTable.getTableMetaInfo().getLargestKey(),
-            l0Sstables);
+    /**
+     * 每层的目标大小
+     *
+     * @param level
+     * @return
+     */
+    private long maxBytesForLevel(int level) {
+        long result = options.getMaxBytesForLevelBase();
+        for (int i = 1; i < level; i++) {
+            result *= options.getLevelSizeMultiplier();
+        }
+        return result;
+    }
 
-        LoggerUtil.debug(LOGGER, "doBackgroundCompaction,overlappedL0SSTableFileMetaInfos=" + overlappedL0SSTableFileMetaInfos);
+    /**
+     * level0的sstable之间key会重叠，如果只合并一部分，留在level0的更老的数据会遮住合并到level1的新数据，
+     * 因此一次合并level0当前所有的sstable
+     *
+     * @return
+     */
+    private Compaction pickL0Compaction(Version version) {
+        if (l0Compacting) {
+            return null;
+        }
+        List<SsTable> inputs = version.getLevel(0);
+        if (inputs.isEmpty()) {
+            return null;
+        }
+        return buildCompaction(version, 0, inputs);
+    }
 
-        //计算一批sstable文件覆盖的key范围
-        String smallestKey = null;
-        String largestKey = null;
-        for (SsTable ssTableFileMetaInfo : overlappedL0SSTableFileMetaInfos) {
-            if (smallestKey == null || smallestKey.compareTo(ssTableFileMetaInfo.getTableMetaInfo().getSmallestKey()) > 0) {
-                smallestKey = ssTableFileMetaInfo.getTableMetaInfo().getSmallestKey();
+    /**
+     * 其他level从上一次compaction的位置之后选择一个不在compaction中的文件
+     *
+     * @param level
+     * @return
+     */
+    private Compaction pickLevelCompaction(Version version, int level) {
+        //已按最小key排序
+        List<SsTable> ssTables = version.getLevel(level);
+        int start = 0;
+        if (compactPointers[level] != null) {
+            while (start < ssTables.size()
+                    && comparator.compare(ssTables.get(start).getTableMetaInfo().getSmallestKey(),
+                    compactPointers[level]) <= 0) {
+                start++;
+            }
+        }
+        for (int i = 0; i < ssTables.size(); i++) {
+            SsTable ssTable = ssTables.get((start + i) % ssTables.size());
+            if (compactingFiles.contains(ssTable.getFileNumber())) {
+                continue;
             }
-            if (largestKey == null || largestKey.compareTo(ssTableFileMetaInfo.getTableMetaInfo().getLargestKey()) < 0) {
-                largestKey = ssTableFileMetaInfo.getTableMetaInfo().getLargestKey();
+            Compaction compaction = buildCompaction(version, level, Collections.singletonList(ssTable));
+            if (compaction != null) {
+                return compaction;
             }
         }
+        return null;
+    }
 
-        LoggerUtil.debug(LOGGER, "doBackgroundCompaction,smallestKey=" + smallestKey + ",largestKey=" + largestKey);
-
-        //再获取l1存在重合key的所有sstable
-        List<SsTable> overlappedL1SSTableFileMetaInfos = findOverlapSstables(
-                smallestKey, largestKey, levelMetaInfos.get(1));
-
-        LoggerUtil.debug(LOGGER, "doBackgroundCompaction,overlappedL1SSTableFileMetaInfos=" + overlappedL1SSTableFileMetaInfos);
-
-        //合并为1个sstable文件，放置到l1
+    /**
+     * 找出下一层存在重合key的文件，组成一个compaction
+     *
+     * @param version 当前版本
+     * @param level 输入层
+     * @param inputs 输入层参与compaction的文件
+     * @return 下一层的文件正在参与其他compaction，或者同样的输入已经失败过时返回null
+     */
+    private Compaction buildCompaction(Version version, int level, List<SsTable> inputs) {
+        byte[] smallestKey = null;
+        byte[] largestKey = null;
+        for (SsTable ssTable : inputs) {
+            if (smallestKey == null
+                    || comparator.compare(smallestKey, ssTable.getTableMetaInfo().getSmallestKey()) > 0) {
+                smallestKey = ssTable.getTableMetaInfo().getSmallestKey();
+            }
+            if (largestKey == null
+                    || comparator.compare(largestKey, ssTable.getTableMetaInfo().getLargestKey()) < 0) {
+                largestKey = ssTable.getTableMetaInfo().getLargestKey();
+            }
+        }
 
-        //l0所有文件排序，文件编号越小的表示越早的文件，相同的key，以最新的数据为准
-        List<SsTable> overlappedSstables = new ArrayList<>();
-        if (!CollectionUtils.isEmpty(overlappedL0SSTableFileMetaInfos)) {
-            overlappedSstables.addAll(overlappedL0SSTableFileMetaInfos);
+        List<SsTable> outputLevelInputs = findOverlapSstables(smallestKey, largestKey, version.getLevel(level + 1));
+        for (SsTable ssTable : outputLevelInputs) {
+            if (compactingFiles.contains(ssTable.getFileNumber())) {
+                return null;
+            }
         }
-        if (!CollectionUtils.isEmpty(overlappedL1SSTableFileMetaInfos)) {
-            overlappedSstables.addAll(overlappedL1SSTableFileMetaInfos);
+        if (!failedInputs.isEmpty()
+                && failedInputs.contains(fileNumbers(inputs, outputLevelInputs))) {
+            return null;
         }
-        overlappedSstables.sort((sstabl1, sstable2) -> {
-            if (sstabl1.getFileNumber() < sstable2.getFileNumber()) {
-                return -1;
-            } else if (sstabl1.getFileNumber() == sstable2.getFileNumber()) {
-                return 0;
-            } else {
-                return 1;
+
+        //更深的层在compaction期间不会增加这个key范围内的数据，用来判断删除命令能否丢弃。
+        //下一层的输入文件可能超出输入层的key范围，需要按合并后的完整范围查找
+        byte[] allSmallestKey = smallestKey;
+        byte[] allLargestKey = largestKey;
+        for (SsTable ssTable : outputLevelInputs) {
+            if (comparator.compare(allSmallestKey, ssTable.getTableMetaInfo().getSmallestKey()) > 0) {
+                allSmallestKey = ssTable.getTableMetaInfo().getSmallestKey();
             }
-        });
-
-        //合并后的结果
-        ConcurrentSkipListMap<String, Command> mergedData = new ConcurrentSkipListMap<>();
-        mergeSstables(overlappedSstables, mergedData);
-
-        LoggerUtil.debug(LOGGER, "doBackgroundCompaction...开始生成的sstable文件,overlappedL0SSTableFileMetaInfos"
-                + overlappedL0SSTableFileMetaInfos + ",overlappedL1SSTableFileMetaInfos="
-                + overlappedL1SSTableFileMetaInfos + ",mergedData=" + mergedData);
-
-        //生成新的sstable文件
-        SsTable newSsTable = SsTable.createFromIndex(nextFileNumber.getAndIncrement(), 4,
-                mergedData, true, 1);
-        List<SsTable> l1Sstables = levelMetaInfos.get(1);
-        if (l1Sstables == null) {
-            l1Sstables =  new ArrayList<>();
-            levelMetaInfos.put(1, l1Sstables);
-        }
-        l1Sstables.add(newSsTable);
-        //删除不需要的sstable
-        Iterator l0SstableIterator = l0Sstables.iterator();
-        while (l0SstableIterator.hasNext()) {
-            SsTable tempSsTable = (SsTable) l0SstableIterator.next();
-            if (containTheSstable(overlappedL0SSTableFileMetaInfos, tempSsTable.getFileNumber())) {
-                l0SstableIterator.remove();
-                tempSsTable.close();
-                File tmpSstableFile = new File(FileUtils.buildSstableFilePath(tempSsTable.getFileNumber(), 0));
-                tmpSstableFile.delete();
+            if (comparator.compare(allLargestKey, ssTable.getTableMetaInfo().getLargestKey()) < 0) {
+                allLargestKey = ssTable.getTableMetaInfo().getLargestKey();
             }
         }
-        Iterator l1SstableIterator = l1Sstables.iterator();
-        while (l1SstableIterator.hasNext()) {
-            SsTable tempSsTable = (SsTable) l1SstableIterator.next();
-            if (containTheSstable(overlappedL1SSTableFileMetaInfos, tempSsTable.getFileNumber())) {
-                l1SstableIterator.remove();
-                tempSsTable.close();
-                File tmpSstableFile = new File(FileUtils.buildSstableFilePath(tempSsTable.getFileNumber(), 0));
-                tmpSstableFile.delete();
-            }
+        List<SsTable> deeperSstables = new ArrayList<>();
+        for (int deeperLevel = level + 2; deeperLevel < KVConstants.SSTABLE_MAX_LEVEL; deeperLevel++) {
+            deeperSstables.addAll(findOverlapSstables(allSmallestKey, allLargestKey,
+                    version.getLevel(deeperLevel)));
         }
-
-        LoggerUtil.debug(LOGGER, "doBackgroundCompaction...完成l0的compaction,levelMetaInfos=" + levelMetaInfos);
-
-        //2. 执行其他level的compaction
-        //TODO
+        return new Compaction(level, inputs, outputLevelInputs, deeperSstables, largestKey);
     }
 
     /**
-     * 判断一个sstable列表里是否包含对应编号的sstable文件
-     * @param ssTables
-     * @param fileNumber
-     * @return
+     * 后台线程执行compaction
+     *
+     * @param compaction
      */
-    private boolean containTheSstable(List<SsTable> ssTables, Long fileNumber) {
-        for (SsTable ssTable : ssTables) {
-            if (fileNumber.equals(ssTable.getFileNumber())) {
-                return true;
+    private void runCompaction(Compaction compaction) {
+        long startNanos = System.nanoTime();
+        boolean failed = false;
+        try {
+            List<SsTable> outputs = doCompaction(compaction);
+            installCompaction(compaction, outputs);
+            for (SsTable ssTable : compaction.allInputs()) {
+                statistics.recordTick(Ticker.COMPACTION_BYTES_READ, ssTable.getTableMetaInfo().getFileSize());
+            }
+            statistics.recordInHistogram(HistogramType.COMPACTION, System.nanoTime() - startNanos);
+        } catch (Throwable t) {
+            failed = true;
+            LoggerUtil.error(LOGGER, t, "runCompaction exception,compaction={}", compaction);
+        } finally {
+            mutex.lock();
+            try {
+                if (failed) {
+                    failedInputs.add(fileNumbers(compaction.inputs, compaction.outputLevelInputs));
+                }
+                for (SsTable ssTable : compaction.allInputs()) {
+                    compactingFiles.remove(ssTable.getFileNumber());
+                }
+                if (compaction.level == 0) {
+                    l0Compacting = false;
+                }
+                runningCompactions--;
+                //调度状态更新之后再计数，看到计数时失败的输入已经记录
+                if (failed) {
+                    statistics.recordTick(Ticker.COMPACTION_FAILURES, 1);
+                }
+            } finally {
+                mutex.unlock();
             }
+            compaction.version.unref();
         }
-
-        return false;
+        //合并后下一层可能也需要compaction
+        maybeScheduleCompaction();
     }
 
     /**
-     * 合并sstable内容
+     * 合并输入文件，生成下一层的sstable
+     *
+     * 各输入文件的迭代器通过最小堆多路归并，按key顺序流式写出，内存中只有每个输入的当前数据块和正在构建的数据块；
+     * 输出文件达到目标大小后切分为新的sstable，同一个key的版本不会拆分到两个文件中。
+     *
+     * 同一个key的旧版本只有在比它新的版本对所有快照都可见时才丢弃
      *
-     * @param ssTableList
-     * @param mergedData
+     * @param compaction
+     * @return 合并生成的sstable，合并后没有数据时为空
      */
-    private void mergeSstables(List<SsTable> ssTableList, ConcurrentSkipListMap<String, Command> mergedData) {
-        ssTableList.forEach(ssTable -> {
-            Map<String, JSONObject> jsonObjectMap = readSstableContent(ssTable);
-            for (Map.Entry<String, JSONObject> entry : jsonObjectMap.entrySet()) {
-                Command command = ConvertUtil.jsonToCommand(entry.getValue());
-                //删除数据处理
-                if (command instanceof RmCommand) {
-                    mergedData.remove(command.getKey());
-                } else {
-                    mergedData.put(command.getKey(), command);
+    List<SsTable> doCompaction(Compaction compaction) {
+        //按从新到旧的顺序传入归并迭代器，相同的key以最新的数据为准：输入层比下一层新，level0内文件编号越大越新
+        List<InternalIterator> children = new ArrayList<>();
+        List<SsTable> inputs = new ArrayList<>(compaction.inputs);
+        inputs.sort(Comparator.comparing(SsTable::getFileNumber).reversed());
+        for (SsTable ssTable : inputs) {
+            children.add(new TableIterator(ssTable, false));
+        }
+        if (!compaction.outputLevelInputs.isEmpty()) {
+            List<SsTable> outputLevelInputs = new ArrayList<>(compaction.outputLevelInputs);
+            outputLevelInputs.sort((ssTable1, ssTable2) -> comparator.compare(
+                    ssTable1.getTableMetaInfo().getSmallestKey(), ssTable2.getTableMetaInfo().getSmallestKey()));
+            children.add(new LevelIterator(outputLevelInputs, comparator, false));
+        }
+        MergingIterator mergingIterator = new MergingIterator(children, comparator);
+        long smallestSnapshot = snapshots.oldest(versionSet::getLastSequence);
+
+        List<SsTable> outputs = new ArrayList<>();
+        SsTableBuilder builder = null;
+        try {
+            byte[] currentKey = null;
+            //当前key上一个版本的序列号
+            long lastSequenceForKey = Long.MAX_VALUE;
+            for (mergingIterator.seekToFirst(); mergingIterator.isValid(); mergingIterator.next()) {
+                Command command = mergingIterator.command();
+                boolean newKey = !Arrays.equals(command.getKey(), currentKey);
+                if (newKey) {
+                    currentKey = command.getKey();
+                    lastSequenceForKey = Long.MAX_VALUE;
+                }
+                boolean drop = false;
+                if (lastSequenceForKey <= smallestSnapshot) {
+                    //更新的版本对所有快照都可见，这个版本不会再被读到
+                    drop = true;
+                } else if (command instanceof RmCommand && command.getSeq() <= smallestSnapshot
+                        && isBaseLevelForKey(command.getKey(), compaction.deeperSstables)) {
+                    //删除命令只有在更深的层没有这个key时才能丢弃，否则更老的数据会重新可见；
+                    //同一个key更老的版本在下面的循环中都会因为这个删除命令对所有快照可见而丢弃
+                    drop = true;
                 }
+                lastSequenceForKey = command.getSeq();
+                if (drop) {
+                    continue;
+                }
+
+                //达到目标大小，在key变化时切分输出文件
+                if (builder != null && newKey && builder.getFileSize() >= options.getTargetFileSize()) {
+                    outputs.add(finishOutput(builder));
+                    builder = null;
+                }
+                if (builder == null) {
+                    builder = new SsTableBuilder(versionSet.getDataDir(), versionSet.newFileNumber(),
+                            options.getPartSize(), options.getCompression(compaction.level + 1),
+                            compaction.level + 1, options.getBloomBitsPerKey());
+                }
+                builder.add(command);
+            }
+            if (builder != null) {
+                outputs.add(finishOutput(builder));
+                builder = null;
+            }
+        } catch (Throwable t) {
+            //合并失败，删除已经生成的文件
+            if (builder != null) {
+                builder.abandon();
             }
-        });
+            for (SsTable output : outputs) {
+                output.markObsolete();
+                output.unref();
+            }
+            throw t;
+        }
+
+        LoggerUtil.debug(LOGGER, "doCompaction,compaction={},outputs={}", compaction, outputs.size());
+        return outputs;
+    }
+
+    private SsTable finishOutput(SsTableBuilder builder) {
+        SsTable ssTable = builder.finish();
+        ssTable.setBlockCache(blockCache);
+        ssTable.setTableCache(tableCache);
+        ssTable.setComparator(comparator);
+        ssTable.setStatistics(statistics);
+        statistics.recordTick(Ticker.COMPACTION_BYTES_WRITTEN, ssTable.getTableMetaInfo().getFileSize());
+        return ssTable;
     }
 
     /**
-     * 读取sstable内容到内存
-     * @param ssTable
-     * @return
-     * @throws IOException
+     * 用compaction的结果替换输入文件
+     *
+     * @param compaction
+     * @param outputs 合并生成的sstable
      */
-    private Map<String, JSONObject> readSstableContent(SsTable ssTable) {
-        Map<String, JSONObject> jsonObjectMap = new HashMap<>();
+    void installCompaction(Compaction compaction, List<SsTable> outputs) {
+        VersionEdit edit = new VersionEdit();
+        for (SsTable ssTable : compaction.inputs) {
+            edit.deleteFile(compaction.level, ssTable.getFileNumber());
+        }
+        for (SsTable ssTable : compaction.outputLevelInputs) {
+            edit.deleteFile(compaction.level + 1, ssTable.getFileNumber());
+        }
+        for (SsTable ssTable : outputs) {
+            edit.addFile(compaction.level + 1, ssTable);
+        }
+        //输入文件仍在被迭代器使用时，在迭代器关闭后才删除
+        versionSet.logAndApply(edit);
 
+        mutex.lock();
         try {
-            TreeMap<String, Position> sparseIndex = ssTable.getSparseIndex();
-            for (Position position : sparseIndex.values()) {
-                JSONObject jsonObject = BlockUtils.readJsonObject(position, true,
-                        ssTable.getTableFile());
-                //遍历每个key
-                for (Map.Entry entry : jsonObject.entrySet()) {
-                    String key = (String)entry.getKey();
-                    jsonObjectMap.put(key, jsonObject.getJSONObject(key));
-                }
+            compactPointers[compaction.level] = compaction.largestKey;
+        } finally {
+            mutex.unlock();
+        }
+    }
+
+    /**
+     * 更深的层是否都不包含这个key
+     *
+     * @param key
+     * @param deeperSstables 更深的层中和compaction的key范围重叠的sstable
+     * @return
+     */
+    private boolean isBaseLevelForKey(byte[] key, List<SsTable> deeperSstables) {
+        for (SsTable ssTable : deeperSstables) {
+            if (comparator.compare(key, ssTable.getTableMetaInfo().getSmallestKey()) >= 0
+                    && comparator.compare(key, ssTable.getTableMetaInfo().getLargestKey()) <= 0) {
+                return false;
             }
-        } catch (Exception e) {
-            e.printStackTrace();
         }
-        return jsonObjectMap;
+        return true;
+    }
+
+    private static Set<Long> fileNumbers(List<SsTable> inputs, List<SsTable> outputLevelInputs) {
+        Set<Long> fileNumbers = new HashSet<>();
+        for (SsTable ssTable : inputs) {
+            fileNumbers.add(ssTable.getFileNumber());
+        }
+        for (SsTable ssTable : outputLevelInputs) {
+            fileNumbers.add(ssTable.getFileNumber());
+        }
+        return fileNumbers;
+    }
+
+    private long totalFileSize(List<SsTable> ssTables) {
+        long size = 0;
+        for (SsTable ssTable : ssTables) {
+            size += ssTable.getTableMetaInfo().getFileSize();
+        }
+        return size;
     }
 
     /**
@@ -296,7 +587,7 @@ public class Compactioner {
      * @param ssTables 某层的sstale信息
      * @return
      */
-    private List<SsTable> findOverlapSstables(String smallestKey, String largestKey,
+    private List<SsTable> findOverlapSstables(byte[] smallestKey, byte[] largestKey,
                                               List<SsTable> ssTables) {
         List<SsTable> ssTableFileMetaInfos = new ArrayList<>();
         if (ssTables == null) {
@@ -304,12 +595,75 @@ public class Compactioner {
         }
 
         for (SsTable ssTable : ssTables) {
-            if (!(ssTable.getTableMetaInfo().getLargestKey().compareTo(smallestKey) < 0
-                    || ssTable.getTableMetaInfo().getSmallestKey().compareTo(largestKey) > 0)) {
+            if (!(comparator.compare(ssTable.getTableMetaInfo().getLargestKey(), smallestKey) < 0
+                    || comparator.compare(ssTable.getTableMetaInfo().getSmallestKey(), largestKey) > 0)) {
                 ssTableFileMetaInfos.add(ssTable);
             }
         }
 
         return ssTableFileMetaInfos;
     }
+
+    /**
+     * 一次compaction的输入
+     */
+    static class Compaction {
+        /**
+         * 输入层，输出到下一层
+         */
+        final int level;
+
+        /**
+         * 输入层参与compaction的文件
+         */
+        final List<SsTable> inputs;
+
+        /**
+         * 下一层和输入key范围重叠的文件
+         */
+        final List<SsTable> outputLevelInputs;
+
+        /**
+         * 更深的层中和输入key范围重叠的文件
+         */
+        final List<SsTable> deeperSstables;
+
+        /**
+         * 输入的最大key
+         */
+        final byte[] largestKey;
+
+        /**
+         * 选择输入时引用的版本，保证执行期间输入文件不会被释放
+         */
+        Version version;
+
+        Compaction(int level, List<SsTable> inputs, List<SsTable> outputLevelInputs,
+                   List<SsTable> deeperSstables, byte[] largestKey) {
+            this.level = level;
+            this.inputs = inputs;
+            this.outputLevelInputs = outputLevelInputs;
+            this.deeperSstables = deeperSstables;
+            this.largestKey = largestKey;
+        }
+
+        List<SsTable> allInputs() {
+            List<SsTable> result = new ArrayList<>(inputs);
+            result.addAll(outputLevelInputs);
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("level=").append(level).append(",inputs=[");
+            for (SsTable ssTable : inputs) {
+                sb.append(ssTable.getFileNumber()).append(" ");
+            }
+            sb.append("],outputLevelInputs=[");
+            for (SsTable ssTable : outputLevelInputs) {
+                sb.append(ssTable.getFileNumber()).append(" ");
+            }
+            return sb.append("]").toString();
+        }
+    }
 }
@@ -0,0 +1,50 @@
+package com.summer.kvstore.comparator;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 默认比较器，按无符号字节逐个比较，较短的key是较长key的前缀时排在前面
+ *
+ * 对UTF-8编码的字符串key，顺序和按unicode码点比较一致
+ */
+public class BytewiseComparator implements KeyComparator {
+
+    public static final BytewiseComparator INSTANCE = new BytewiseComparator();
+
+    private BytewiseComparator() {
+    }
+
+    @Override
+    public String name() {
+        return "summer.kvstore.BytewiseComparator";
+    }
+
+    @Override
+    public int compare(byte[] a, byte[] b) {
+        return compare(a, 0, a.length, b, 0, b.length);
+    }
+
+    @Override
+    public int compare(byte[] a, int aOffset, int aLength, byte[] b, int bOffset, int bLength) {
+        int minLen = Math.min(aLength, bLength);
+        for (int i = 0; i < minLen; i++) {
+            int cmp = (a[aOffset + i] & 0xFF) - (b[bOffset + i] & 0xFF);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return aLength - bLength;
+    }
+
+    @Override
+    public int compare(ByteBuffer a, int aOffset, int aLength, byte[] b, int bOffset, int bLength) {
+        int minLen = Math.min(aLength, bLength);
+        for (int i = 0; i < minLen; i++) {
+            int cmp = (a.get(aOffset + i) & 0xFF) - (b[bOffset + i] & 0xFF);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return aLength - bLength;
+    }
+}
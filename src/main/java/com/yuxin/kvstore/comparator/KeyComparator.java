@@ -0,0 +1,59 @@
+package com.summer.kvstore.comparator;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * 用户key的比较器，决定memtable、sstable和各层文件中key的顺序
+ *
+ * 比较结果为0的两个key必须字节完全相同。数据写入后不能更换比较器，
+ * 比较器的名字记录在MANIFEST中，打开时名字不一致会拒绝启动
+ */
+public interface KeyComparator extends Comparator<byte[]> {
+
+    /**
+     * 比较器的名字，排序规则变化时需要换一个名字
+     * @return
+     */
+    String name();
+
+    /**
+     * 比较两个字节数组的片段
+     *
+     * 默认复制后比较，实现类可以重写避免复制
+     *
+     * @param a
+     * @param aOffset
+     * @param aLength
+     * @param b
+     * @param bOffset
+     * @param bLength
+     * @return
+     */
+    default int compare(byte[] a, int aOffset, int aLength, byte[] b, int bOffset, int bLength) {
+        return compare(Arrays.copyOfRange(a, aOffset, aOffset + aLength),
+                Arrays.copyOfRange(b, bOffset, bOffset + bLength));
+    }
+
+    /**
+     * 比较ByteBuffer中的片段和字节数组的片段，memtable的key存放在arena的ByteBuffer中时使用
+     *
+     * 只使用绝对位置读取，不修改buffer的position，可以多线程共享同一个buffer
+     *
+     * @param a
+     * @param aOffset
+     * @param aLength
+     * @param b
+     * @param bOffset
+     * @param bLength
+     * @return
+     */
+    default int compare(ByteBuffer a, int aOffset, int aLength, byte[] b, int bOffset, int bLength) {
+        byte[] copy = new byte[aLength];
+        for (int i = 0; i < aLength; i++) {
+            copy[i] = a.get(aOffset + i);
+        }
+        return compare(copy, 0, aLength, b, bOffset, bLength);
+    }
+}
@@ -0,0 +1,39 @@
+package com.summer.kvstore.compress;
+
+import java.io.IOException;
+
+/**
+ * 数据块压缩算法
+ *
+ * 每个sstable使用一种压缩算法，算法的id记录在文件尾部的元数据中，读取时按id选择解压算法，
+ * 和打开文件时的配置无关。id写入文件后不能再改变含义，自定义算法需要使用不和内置算法冲突的id，
+ * 并通过CompressionCodecs.register或者ServiceLoader（META-INF/services）注册
+ */
+public interface CompressionCodec {
+
+    /**
+     * 算法的id，记录在sstable的元数据中
+     * @return
+     */
+    byte id();
+
+    /**
+     * 算法的名字，用于日志和配置
+     * @return
+     */
+    String name();
+
+    /**
+     * 压缩一个数据块
+     * @param data
+     * @return
+     */
+    byte[] compress(byte[] data) throws IOException;
+
+    /**
+     * 解压一个数据块
+     * @param data compress的结果
+     * @return
+     */
+    byte[] uncompress(byte[] data) throws IOException;
+}
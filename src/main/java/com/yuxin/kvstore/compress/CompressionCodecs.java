@@ -0,0 +1,69 @@
+package com.summer.kvstore.compress;
+
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.Deflater;
+
+/**
+ * 压缩算法注册表，按元数据中的id查找解压算法
+ *
+ * 内置none、snappy和deflate，启动时通过ServiceLoader加载classpath中的自定义算法
+ */
+public class CompressionCodecs {
+
+    public static final CompressionCodec NONE = NoneCodec.INSTANCE;
+
+    public static final CompressionCodec SNAPPY = SnappyCodec.INSTANCE;
+
+    public static final CompressionCodec DEFLATE_FAST = new DeflateCodec(Deflater.BEST_SPEED);
+
+    /**
+     * zlib的默认压缩级别
+     */
+    public static final CompressionCodec DEFLATE = new DeflateCodec(6);
+
+    public static final CompressionCodec DEFLATE_BEST = new DeflateCodec(Deflater.BEST_COMPRESSION);
+
+    private static final ConcurrentMap<Byte, CompressionCodec> CODECS = new ConcurrentHashMap<>();
+
+    static {
+        register(NONE);
+        register(SNAPPY);
+        register(DEFLATE);
+        for (CompressionCodec codec : ServiceLoader.load(CompressionCodec.class)) {
+            register(codec);
+        }
+    }
+
+    private CompressionCodecs() {
+    }
+
+    /**
+     * 注册压缩算法，同一个id已经注册了不同名字的算法时抛出异常
+     *
+     * deflate的各个压缩级别共用一个id，已经注册时不替换
+     *
+     * @param codec
+     */
+    public static void register(CompressionCodec codec) {
+        CompressionCodec existing = CODECS.putIfAbsent(codec.id(), codec);
+        if (existing != null && existing != codec && existing.getClass() != codec.getClass()) {
+            throw new IllegalArgumentException("压缩算法id冲突,id=" + codec.id() + ",existing=" + existing.name()
+                    + ",codec=" + codec.name());
+        }
+    }
+
+    /**
+     * 按id查找压缩算法
+     * @param id
+     * @return
+     */
+    public static CompressionCodec get(long id) {
+        CompressionCodec codec = id >= Byte.MIN_VALUE && id <= Byte.MAX_VALUE ? CODECS.get((byte) id) : null;
+        if (codec == null) {
+            throw new IllegalStateException("未注册的压缩算法,id=" + id);
+        }
+        return codec;
+    }
+}
@@ -0,0 +1,102 @@
+package com.summer.kvstore.compress;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * JDK的Deflater压缩，压缩级别越高压缩率越高、压缩越慢，适合写入少、数据量大的最底层
+ *
+ * 解压和压缩级别无关，所有级别共用一个id。压缩结果格式：原始长度(int) | deflate数据（不带zlib头）
+ */
+public class DeflateCodec implements CompressionCodec {
+
+    public static final byte ID = 2;
+
+    private static final int LENGTH_SIZE = 4;
+
+    /**
+     * 压缩级别，0-9
+     */
+    private final int level;
+
+    /**
+     * @param level 压缩级别，Deflater.BEST_SPEED(1)到Deflater.BEST_COMPRESSION(9)，0表示只存储不压缩
+     */
+    public DeflateCodec(int level) {
+        if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("deflate压缩级别必须在0-9之间," + level);
+        }
+        this.level = level;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    @Override
+    public byte id() {
+        return ID;
+    }
+
+    @Override
+    public String name() {
+        return "deflate-" + level;
+    }
+
+    @Override
+    public byte[] compress(byte[] data) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            //不可压缩的数据会略微变大
+            byte[] out = new byte[LENGTH_SIZE + data.length + data.length / 1000 + 64];
+            ByteBuffer.wrap(out).putInt(data.length);
+            int len = LENGTH_SIZE;
+            while (!deflater.finished()) {
+                if (len == out.length) {
+                    out = Arrays.copyOf(out, out.length * 2);
+                }
+                len += deflater.deflate(out, len, out.length - len);
+            }
+            return Arrays.copyOf(out, len);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public byte[] uncompress(byte[] data) throws IOException {
+        int rawLength = ByteBuffer.wrap(data).getInt();
+        byte[] out = new byte[rawLength];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(data, LENGTH_SIZE, data.length - LENGTH_SIZE);
+            int len = 0;
+            while (len < rawLength) {
+                int n = inflater.inflate(out, len, rawLength - len);
+                if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                len += n;
+            }
+            if (len != rawLength) {
+                throw new IOException("deflate数据块损坏,expected=" + rawLength + ",actual=" + len);
+            }
+            return out;
+        } catch (DataFormatException e) {
+            throw new IOException("deflate数据块损坏", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name();
+    }
+}
@@ -0,0 +1,39 @@
+package com.summer.kvstore.compress;
+
+/**
+ * 不压缩，适合flush速度优先的level0
+ */
+public class NoneCodec implements CompressionCodec {
+
+    public static final byte ID = 0;
+
+    public static final NoneCodec INSTANCE = new NoneCodec();
+
+    private NoneCodec() {
+    }
+
+    @Override
+    public byte id() {
+        return ID;
+    }
+
+    @Override
+    public String name() {
+        return "none";
+    }
+
+    @Override
+    public byte[] compress(byte[] data) {
+        return data;
+    }
+
+    @Override
+    public byte[] uncompress(byte[] data) {
+        return data;
+    }
+
+    @Override
+    public String toString() {
+        return name();
+    }
+}
@@ -0,0 +1,43 @@
+package com.summer.kvstore.compress;
+
+import org.xerial.snappy.Snappy;
+
+import java.io.IOException;
+
+/**
+ * snappy压缩（https://github.com/xerial/snappy-java），压缩和解压速度快，压缩率一般
+ */
+public class SnappyCodec implements CompressionCodec {
+
+    public static final byte ID = 1;
+
+    public static final SnappyCodec INSTANCE = new SnappyCodec();
+
+    private SnappyCodec() {
+    }
+
+    @Override
+    public byte id() {
+        return ID;
+    }
+
+    @Override
+    public String name() {
+        return "snappy";
+    }
+
+    @Override
+    public byte[] compress(byte[] data) throws IOException {
+        return Snappy.compress(data);
+    }
+
+    @Override
+    public byte[] uncompress(byte[] data) throws IOException {
+        return Snappy.uncompress(data);
+    }
+
+    @Override
+    public String toString() {
+        return name();
+    }
+}
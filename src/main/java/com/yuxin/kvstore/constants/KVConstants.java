@@ -19,4 +19,16 @@ public class KVConstants {
      * sstable最大层数
      */
     public static final Integer SSTABLE_MAX_LEVEL = 3;
+
+    /**
+     * 布隆过滤器默认每个key占用的bit数，误判率约1%
+     */
+    public static final int DEFAULT_BLOOM_BITS_PER_KEY = 10;
+
+    /**
+     * memtable arena的块大小下限和上限（单位：byte），块大小取writeBufferSize的1/8
+     */
+    public static final int MIN_ARENA_BLOCK_SIZE = 4 * 1024;
+
+    public static final int MAX_ARENA_BLOCK_SIZE = 1024 * 1024;
 }
@@ -0,0 +1,66 @@
+package com.summer.kvstore.iterator;
+
+import com.summer.kvstore.comparator.KeyComparator;
+import com.summer.kvstore.model.command.Command;
+
+import java.util.List;
+
+/**
+ * 有序命令列表的迭代器，用于老版本JSON格式的数据块
+ */
+public class CommandListIterator implements InternalIterator {
+
+    /**
+     * 按key排好序的命令
+     */
+    private final List<Command> commands;
+
+    private final KeyComparator comparator;
+
+    private int index;
+
+    public CommandListIterator(List<Command> commands, KeyComparator comparator) {
+        this.commands = commands;
+        this.comparator = comparator;
+        this.index = commands.size();
+    }
+
+    @Override
+    public boolean isValid() {
+        return index < commands.size();
+    }
+
+    @Override
+    public void seekToFirst() {
+        index = 0;
+    }
+
+    @Override
+    public void seek(byte[] key) {
+        int left = 0, right = commands.size();
+        while (left < right) {
+            int mid = (left + right) >>> 1;
+            if (comparator.compare(commands.get(mid).getKey(), key) < 0) {
+                left = mid + 1;
+            } else {
+                right = mid;
+            }
+        }
+        index = left;
+    }
+
+    @Override
+    public void next() {
+        index++;
+    }
+
+    @Override
+    public byte[] key() {
+        return commands.get(index).getKey();
+    }
+
+    @Override
+    public Command command() {
+        return commands.get(index);
+    }
+}
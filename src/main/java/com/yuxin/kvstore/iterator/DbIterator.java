@@ -0,0 +1,133 @@
+package com.summer.kvstore.iterator;
+
+import com.summer.kvstore.comparator.KeyComparator;
+import com.summer.kvstore.model.command.Command;
+import com.summer.kvstore.model.command.RmCommand;
+import com.summer.kvstore.model.command.SetCommand;
+import com.summer.kvstore.version.Version;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 数据库迭代器
+ *
+ * 在多路归并的结果上，每个key只输出序列号不大于读取序列号的最新版本，跳过删除命令，并限制key的上界；
+ * 持有遍历的Version的引用，关闭时释放
+ */
+public class DbIterator implements KvIterator {
+
+    /**
+     * memtable、immutable memtable以及各层sstable的归并迭代器
+     */
+    private final InternalIterator internalIterator;
+
+    /**
+     * key的上界（不包含），为null表示不限制
+     */
+    private final byte[] endKey;
+
+    /**
+     * 读取的序列号，更新的版本不可见
+     */
+    private final long sequence;
+
+    /**
+     * 遍历期间引用的版本
+     */
+    private final Version version;
+
+    private final KeyComparator comparator;
+
+    private boolean closed;
+
+    public DbIterator(InternalIterator internalIterator, byte[] endKey, long sequence, Version version,
+                      KeyComparator comparator) {
+        this.internalIterator = internalIterator;
+        this.endKey = endKey;
+        this.comparator = comparator;
+        this.sequence = sequence;
+        this.version = version;
+    }
+
+    @Override
+    public boolean isValid() {
+        return internalIterator.isValid()
+                && (endKey == null || comparator.compare(internalIterator.key(), endKey) < 0);
+    }
+
+    @Override
+    public void seekToFirst() {
+        internalIterator.seekToFirst();
+        findNextUserEntry(null);
+    }
+
+    @Override
+    public void seek(byte[] key) {
+        internalIterator.seek(key);
+        findNextUserEntry(null);
+    }
+
+    @Override
+    public void seek(String key) {
+        seek(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void next() {
+        //当前key剩下的旧版本都跳过
+        byte[] skipKey = internalIterator.key();
+        internalIterator.next();
+        findNextUserEntry(skipKey);
+    }
+
+    @Override
+    public byte[] keyBytes() {
+        return internalIterator.key();
+    }
+
+    @Override
+    public byte[] valueBytes() {
+        return ((SetCommand) internalIterator.command()).getValue();
+    }
+
+    @Override
+    public String key() {
+        return new String(keyBytes(), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String value() {
+        byte[] value = valueBytes();
+        return value == null ? null : new String(value, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 定位到下一个对外可见的数据
+     *
+     * 跳过序列号大于读取序列号的版本和skipKey的版本；可见的最新版本是删除命令时，这个key的所有版本都跳过
+     *
+     * @param skipKey 需要跳过的key，为null表示不跳过
+     */
+    private void findNextUserEntry(byte[] skipKey) {
+        while (internalIterator.isValid()) {
+            Command command = internalIterator.command();
+            if (command.getSeq() <= sequence
+                    && (skipKey == null || comparator.compare(internalIterator.key(), skipKey) != 0)) {
+                if (!(command instanceof RmCommand)) {
+                    return;
+                }
+                skipKey = internalIterator.key();
+            }
+            internalIterator.next();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        version.unref();
+    }
+}
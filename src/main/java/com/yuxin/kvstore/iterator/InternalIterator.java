@@ -0,0 +1,47 @@
+package com.summer.kvstore.iterator;
+
+import com.summer.kvstore.model.command.Command;
+
+/**
+ * 引擎内部的有序迭代器，按比较器的顺序从小到大遍历命令（包括删除命令）
+ *
+ * 同一个key的多个版本相邻，按序列号从大到小遍历
+ *
+ * 新创建的迭代器处于无效状态，需要先调用seekToFirst或seek定位
+ */
+public interface InternalIterator {
+
+    /**
+     * 当前是否指向一条数据
+     * @return
+     */
+    boolean isValid();
+
+    /**
+     * 定位到第一条数据
+     */
+    void seekToFirst();
+
+    /**
+     * 定位到第一个不小于key的数据，key相同时定位到最新的版本
+     * @param key
+     */
+    void seek(byte[] key);
+
+    /**
+     * 移动到下一条数据，调用前需要保证isValid
+     */
+    void next();
+
+    /**
+     * 当前数据的key，调用方不能修改返回的数组，迭代器移动后返回的数组仍然有效
+     * @return
+     */
+    byte[] key();
+
+    /**
+     * 当前数据的命令
+     * @return
+     */
+    Command command();
+}
@@ -0,0 +1,67 @@
+package com.summer.kvstore.iterator;
+
+import java.io.Closeable;
+
+/**
+ * 对外的有序迭代器，按比较器的顺序从小到大遍历，已删除的数据不可见
+ *
+ * 新创建的迭代器处于无效状态，需要先调用seekToFirst或seek定位；使用完需要关闭，否则引用的sstable文件不会被删除。
+ * 字符串形式的key和value按UTF-8编解码
+ */
+public interface KvIterator extends Closeable {
+
+    /**
+     * 当前是否指向一条数据
+     * @return
+     */
+    boolean isValid();
+
+    /**
+     * 定位到第一条数据
+     */
+    void seekToFirst();
+
+    /**
+     * 定位到第一个不小于key的数据
+     * @param key
+     */
+    void seek(byte[] key);
+
+    /**
+     * 定位到第一个不小于key的数据
+     * @param key
+     */
+    void seek(String key);
+
+    /**
+     * 移动到下一条数据，调用前需要保证isValid
+     */
+    void next();
+
+    /**
+     * 当前数据的key，调用方不能修改返回的数组
+     * @return
+     */
+    byte[] keyBytes();
+
+    /**
+     * 当前数据的value，调用方不能修改返回的数组
+     * @return
+     */
+    byte[] valueBytes();
+
+    /**
+     * 当前数据的key
+     * @return
+     */
+    String key();
+
+    /**
+     * 当前数据的value
+     * @return
+     */
+    String value();
+
+    @Override
+    void close();
+}
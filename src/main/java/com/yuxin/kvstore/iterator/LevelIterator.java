@@ -0,0 +1,120 @@
+package com.summer.kvstore.iterator;
+
+import com.summer.kvstore.comparator.KeyComparator;
+import com.summer.kvstore.model.command.Command;
+import com.summer.kvstore.model.sstable.SsTable;
+
+import java.util.List;
+
+/**
+ * level1及以上某一层的迭代器
+ *
+ * 同一层的sstable之间key不重叠，按最小key排序后依次迭代，迭代到某个sstable时才打开它的迭代器
+ */
+public class LevelIterator implements InternalIterator {
+
+    /**
+     * 按最小key排好序的sstable
+     */
+    private final List<SsTable> ssTables;
+
+    private final KeyComparator comparator;
+
+    /**
+     * 读取的数据块未命中缓存时是否放入缓存
+     */
+    private final boolean fillCache;
+
+    /**
+     * 当前sstable下标
+     */
+    private int tableIndex;
+
+    /**
+     * 当前sstable的迭代器
+     */
+    private TableIterator tableIterator;
+
+    public LevelIterator(List<SsTable> ssTables, KeyComparator comparator) {
+        this(ssTables, comparator, true);
+    }
+
+    /**
+     * @param ssTables 按最小key排好序的sstable
+     * @param comparator key的比较器
+     * @param fillCache 读取的数据块未命中缓存时是否放入缓存
+     */
+    public LevelIterator(List<SsTable> ssTables, KeyComparator comparator, boolean fillCache) {
+        this.ssTables = ssTables;
+        this.comparator = comparator;
+        this.fillCache = fillCache;
+    }
+
+    @Override
+    public boolean isValid() {
+        return tableIterator != null && tableIterator.isValid();
+    }
+
+    @Override
+    public void seekToFirst() {
+        if (!openTable(0)) {
+            return;
+        }
+        tableIterator.seekToFirst();
+        skipEmptyTables();
+    }
+
+    @Override
+    public void seek(byte[] key) {
+        //二分查找第一个最大key不小于key的sstable
+        int left = 0, right = ssTables.size();
+        while (left < right) {
+            int mid = (left + right) >>> 1;
+            if (comparator.compare(ssTables.get(mid).getTableMetaInfo().getLargestKey(), key) < 0) {
+                left = mid + 1;
+            } else {
+                right = mid;
+            }
+        }
+        if (!openTable(left)) {
+            return;
+        }
+        tableIterator.seek(key);
+        skipEmptyTables();
+    }
+
+    @Override
+    public void next() {
+        tableIterator.next();
+        skipEmptyTables();
+    }
+
+    @Override
+    public byte[] key() {
+        return tableIterator.key();
+    }
+
+    @Override
+    public Command command() {
+        return tableIterator.command();
+    }
+
+    private void skipEmptyTables() {
+        while (tableIterator != null && !tableIterator.isValid()) {
+            if (!openTable(tableIndex + 1)) {
+                return;
+            }
+            tableIterator.seekToFirst();
+        }
+    }
+
+    private boolean openTable(int index) {
+        if (index >= ssTables.size()) {
+            tableIterator = null;
+            return false;
+        }
+        tableIndex = index;
+        tableIterator = new TableIterator(ssTables.get(index), fillCache);
+        return true;
+    }
+}
@@ -0,0 +1,82 @@
+package com.summer.kvstore.iterator;
+
+import com.summer.kvstore.comparator.KeyComparator;
+import com.summer.kvstore.model.command.Command;
+
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * 多路归并迭代器
+ *
+ * 子迭代器按从新到旧的顺序传入，同一个key在新的子迭代器中的版本总是比旧的子迭代器中的新，
+ * 因此按(key, 子迭代器下标)归并后，同一个key的所有版本按序列号从大到小输出。
+ * 哪些版本可见由上层根据序列号决定
+ */
+public class MergingIterator implements InternalIterator {
+
+    /**
+     * 子迭代器，下标越小数据越新
+     */
+    private final List<InternalIterator> children;
+
+    /**
+     * 按(key, 子迭代器下标)排序的最小堆，堆顶就是当前数据
+     */
+    private final PriorityQueue<Integer> heap;
+
+    public MergingIterator(List<InternalIterator> children, KeyComparator comparator) {
+        this.children = children;
+        this.heap = new PriorityQueue<>(Math.max(1, children.size()), (i1, i2) -> {
+            int cmp = comparator.compare(children.get(i1).key(), children.get(i2).key());
+            return cmp != 0 ? cmp : Integer.compare(i1, i2);
+        });
+    }
+
+    @Override
+    public boolean isValid() {
+        return !heap.isEmpty();
+    }
+
+    @Override
+    public void seekToFirst() {
+        heap.clear();
+        for (int i = 0; i < children.size(); i++) {
+            children.get(i).seekToFirst();
+            if (children.get(i).isValid()) {
+                heap.add(i);
+            }
+        }
+    }
+
+    @Override
+    public void seek(byte[] key) {
+        heap.clear();
+        for (int i = 0; i < children.size(); i++) {
+            children.get(i).seek(key);
+            if (children.get(i).isValid()) {
+                heap.add(i);
+            }
+        }
+    }
+
+    @Override
+    public void next() {
+        int index = heap.poll();
+        InternalIterator child = children.get(index);
+        child.next();
+        if (child.isValid()) {
+            heap.add(index);
+        }
+    }
+
+    @Override
+    public byte[] key() {
+        return children.get(heap.peek()).key();
+    }
+
+    @Override
+    public Command command() {
+        return children.get(heap.peek()).command();
+    }
+}
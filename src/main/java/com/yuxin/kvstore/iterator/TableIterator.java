@@ -0,0 +1,108 @@
+package com.summer.kvstore.iterator;
+
+import com.summer.kvstore.model.command.Command;
+import com.summer.kvstore.model.sstable.SparseIndex;
+import com.summer.kvstore.model.sstable.SsTable;
+
+/**
+ * sstable迭代器
+ *
+ * 两层迭代：先通过稀疏索引定位数据块，迭代到数据块末尾时才读取下一个数据块
+ */
+public class TableIterator implements InternalIterator {
+
+    private final SsTable ssTable;
+
+    private final SparseIndex sparseIndex;
+
+    /**
+     * 读取的数据块未命中缓存时是否放入缓存
+     */
+    private final boolean fillCache;
+
+    /**
+     * 当前数据块下标
+     */
+    private int blockIndex;
+
+    /**
+     * 当前数据块的迭代器
+     */
+    private InternalIterator blockIterator;
+
+    public TableIterator(SsTable ssTable) {
+        this(ssTable, true);
+    }
+
+    /**
+     * @param ssTable
+     * @param fillCache 读取的数据块未命中缓存时是否放入缓存，compaction时不放入，避免把热点数据块挤出缓存
+     */
+    public TableIterator(SsTable ssTable, boolean fillCache) {
+        this.ssTable = ssTable;
+        this.sparseIndex = ssTable.getSparseIndex();
+        this.fillCache = fillCache;
+    }
+
+    @Override
+    public boolean isValid() {
+        return blockIterator != null && blockIterator.isValid();
+    }
+
+    @Override
+    public void seekToFirst() {
+        if (!loadBlock(0)) {
+            return;
+        }
+        blockIterator.seekToFirst();
+        skipEmptyBlocks();
+    }
+
+    @Override
+    public void seek(byte[] key) {
+        //key比第一个数据块的第一个key还小时从第一个数据块开始
+        if (!loadBlock(Math.max(0, sparseIndex.floorIndex(key, ssTable.getComparator())))) {
+            return;
+        }
+        blockIterator.seek(key);
+        skipEmptyBlocks();
+    }
+
+    @Override
+    public void next() {
+        blockIterator.next();
+        skipEmptyBlocks();
+    }
+
+    @Override
+    public byte[] key() {
+        return blockIterator.key();
+    }
+
+    @Override
+    public Command command() {
+        return blockIterator.command();
+    }
+
+    /**
+     * 当前数据块迭代完后移动到下一个数据块
+     */
+    private void skipEmptyBlocks() {
+        while (blockIterator != null && !blockIterator.isValid()) {
+            if (!loadBlock(blockIndex + 1)) {
+                return;
+            }
+            blockIterator.seekToFirst();
+        }
+    }
+
+    private boolean loadBlock(int index) {
+        if (index >= sparseIndex.size()) {
+            blockIterator = null;
+            return false;
+        }
+        blockIndex = index;
+        blockIterator = ssTable.blockIterator(index, fillCache);
+        return true;
+    }
+}
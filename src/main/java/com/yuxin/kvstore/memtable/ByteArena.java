@@ -0,0 +1,117 @@
+package com.summer.kvstore.memtable;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 内存arena，memtable的key和value按顺序写入一块块的堆上ByteBuffer
+ *
+ * 地址为long：非负数时高32位是块编号，低32位是块内偏移；负数表示单独分配的大块，-address-1为大块编号。
+ * 分配时用CAS移动当前块的偏移，只有当前块写满或者分配大块时才加锁。
+ * arena只分配不回收，memtable不再被引用后由GC回收全部内存。
+ * 不使用direct buffer：持久化后的memtable可能还被不加锁的读取和迭代器引用，没有合适的时机显式释放，
+ * 而direct buffer只能等GC触发回收，频繁切换memtable时会耗尽MaxDirectMemorySize
+ */
+class ByteArena {
+
+    private final int blockSize;
+
+    /**
+     * 普通块，只在持有锁时整体替换
+     */
+    private volatile ByteBuffer[] blocks;
+
+    /**
+     * 超过blockSize/4的数据单独分配，避免浪费普通块的剩余空间
+     */
+    private volatile ByteBuffer[] largeBlocks = new ByteBuffer[0];
+
+    /**
+     * 下一次分配的位置：高32位是块编号，低32位是块内偏移
+     */
+    private final AtomicLong top = new AtomicLong();
+
+    /**
+     * 已经分配的内存字节数
+     */
+    private final AtomicLong memoryUsage = new AtomicLong();
+
+    ByteArena(int blockSize) {
+        this.blockSize = blockSize;
+        this.blocks = new ByteBuffer[]{ByteBuffer.allocate(blockSize)};
+        memoryUsage.addAndGet(blockSize);
+    }
+
+    /**
+     * 分配size字节
+     * @param size
+     * @return 地址
+     */
+    long allocate(int size) {
+        if (size > blockSize / 4) {
+            return allocateLarge(size);
+        }
+        while (true) {
+            long current = top.get();
+            int index = (int) (current >>> 32);
+            int offset = (int) current;
+            if (offset + size <= blockSize) {
+                if (top.compareAndSet(current, current + size)) {
+                    return current;
+                }
+                continue;
+            }
+            //当前块剩余空间不够，切换到下一个块
+            synchronized (this) {
+                if (top.get() != current) {
+                    continue;
+                }
+                int nextIndex = index + 1;
+                if (blocks.length <= nextIndex) {
+                    ByteBuffer[] newBlocks = Arrays.copyOf(blocks, nextIndex + 1);
+                    newBlocks[nextIndex] = ByteBuffer.allocate(blockSize);
+                    blocks = newBlocks;
+                    memoryUsage.addAndGet(blockSize);
+                }
+                long address = (long) nextIndex << 32;
+                if (top.compareAndSet(current, address + size)) {
+                    return address;
+                }
+            }
+        }
+    }
+
+    private synchronized long allocateLarge(int size) {
+        ByteBuffer[] newLargeBlocks = Arrays.copyOf(largeBlocks, largeBlocks.length + 1);
+        newLargeBlocks[largeBlocks.length] = ByteBuffer.allocate(size);
+        largeBlocks = newLargeBlocks;
+        memoryUsage.addAndGet(size);
+        return -largeBlocks.length;
+    }
+
+    /**
+     * 地址所在的块，调用方只能用绝对位置读取，或者duplicate后再修改position
+     * @param address
+     * @return
+     */
+    ByteBuffer buffer(long address) {
+        if (address < 0) {
+            return largeBlocks[(int) (-address - 1)];
+        }
+        return blocks[(int) (address >>> 32)];
+    }
+
+    /**
+     * 地址在块内的偏移
+     * @param address
+     * @return
+     */
+    int offset(long address) {
+        return address < 0 ? 0 : (int) address;
+    }
+
+    long memoryUsage() {
+        return memoryUsage.get();
+    }
+}
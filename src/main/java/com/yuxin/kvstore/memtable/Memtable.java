@@ -0,0 +1,348 @@
+package com.summer.kvstore.memtable;
+
+import com.summer.kvstore.comparator.KeyComparator;
+import com.summer.kvstore.iterator.InternalIterator;
+import com.summer.kvstore.model.command.Command;
+import com.summer.kvstore.model.command.RmCommand;
+import com.summer.kvstore.model.command.SetCommand;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 基于arena的跳表memtable
+ *
+ * key、value和序列号写入ByteArena的大块ByteBuffer，跳表节点（数据地址 + 各层next指针）存放在NodeArena的int数组中，
+ * 每条数据不再产生单独的对象。按用户key从小到大排列，相同的用户key按序列号从大到小排列。
+ *
+ * 只支持插入，不支持删除和修改（删除写入RmCommand），插入通过CAS完成，多个线程可以并发插入；
+ * LsmKvStore中只由写入组的leader插入，CAS保证插入过程中不加锁的读取总能看到完整的链表。
+ * 读和迭代不加锁，迭代是弱一致的，并发插入的数据可能可见也可能不可见
+ */
+public class Memtable {
+
+    private static final int MAX_HEIGHT = 12;
+
+    /**
+     * 每升高一层的概率为1/BRANCHING
+     */
+    private static final int BRANCHING = 4;
+
+    /**
+     * 头节点地址，同时作为空指针：头节点不会是任何节点的后继
+     */
+    private static final int HEAD = 0;
+
+    private static final int NIL = 0;
+
+    //节点布局：数据地址高32位、低32位，之后是各层的next指针
+    private static final int NODE_ADDRESS_HIGH = 0;
+    private static final int NODE_ADDRESS_LOW = 1;
+    private static final int NODE_NEXT = 2;
+
+    //数据布局：seq(8) type(1) keyLen(4) valueLen(4) key value，valueLen为-1表示value为null
+    private static final int ENTRY_SEQ = 0;
+    private static final int ENTRY_TYPE = 8;
+    private static final int ENTRY_KEY_LENGTH = 9;
+    private static final int ENTRY_VALUE_LENGTH = 13;
+    private static final int ENTRY_HEADER = 17;
+
+    private static final byte TYPE_SET = 1;
+    private static final byte TYPE_RM = 2;
+
+    private final KeyComparator comparator;
+
+    private final ByteArena byteArena;
+
+    private final NodeArena nodeArena = new NodeArena();
+
+    private final AtomicInteger maxHeight = new AtomicInteger(1);
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * 数据所在的第一个WAL的编号，持久化完成后编号更小的WAL都可以删除
+     */
+    @Getter
+    @Setter
+    private volatile long logNumber;
+
+    /**
+     * @param comparator 用户key比较器
+     * @param arenaBlockSize arena每次分配的块大小（单位：byte）
+     */
+    public Memtable(KeyComparator comparator, int arenaBlockSize) {
+        this.comparator = comparator;
+        this.byteArena = new ByteArena(arenaBlockSize);
+        int head = nodeArena.allocate(NODE_NEXT + MAX_HEIGHT);
+        assert head == HEAD;
+    }
+
+    /**
+     * 插入一条命令，命令的key和value会被复制到arena中，调用方之后可以修改原数组
+     *
+     * 同一个key和序列号不能重复插入
+     *
+     * @param command
+     */
+    public void add(Command command) {
+        byte[] key = command.getKey();
+        long seq = command.getSeq();
+        byte[] value = command instanceof SetCommand ? ((SetCommand) command).getValue() : null;
+        int valueLength = value == null ? 0 : value.length;
+
+        //先写数据，再发布节点
+        long address = byteArena.allocate(ENTRY_HEADER + key.length + valueLength);
+        ByteBuffer buffer = byteArena.buffer(address).duplicate();
+        buffer.position(byteArena.offset(address));
+        buffer.putLong(seq);
+        buffer.put(command instanceof SetCommand ? TYPE_SET : TYPE_RM);
+        buffer.putInt(key.length);
+        buffer.putInt(value == null ? -1 : value.length);
+        buffer.put(key);
+        if (value != null) {
+            buffer.put(value);
+        }
+
+        int height = randomHeight();
+        int node = nodeArena.allocate(NODE_NEXT + height);
+        nodeArena.set(node + NODE_ADDRESS_HIGH, (int) (address >>> 32));
+        nodeArena.set(node + NODE_ADDRESS_LOW, (int) address);
+
+        int currentMaxHeight = maxHeight.get();
+        while (height > currentMaxHeight) {
+            if (maxHeight.compareAndSet(currentMaxHeight, height)) {
+                currentMaxHeight = height;
+                break;
+            }
+            currentMaxHeight = maxHeight.get();
+        }
+
+        //从最高层往下找每一层的插入位置：prev < 新节点 <= next
+        int[] prev = new int[MAX_HEIGHT];
+        int[] next = new int[MAX_HEIGHT];
+        int x = HEAD;
+        for (int level = currentMaxHeight - 1; level >= 0; level--) {
+            x = findSpliceForLevel(x, level, key, seq, prev, next);
+        }
+
+        //从下往上逐层链接，CAS失败说明有并发插入，从prev开始重新找这一层的位置
+        for (int level = 0; level < height; level++) {
+            while (true) {
+                nodeArena.set(node + NODE_NEXT + level, next[level]);
+                if (nodeArena.compareAndSet(prev[level] + NODE_NEXT + level, next[level], node)) {
+                    break;
+                }
+                findSpliceForLevel(prev[level], level, key, seq, prev, next);
+            }
+        }
+        size.incrementAndGet();
+    }
+
+    /**
+     * 查询key在sequence时的最新版本
+     * @param key
+     * @param sequence
+     * @return 不存在时返回null，删除时返回RmCommand
+     */
+    public Command get(byte[] key, long sequence) {
+        int node = findGreaterOrEqual(key, sequence);
+        if (node == NIL || compareUserKey(node, key) != 0) {
+            return null;
+        }
+        return readCommand(node);
+    }
+
+    /**
+     * 按内部顺序遍历的迭代器
+     * @return
+     */
+    public InternalIterator iterator() {
+        return new MemtableIterator();
+    }
+
+    /**
+     * 数据条数，包括删除命令和同一个key的多个版本
+     * @return
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * 占用的内存（单位：byte），包括arena中的数据和跳表节点
+     * @return
+     */
+    public long approximateMemoryUsage() {
+        return byteArena.memoryUsage() + nodeArena.memoryUsage();
+    }
+
+    private int randomHeight() {
+        int height = 1;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (height < MAX_HEIGHT && random.nextInt(BRANCHING) == 0) {
+            height++;
+        }
+        return height;
+    }
+
+    /**
+     * 从before开始在level层向后查找，结果记录在prev[level]和next[level]
+     * @return prev[level]
+     */
+    private int findSpliceForLevel(int before, int level, byte[] key, long seq, int[] prev, int[] next) {
+        int x = before;
+        while (true) {
+            int n = next(x, level);
+            if (n != NIL && compareNode(n, key, seq) < 0) {
+                x = n;
+            } else {
+                prev[level] = x;
+                next[level] = n;
+                return x;
+            }
+        }
+    }
+
+    /**
+     * 第一个不小于(key, seq)的节点
+     */
+    private int findGreaterOrEqual(byte[] key, long seq) {
+        int x = HEAD;
+        int level = maxHeight.get() - 1;
+        while (true) {
+            int n = next(x, level);
+            if (n != NIL && compareNode(n, key, seq) < 0) {
+                x = n;
+            } else if (level == 0) {
+                //返回比较过的节点，重新读取x的后继可能得到之后并发插入的、更小的节点
+                return n;
+            } else {
+                level--;
+            }
+        }
+    }
+
+    private int next(int node, int level) {
+        return nodeArena.get(node + NODE_NEXT + level);
+    }
+
+    private long entryAddress(int node) {
+        return ((long) nodeArena.get(node + NODE_ADDRESS_HIGH) << 32)
+                | (nodeArena.get(node + NODE_ADDRESS_LOW) & 0xFFFFFFFFL);
+    }
+
+    /**
+     * 节点和(key, seq)比较：用户key从小到大，相同时序列号大的在前
+     */
+    private int compareNode(int node, byte[] key, long seq) {
+        long address = entryAddress(node);
+        ByteBuffer buffer = byteArena.buffer(address);
+        int offset = byteArena.offset(address);
+        int cmp = comparator.compare(buffer, offset + ENTRY_HEADER, buffer.getInt(offset + ENTRY_KEY_LENGTH),
+                key, 0, key.length);
+        if (cmp != 0) {
+            return cmp;
+        }
+        return Long.compare(seq, buffer.getLong(offset + ENTRY_SEQ));
+    }
+
+    private int compareUserKey(int node, byte[] key) {
+        long address = entryAddress(node);
+        ByteBuffer buffer = byteArena.buffer(address);
+        int offset = byteArena.offset(address);
+        return comparator.compare(buffer, offset + ENTRY_HEADER, buffer.getInt(offset + ENTRY_KEY_LENGTH),
+                key, 0, key.length);
+    }
+
+    private byte[] readKey(int node) {
+        long address = entryAddress(node);
+        ByteBuffer buffer = byteArena.buffer(address).duplicate();
+        int offset = byteArena.offset(address);
+        byte[] key = new byte[buffer.getInt(offset + ENTRY_KEY_LENGTH)];
+        buffer.position(offset + ENTRY_HEADER);
+        buffer.get(key);
+        return key;
+    }
+
+    /**
+     * 从arena中复制出命令，返回的命令和arena不共享内存
+     */
+    private Command readCommand(int node) {
+        long address = entryAddress(node);
+        ByteBuffer buffer = byteArena.buffer(address).duplicate();
+        int offset = byteArena.offset(address);
+        long seq = buffer.getLong(offset + ENTRY_SEQ);
+        byte type = buffer.get(offset + ENTRY_TYPE);
+        byte[] key = new byte[buffer.getInt(offset + ENTRY_KEY_LENGTH)];
+        int valueLength = buffer.getInt(offset + ENTRY_VALUE_LENGTH);
+        buffer.position(offset + ENTRY_HEADER);
+        buffer.get(key);
+
+        Command command;
+        if (type == TYPE_SET) {
+            byte[] value = null;
+            if (valueLength >= 0) {
+                value = new byte[valueLength];
+                buffer.get(value);
+            }
+            command = new SetCommand(key, value);
+        } else {
+            command = new RmCommand(key);
+        }
+        command.setSeq(seq);
+        return command;
+    }
+
+    /**
+     * memtable迭代器，沿跳表最底层遍历
+     */
+    private class MemtableIterator implements InternalIterator {
+
+        private int node = NIL;
+
+        /**
+         * 当前节点的key，定位到节点时从arena复制一次
+         */
+        private byte[] key;
+
+        @Override
+        public boolean isValid() {
+            return node != NIL;
+        }
+
+        @Override
+        public void seekToFirst() {
+            moveTo(Memtable.this.next(HEAD, 0));
+        }
+
+        @Override
+        public void seek(byte[] key) {
+            //相同的key序列号越大越靠前，从最大的序列号开始
+            moveTo(findGreaterOrEqual(key, Long.MAX_VALUE));
+        }
+
+        @Override
+        public void next() {
+            moveTo(Memtable.this.next(node, 0));
+        }
+
+        @Override
+        public byte[] key() {
+            return key;
+        }
+
+        @Override
+        public Command command() {
+            return readCommand(node);
+        }
+
+        private void moveTo(int target) {
+            node = target;
+            key = target == NIL ? null : readKey(target);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.summer.kvstore.memtable;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * 跳表节点的arena，节点是一段连续的int，按块存放在AtomicIntegerArray中
+ *
+ * 节点地址是int：高位是块编号，低CHUNK_SHIFT位是块内偏移。
+ * 和ByteArena一样用CAS分配，只有切换到新块时加锁；读写都是volatile语义，可以用CAS更新跳表指针
+ */
+class NodeArena {
+
+    private static final int CHUNK_SHIFT = 14;
+
+    static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private volatile AtomicIntegerArray[] chunks = new AtomicIntegerArray[]{new AtomicIntegerArray(CHUNK_SIZE)};
+
+    private final AtomicInteger top = new AtomicInteger();
+
+    /**
+     * 分配size个int，size不能超过CHUNK_SIZE
+     * @param size
+     * @return 地址
+     */
+    int allocate(int size) {
+        while (true) {
+            int current = top.get();
+            int offset = current & CHUNK_MASK;
+            int index = current >>> CHUNK_SHIFT;
+            //offset为0说明上一个块正好用完，当前块可能还没有创建
+            if (offset + size <= CHUNK_SIZE && (offset != 0 || index < chunks.length)) {
+                if (top.compareAndSet(current, current + size)) {
+                    return current;
+                }
+                continue;
+            }
+            synchronized (this) {
+                if (top.get() != current) {
+                    continue;
+                }
+                int nextIndex = offset == 0 ? index : index + 1;
+                if (chunks.length <= nextIndex) {
+                    AtomicIntegerArray[] newChunks = Arrays.copyOf(chunks, nextIndex + 1);
+                    newChunks[nextIndex] = new AtomicIntegerArray(CHUNK_SIZE);
+                    chunks = newChunks;
+                }
+                int address = nextIndex << CHUNK_SHIFT;
+                if (top.compareAndSet(current, address + size)) {
+                    return address;
+                }
+            }
+        }
+    }
+
+    int get(int address) {
+        return chunks[address >>> CHUNK_SHIFT].get(address & CHUNK_MASK);
+    }
+
+    void set(int address, int value) {
+        chunks[address >>> CHUNK_SHIFT].set(address & CHUNK_MASK, value);
+    }
+
+    boolean compareAndSet(int address, int expect, int update) {
+        return chunks[address >>> CHUNK_SHIFT].compareAndSet(address & CHUNK_MASK, expect, update);
+    }
+
+    /**
+     * 已经分配的内存字节数
+     * @return
+     */
+    long memoryUsage() {
+        return (long) chunks.length * CHUNK_SIZE * 4;
+    }
+}
@@ -0,0 +1,139 @@
+package com.summer.kvstore.model;
+
+import com.summer.kvstore.comparator.BytewiseComparator;
+import com.summer.kvstore.comparator.KeyComparator;
+import com.summer.kvstore.compress.CompressionCodec;
+import com.summer.kvstore.compress.CompressionCodecs;
+import com.summer.kvstore.constants.KVConstants;
+import com.summer.kvstore.wal.WalSyncMode;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 存储引擎配置
+ */
+@Data
+public class Options {
+
+    /**
+     * 内存表占用的内存（单位：byte）达到此值时dump为sstable，包括arena中的key、value和跳表节点
+     */
+    private long writeBufferSize = 4 * 1024 * 1024;
+
+    /**
+     * 内存表的最大个数，包括当前写入的memtable和排队等待持久化的immutable memtable；
+     * 达到上限时写入需要等待最早的immutable memtable持久化完成
+     */
+    private int maxWriteBufferNumber = 3;
+
+    /**
+     * 一次持久化最多合并的immutable memtable个数，大于1时排队中相邻的immutable memtable合并写入一个level0 sstable
+     */
+    private int maxWriteBufferNumberToMerge = 1;
+
+    /**
+     * 持久化阈值，内存表的数据条数超过此值时也会dump为sstable，为0表示只按writeBufferSize触发
+     */
+    private int storeThreshold = 0;
+
+    /**
+     * 数据分区大小，每个数据块的数据条数
+     */
+    private int partSize = 100;
+
+    /**
+     * 数据块压缩算法，没有在compressionPerLevel中单独配置的层使用
+     */
+    private CompressionCodec compression = CompressionCodecs.SNAPPY;
+
+    /**
+     * 每一层的数据块压缩算法，下标为层号，例如level0不压缩加快flush、最底层使用deflate节省空间；
+     * 为null或者对应下标没有配置时使用compression。只影响新写入的sstable，已有文件按元数据中的算法读取
+     */
+    private List<CompressionCodec> compressionPerLevel;
+
+    /**
+     * 布隆过滤器每个key占用的bit数，为0表示不构建布隆过滤器
+     */
+    private int bloomBitsPerKey = KVConstants.DEFAULT_BLOOM_BITS_PER_KEY;
+
+    /**
+     * 数据块缓存容量（单位：byte），为0表示不缓存
+     */
+    private long blockCacheSize = 8 * 1024 * 1024;
+
+    /**
+     * WAL刷盘策略
+     */
+    private WalSyncMode walSyncMode = WalSyncMode.NONE;
+
+    /**
+     * GROUP刷盘策略下两次fsync的最大间隔（毫秒）
+     */
+    private long walSyncIntervalMs = 100;
+
+    /**
+     * GROUP刷盘策略下未刷盘数据的最大字节数
+     */
+    private long walSyncBytes = 1024 * 1024;
+
+    /**
+     * level0的sstable文件数达到此值时触发compaction
+     */
+    private int l0CompactionTrigger = 4;
+
+    /**
+     * level1的目标大小（单位：byte），超过后触发compaction
+     */
+    private long maxBytesForLevelBase = 10 * 1024 * 1024;
+
+    /**
+     * 相邻两层目标大小的倍数，levelN的目标大小为 maxBytesForLevelBase * multiplier^(N-1)
+     */
+    private int levelSizeMultiplier = 10;
+
+    /**
+     * compaction输出的sstable文件目标大小（单位：byte），超过后切分为新文件
+     */
+    private long targetFileSize = 2 * 1024 * 1024;
+
+    /**
+     * 后台compaction线程数，key范围不重叠的compaction可以并发执行
+     */
+    private int compactionThreads = 2;
+
+    /**
+     * 启动时并行打开sstable的线程数，打开时只读取文件尾部的元数据，稀疏索引和布隆过滤器在第一次访问时读取
+     */
+    private int maxFileOpeningThreads = 8;
+
+    /**
+     * 最多同时打开的sstable文件数，超过时关闭最久未使用的文件句柄，读取时按需重新打开；
+     * 稀疏索引和布隆过滤器常驻内存，不受影响。小于等于0表示不限制，每个sstable一直持有文件句柄
+     */
+    private int maxOpenFiles = 1000;
+
+    /**
+     * key的比较器，默认按无符号字节比较；数据目录创建后不能更换
+     */
+    private KeyComparator comparator = BytewiseComparator.INSTANCE;
+
+    /**
+     * 是否把运行统计注册到JMX，ObjectName为com.summer.kvstore:type=Statistics,dataDir=数据目录
+     */
+    private boolean statisticsJmxEnabled = true;
+
+    /**
+     * 写入某一层的sstable使用的压缩算法
+     * @param level 层号
+     * @return
+     */
+    public CompressionCodec getCompression(int level) {
+        if (compressionPerLevel != null && level < compressionPerLevel.size()
+                && compressionPerLevel.get(level) != null) {
+            return compressionPerLevel.get(level);
+        }
+        return compression;
+    }
+}
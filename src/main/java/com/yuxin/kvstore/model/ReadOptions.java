@@ -0,0 +1,20 @@
+package com.summer.kvstore.model;
+
+import com.summer.kvstore.version.Snapshot;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 单次读取的配置
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReadOptions {
+
+    /**
+     * 读取的快照，为null表示读取最新的数据
+     */
+    private Snapshot snapshot;
+}
@@ -0,0 +1,103 @@
+package com.summer.kvstore.model;
+
+import com.summer.kvstore.model.command.Command;
+import com.summer.kvstore.model.command.RmCommand;
+import com.summer.kvstore.model.command.SetCommand;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 批量写入
+ *
+ * 收集一组保存和删除命令，通过KvStore.write原子写入：作为一条WAL记录写入，一起对读取可见，
+ * 宕机恢复后要么全部存在要么全部不存在。同一个key在batch中出现多次时以最后一次为准
+ */
+public class WriteBatch {
+
+    /**
+     * 按添加顺序排列的命令
+     */
+    private final List<Command> commands = new ArrayList<>();
+
+    /**
+     * key和value的字节数之和，用于估计数据量
+     */
+    private long approximateSize;
+
+    /**
+     * 保存数据
+     * @param key
+     * @param value
+     * @return
+     */
+    public WriteBatch set(byte[] key, byte[] value) {
+        commands.add(new SetCommand(key, value));
+        approximateSize += key.length + (value == null ? 0 : value.length);
+        return this;
+    }
+
+    /**
+     * 保存数据，key和value按UTF-8编码
+     * @param key
+     * @param value
+     * @return
+     */
+    public WriteBatch set(String key, String value) {
+        return set(key.getBytes(StandardCharsets.UTF_8), value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 删除数据
+     * @param key
+     * @return
+     */
+    public WriteBatch rm(byte[] key) {
+        commands.add(new RmCommand(key));
+        approximateSize += key.length;
+        return this;
+    }
+
+    /**
+     * 删除数据，key按UTF-8编码
+     * @param key
+     * @return
+     */
+    public WriteBatch rm(String key) {
+        return rm(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 清空，batch可以重复使用
+     */
+    public void clear() {
+        commands.clear();
+        approximateSize = 0;
+    }
+
+    /**
+     * 命令个数
+     * @return
+     */
+    public int size() {
+        return commands.size();
+    }
+
+    public boolean isEmpty() {
+        return commands.isEmpty();
+    }
+
+    public long getApproximateSize() {
+        return approximateSize;
+    }
+
+    /**
+     * 按添加顺序排列的命令
+     * @return 不可修改的列表
+     */
+    public List<Command> getCommands() {
+        return Collections.unmodifiableList(commands);
+    }
+}
@@ -0,0 +1,19 @@
+package com.summer.kvstore.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 单次写入的配置
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class WriteOptions {
+
+    /**
+     * 是否在返回前fsync WAL，为true时忽略存储级别的刷盘策略
+     */
+    private boolean sync;
+}
@@ -1,9 +1,10 @@
 package com.summer.kvstore.model.command;
 
-import com.alibaba.fastjson.JSON;
 import lombok.Getter;
 import lombok.Setter;
 
+import java.nio.charset.StandardCharsets;
+
 /**
  * 抽象命令
  */
@@ -16,12 +17,20 @@ public abstract class AbstractCommand implements Command {
      */
     private CommandTypeEnum type;
 
+    /**
+     * 序列号
+     */
+    private long seq;
+
     public AbstractCommand(CommandTypeEnum type) {
         this.type = type;
     }
 
+    /**
+     * key按UTF-8解码输出，仅用于日志
+     */
     @Override
     public String toString() {
-        return JSON.toJSONString(this);
+        return type + "{key=" + new String(getKey(), StandardCharsets.UTF_8) + ",seq=" + seq + "}";
     }
 }
@@ -9,5 +9,17 @@ public interface Command {
      * 获取数据key
      * @return
      */
-    String getKey();
+    byte[] getKey();
+
+    /**
+     * 获取序列号，每次写入分配一个递增的序列号，老版本的数据为0
+     * @return
+     */
+    long getSeq();
+
+    /**
+     * 设置序列号
+     * @param seq
+     */
+    void setSeq(long seq);
 }
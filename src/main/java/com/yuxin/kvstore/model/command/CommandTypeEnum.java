@@ -8,9 +8,36 @@ public enum CommandTypeEnum {
     /**
      * 保存命令
      */
-    SET,
+    SET((byte) 0),
     /**
      * 删除命令
      */
-    RM
+    RM((byte) 1);
+
+    /**
+     * 二进制格式中的类型编码
+     */
+    private final byte code;
+
+    CommandTypeEnum(byte code) {
+        this.code = code;
+    }
+
+    public byte getCode() {
+        return code;
+    }
+
+    /**
+     * 根据类型编码获取命令类型
+     * @param code
+     * @return 未知编码返回null
+     */
+    public static CommandTypeEnum fromCode(byte code) {
+        for (CommandTypeEnum type : values()) {
+            if (type.code == code) {
+                return type;
+            }
+        }
+        return null;
+    }
 }
@@ -3,6 +3,8 @@ package com.summer.kvstore.model.command;
 import lombok.Getter;
 import lombok.Setter;
 
+import java.nio.charset.StandardCharsets;
+
 /**
  * 删除命令
  */
@@ -13,10 +15,18 @@ public class RmCommand extends AbstractCommand {
     /**
      * 数据key
      */
-    private String key;
+    private byte[] key;
 
-    public RmCommand(String key) {
+    public RmCommand(byte[] key) {
         super(CommandTypeEnum.RM);
         this.key = key;
     }
+
+    /**
+     * 字符串key按UTF-8编码
+     * @param key
+     */
+    public RmCommand(String key) {
+        this(key.getBytes(StandardCharsets.UTF_8));
+    }
 }
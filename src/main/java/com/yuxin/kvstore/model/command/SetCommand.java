@@ -3,6 +3,8 @@ package com.summer.kvstore.model.command;
 import lombok.Getter;
 import lombok.Setter;
 
+import java.nio.charset.StandardCharsets;
+
 /**
  * 保存命令
  */
@@ -13,16 +15,25 @@ public class SetCommand extends AbstractCommand {
     /**
      * 数据key
      */
-    private String key;
+    private byte[] key;
 
     /**
      * 数据值
      */
-    private String value;
+    private byte[] value;
 
-    public SetCommand(String key, String value) {
+    public SetCommand(byte[] key, byte[] value) {
         super(CommandTypeEnum.SET);
         this.key = key;
         this.value = value;
     }
+
+    /**
+     * 字符串key和value按UTF-8编码
+     * @param key
+     * @param value
+     */
+    public SetCommand(String key, String value) {
+        this(key.getBytes(StandardCharsets.UTF_8), value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+    }
 }
@@ -0,0 +1,118 @@
+package com.summer.kvstore.model.sstable;
+
+import java.util.List;
+
+/**
+ * sstable的布隆过滤器
+ *
+ * 格式：bit数组 | 哈希函数个数k(byte)
+ *
+ * 采用双重哈希模拟k个哈希函数：h_i = h + i * delta
+ */
+public class BloomFilter {
+
+    /**
+     * 过滤器内容
+     */
+    private final byte[] data;
+
+    /**
+     * bit数组的长度
+     */
+    private final int bits;
+
+    /**
+     * 哈希函数个数
+     */
+    private final int k;
+
+    public BloomFilter(byte[] data) {
+        this.data = data;
+        this.bits = (data.length - 1) * 8;
+        this.k = data.length > 0 ? data[data.length - 1] : 0;
+    }
+
+    /**
+     * 根据一批key构建布隆过滤器
+     *
+     * @param keys key
+     * @param bitsPerKey 每个key占用的bit数
+     * @return 过滤器内容
+     */
+    public static byte[] build(List<byte[]> keys, int bitsPerKey) {
+        //k = ln2 * bitsPerKey时误判率最低
+        int k = (int) (bitsPerKey * 0.69);
+        k = Math.max(1, Math.min(30, k));
+
+        //key较少时误判率会很高，设置一个最小长度
+        int bits = Math.max(64, keys.size() * bitsPerKey);
+        int bytes = (bits + 7) / 8;
+        bits = bytes * 8;
+
+        byte[] data = new byte[bytes + 1];
+        data[bytes] = (byte) k;
+        for (byte[] key : keys) {
+            int h = hash(key);
+            int delta = (h >>> 17) | (h << 15);
+            for (int i = 0; i < k; i++) {
+                int bitPos = (int) ((h & 0xFFFFFFFFL) % bits);
+                data[bitPos / 8] |= (1 << (bitPos % 8));
+                h += delta;
+            }
+        }
+        return data;
+    }
+
+    /**
+     * key是否可能存在
+     *
+     * @param key
+     * @return false表示一定不存在
+     */
+    public boolean mayContain(byte[] key) {
+        //无法识别的过滤器按可能存在处理
+        if (bits <= 0 || k <= 0 || k > 30) {
+            return true;
+        }
+        int h = hash(key);
+        int delta = (h >>> 17) | (h << 15);
+        for (int i = 0; i < k; i++) {
+            int bitPos = (int) ((h & 0xFFFFFFFFL) % bits);
+            if ((data[bitPos / 8] & (1 << (bitPos % 8))) == 0) {
+                return false;
+            }
+            h += delta;
+        }
+        return true;
+    }
+
+    /**
+     * 32位murmur风格的哈希，写入文件后结果不能变化，因此不依赖第三方库的实现
+     */
+    private static int hash(byte[] key) {
+        final int m = 0xc6a4a793;
+        int h = 0xbc9f1d34 ^ (key.length * m);
+        int i = 0;
+        for (; i + 4 <= key.length; i += 4) {
+            int w = (key[i] & 0xFF) | ((key[i + 1] & 0xFF) << 8)
+                    | ((key[i + 2] & 0xFF) << 16) | ((key[i + 3] & 0xFF) << 24);
+            h += w;
+            h *= m;
+            h ^= (h >>> 16);
+        }
+        switch (key.length - i) {
+            case 3:
+                h += (key[i + 2] & 0xFF) << 16;
+            case 2:
+                h += (key[i + 1] & 0xFF) << 8;
+            case 1:
+                h += key[i] & 0xFF;
+                h *= m;
+                h ^= (h >>> 24);
+                break;
+            default:
+                break;
+        }
+        return h;
+    }
+}
@@ -0,0 +1,275 @@
+package com.summer.kvstore.model.sstable;
+
+import com.summer.kvstore.comparator.KeyComparator;
+import com.summer.kvstore.iterator.InternalIterator;
+import com.summer.kvstore.model.command.Command;
+import com.summer.kvstore.model.command.CommandTypeEnum;
+import com.summer.kvstore.model.command.RmCommand;
+import com.summer.kvstore.model.command.SetCommand;
+import com.summer.kvstore.utils.CodingUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 二进制数据块读取，格式见DataBlockBuilder
+ *
+ * 点查时先在重启点上二分查找，再从重启点开始顺序解码，不需要解析整个数据块；
+ * 查找时直接在数据块的字节上比较key，只有命中的entry才复制出key和value。
+ * 老版本的数据块没有序列号，读出的命令序列号为0
+ */
+public class DataBlock {
+
+    /**
+     * 数据块内容（已解压）
+     */
+    private final byte[] data;
+
+    /**
+     * 重启点数组在数据块中的偏移
+     */
+    private final int restartsOffset;
+
+    /**
+     * 重启点个数
+     */
+    private final int numRestarts;
+
+    /**
+     * entry中是否包含序列号
+     */
+    private final boolean hasSequence;
+
+    /**
+     * key的比较器
+     */
+    private final KeyComparator comparator;
+
+    public DataBlock(byte[] data, boolean hasSequence, KeyComparator comparator) {
+        this.hasSequence = hasSequence;
+        this.comparator = comparator;
+        if (data.length < 4) {
+            throw new IllegalArgumentException("数据块长度错误,len=" + data.length);
+        }
+        this.data = data;
+        this.numRestarts = CodingUtils.readInt(data, data.length - 4);
+        this.restartsOffset = data.length - 4 - 4 * numRestarts;
+        if (numRestarts <= 0 || restartsOffset < 0) {
+            throw new IllegalArgumentException("数据块重启点错误,numRestarts=" + numRestarts);
+        }
+    }
+
+    /**
+     * 查询key对应的命令
+     * @param key
+     * @param sequence 只查询序列号不大于它的版本
+     * @return 不存在返回null
+     */
+    public Command get(byte[] key, long sequence) {
+        //从最后一个小于key的重启点开始顺序查找
+        Cursor cursor = new Cursor(restartPoint(floorRestart(key)));
+        while (cursor.next()) {
+            int cmp = cursor.compareKey(key);
+            if (cmp == 0) {
+                //同一个key的版本按序列号从大到小排列，第一个可见的就是结果
+                if (cursor.seq <= sequence) {
+                    return cursor.command();
+                }
+                continue;
+            }
+            if (cmp > 0) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 按顺序读取数据块中的所有命令
+     * @return
+     */
+    public List<Command> readAll() {
+        List<Command> commands = new ArrayList<>();
+        Cursor cursor = new Cursor(0);
+        while (cursor.next()) {
+            commands.add(cursor.command());
+        }
+        return commands;
+    }
+
+    /**
+     * 数据块迭代器
+     * @return
+     */
+    public InternalIterator iterator() {
+        return new BlockIterator();
+    }
+
+    /**
+     * 在重启点上二分查找最后一个小于key的位置，key不大于所有重启点时返回0
+     *
+     * 同一个key的多个版本可能跨越重启点，从等于key的重启点开始会漏掉前面更新的版本
+     */
+    private int floorRestart(byte[] key) {
+        int left = 0, right = numRestarts - 1;
+        while (left < right) {
+            int mid = (left + right + 1) >>> 1;
+            if (compareRestartKey(mid, key) < 0) {
+                left = mid;
+            } else {
+                right = mid - 1;
+            }
+        }
+        return left;
+    }
+
+    private int restartPoint(int index) {
+        return CodingUtils.readInt(data, restartsOffset + 4 * index);
+    }
+
+    /**
+     * 重启点处的key和目标key比较，重启点处的key没有做前缀压缩，可以直接在数据块上比较
+     */
+    private int compareRestartKey(int index, byte[] key) {
+        int offset = restartPoint(index);
+        //shared一定为0
+        offset += 1;
+        int unshared = CodingUtils.readVarInt(data, offset);
+        offset += CodingUtils.varIntLength(unshared);
+        //跳过type和seq
+        offset += 1;
+        if (hasSequence) {
+            offset += CodingUtils.varLongLength(CodingUtils.readVarLong(data, offset));
+        }
+        int valueLen = CodingUtils.readVarInt(data, offset);
+        offset += CodingUtils.varIntLength(valueLen);
+        return comparator.compare(data, offset, unshared, key, 0, key.length);
+    }
+
+    /**
+     * 基于游标的数据块迭代器
+     */
+    private class BlockIterator implements InternalIterator {
+        private Cursor cursor;
+        private boolean valid;
+
+        @Override
+        public boolean isValid() {
+            return valid;
+        }
+
+        @Override
+        public void seekToFirst() {
+            cursor = new Cursor(0);
+            valid = cursor.next();
+        }
+
+        @Override
+        public void seek(byte[] key) {
+            cursor = new Cursor(restartPoint(floorRestart(key)));
+            valid = cursor.next();
+            while (valid && cursor.compareKey(key) < 0) {
+                valid = cursor.next();
+            }
+        }
+
+        @Override
+        public void next() {
+            valid = cursor.next();
+        }
+
+        @Override
+        public byte[] key() {
+            return cursor.key();
+        }
+
+        @Override
+        public Command command() {
+            return cursor.command();
+        }
+    }
+
+    /**
+     * 顺序解码entry的游标
+     */
+    private class Cursor {
+        private int offset;
+        private byte[] keyBytes = new byte[0];
+        private int keyLen;
+        /**
+         * 当前entry的key，第一次使用时从keyBytes复制
+         */
+        private byte[] key;
+        private byte type;
+        private long seq;
+        private int valueOffset;
+        private int valueLen;
+
+        Cursor(int offset) {
+            this.offset = offset;
+        }
+
+        /**
+         * 解码下一个entry
+         * @return 没有更多entry返回false
+         */
+        boolean next() {
+            if (offset >= restartsOffset) {
+                return false;
+            }
+            int shared = CodingUtils.readVarInt(data, offset);
+            offset += CodingUtils.varIntLength(shared);
+            int unshared = CodingUtils.readVarInt(data, offset);
+            offset += CodingUtils.varIntLength(unshared);
+            type = data[offset++];
+            if (hasSequence) {
+                seq = CodingUtils.readVarLong(data, offset);
+                offset += CodingUtils.varLongLength(seq);
+            }
+            valueLen = CodingUtils.readVarInt(data, offset);
+            offset += CodingUtils.varIntLength(valueLen);
+
+            if (shared > keyLen) {
+                throw new IllegalStateException("数据块格式错误,shared=" + shared);
+            }
+            if (keyBytes.length < shared + unshared) {
+                keyBytes = Arrays.copyOf(keyBytes, Math.max(shared + unshared, keyBytes.length * 2));
+            }
+            System.arraycopy(data, offset, keyBytes, shared, unshared);
+            keyLen = shared + unshared;
+            key = null;
+            offset += unshared;
+            valueOffset = offset;
+            offset += valueLen;
+            return true;
+        }
+
+        /**
+         * 当前entry的key和目标key比较，不复制key
+         */
+        int compareKey(byte[] target) {
+            return comparator.compare(keyBytes, 0, keyLen, target, 0, target.length);
+        }
+
+        byte[] key() {
+            if (key == null) {
+                key = Arrays.copyOf(keyBytes, keyLen);
+            }
+            return key;
+        }
+
+        Command command() {
+            Command command;
+            if (CommandTypeEnum.fromCode(type) == CommandTypeEnum.SET) {
+                command = new SetCommand(key(), Arrays.copyOfRange(data, valueOffset, valueOffset + valueLen));
+            } else if (CommandTypeEnum.fromCode(type) == CommandTypeEnum.RM) {
+                command = new RmCommand(key());
+            } else {
+                throw new IllegalStateException("未知的命令类型,type=" + type);
+            }
+            command.setSeq(seq);
+            return command;
+        }
+    }
+}
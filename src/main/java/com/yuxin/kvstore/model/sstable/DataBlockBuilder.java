@@ -0,0 +1,140 @@
+package com.summer.kvstore.model.sstable;
+
+import com.summer.kvstore.model.command.Command;
+import com.summer.kvstore.model.command.CommandTypeEnum;
+import com.summer.kvstore.model.command.SetCommand;
+import com.summer.kvstore.utils.CodingUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 二进制数据块构建器
+ *
+ * 数据块格式：
+ * entry_1 ... entry_n | restart_1 ... restart_m (int) | m (int)
+ *
+ * 每个entry的格式：
+ * shared(varint) | unshared(varint) | type(byte) | seq(varlong) | valueLen(varint) | key的非共享部分 | value
+ *
+ * 每隔RESTART_INTERVAL个entry记录一个重启点，重启点处的key不做前缀压缩，
+ * 查询时可以先在重启点上二分查找，再顺序扫描。
+ * 同一个key可以有多个版本，按序列号从大到小相邻存放（VERSION_SEQUENCE之前的格式没有seq）
+ */
+public class DataBlockBuilder {
+
+    /**
+     * 重启点间隔
+     */
+    public static final int RESTART_INTERVAL = 16;
+
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+    /**
+     * 重启点在数据块中的偏移
+     */
+    private final List<Integer> restarts = new ArrayList<>();
+
+    /**
+     * 上一个写入的key
+     */
+    private byte[] lastKey = new byte[0];
+
+    /**
+     * 距离上个重启点写入的entry数
+     */
+    private int counter;
+
+    /**
+     * 数据块中的entry数
+     */
+    private int entryCount;
+
+    /**
+     * 数据块中的第一个key，用于稀疏索引
+     */
+    private byte[] firstKey;
+
+    /**
+     * 追加一条命令，调用方需要保证key有序，相同的key按序列号从大到小追加
+     * @param command
+     */
+    public void add(Command command) {
+        byte[] key = command.getKey();
+        byte[] value = new byte[0];
+        CommandTypeEnum type = CommandTypeEnum.RM;
+        if (command instanceof SetCommand) {
+            type = CommandTypeEnum.SET;
+            if (((SetCommand) command).getValue() != null) {
+                value = ((SetCommand) command).getValue();
+            }
+        }
+
+        int shared = 0;
+        if (counter < RESTART_INTERVAL && entryCount > 0) {
+            int minLen = Math.min(lastKey.length, key.length);
+            while (shared < minLen && lastKey[shared] == key[shared]) {
+                shared++;
+            }
+        } else {
+            restarts.add(buffer.size());
+            counter = 0;
+        }
+
+        CodingUtils.writeVarInt(buffer, shared);
+        CodingUtils.writeVarInt(buffer, key.length - shared);
+        buffer.write(type.getCode());
+        CodingUtils.writeVarLong(buffer, command.getSeq());
+        CodingUtils.writeVarInt(buffer, value.length);
+        buffer.write(key, shared, key.length - shared);
+        buffer.write(value, 0, value.length);
+
+        if (entryCount == 0) {
+            firstKey = key;
+        }
+        lastKey = key;
+        counter++;
+        entryCount++;
+    }
+
+    /**
+     * 完成数据块构建，写入重启点
+     * @return 数据块内容
+     */
+    public byte[] finish() {
+        for (Integer restart : restarts) {
+            CodingUtils.writeInt(buffer, restart);
+        }
+        CodingUtils.writeInt(buffer, restarts.size());
+        return buffer.toByteArray();
+    }
+
+    /**
+     * 重置，用于构建下一个数据块
+     */
+    public void reset() {
+        buffer.reset();
+        restarts.clear();
+        lastKey = new byte[0];
+        counter = 0;
+        entryCount = 0;
+        firstKey = null;
+    }
+
+    /**
+     * 当前数据块完成后的大小估计（未压缩）
+     * @return
+     */
+    public int currentSize() {
+        return buffer.size() + 4 * restarts.size() + 4;
+    }
+
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    public byte[] getFirstKey() {
+        return firstKey;
+    }
+}
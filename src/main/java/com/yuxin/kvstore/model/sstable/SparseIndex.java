@@ -0,0 +1,190 @@
+package com.summer.kvstore.model.sstable;
+
+import com.summer.kvstore.comparator.KeyComparator;
+import com.summer.kvstore.model.Position;
+import com.summer.kvstore.utils.CodingUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 数据块的稀疏索引
+ *
+ * 每个数据块记录第一个key、偏移和长度，用有序的key字节数组和基本类型数组存储，
+ * 不为每个数据块创建Position和String对象。查询时二分查找最后一个不大于目标key的数据块
+ */
+public class SparseIndex {
+
+    /**
+     * 每个数据块的第一个key，按顺序排列
+     */
+    private final byte[][] keys;
+
+    /**
+     * 数据块在文件中的偏移
+     */
+    private final long[] offsets;
+
+    /**
+     * 数据块的长度
+     */
+    private final int[] lengths;
+
+    private SparseIndex(byte[][] keys, long[] offsets, int[] lengths) {
+        this.keys = keys;
+        this.offsets = offsets;
+        this.lengths = lengths;
+    }
+
+    /**
+     * 数据块个数
+     */
+    public int size() {
+        return keys.length;
+    }
+
+    /**
+     * 查找key可能所在的数据块
+     *
+     * @param key
+     * @param comparator key的比较器
+     * @return 最后一个第一个key不大于目标key的数据块下标，key比所有数据块都小时返回-1
+     */
+    public int floorIndex(byte[] key, KeyComparator comparator) {
+        int left = 0, right = keys.length - 1;
+        int result = -1;
+        while (left <= right) {
+            int mid = (left + right) >>> 1;
+            if (comparator.compare(keys[mid], key) <= 0) {
+                result = mid;
+                left = mid + 1;
+            } else {
+                right = mid - 1;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 数据块的位置
+     * @param index 数据块下标
+     * @return
+     */
+    public Position getPosition(int index) {
+        return new Position(offsets[index], lengths[index]);
+    }
+
+    /**
+     * 数据块的第一个key
+     * @param index 数据块下标
+     * @return
+     */
+    public byte[] getKey(int index) {
+        return keys[index];
+    }
+
+    /**
+     * 编码为二进制
+     *
+     * 格式：[keyLen(int) | key | start(long) | len(long)]...
+     *
+     * @return
+     */
+    public byte[] encode() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < keys.length; i++) {
+            CodingUtils.writeInt(out, keys[i].length);
+            out.write(keys[i], 0, keys[i].length);
+            CodingUtils.writeLong(out, offsets[i]);
+            CodingUtils.writeLong(out, lengths[i]);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * 从二进制中解码
+     *
+     * @param indexBytes
+     * @return
+     */
+    public static SparseIndex decode(byte[] indexBytes) {
+        Builder builder = new Builder();
+        int offset = 0;
+        while (offset < indexBytes.length) {
+            int keyLen = CodingUtils.readInt(indexBytes, offset);
+            offset += 4;
+            byte[] key = Arrays.copyOfRange(indexBytes, offset, offset + keyLen);
+            offset += keyLen;
+            long start = CodingUtils.readLong(indexBytes, offset);
+            offset += 8;
+            long len = CodingUtils.readLong(indexBytes, offset);
+            offset += 8;
+            builder.add(key, start, (int) len);
+        }
+        return builder.build();
+    }
+
+    /**
+     * 从老版本JSON格式的稀疏索引转换
+     *
+     * @param sparseIndex
+     * @return
+     */
+    public static SparseIndex fromTreeMap(TreeMap<String, Position> sparseIndex) {
+        Builder builder = new Builder();
+        for (Map.Entry<String, Position> entry : sparseIndex.entrySet()) {
+            builder.add(entry.getKey().getBytes(StandardCharsets.UTF_8),
+                    entry.getValue().getStart(), (int) entry.getValue().getLen());
+        }
+        return builder.build();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i < keys.length; i++) {
+            if (i > 0) {
+                sb.append(",");
+            }
+            sb.append(new String(keys[i], StandardCharsets.UTF_8)).append("=").append(offsets[i]).append("/").append(lengths[i]);
+        }
+        return sb.append("}").toString();
+    }
+
+    /**
+     * 按顺序追加数据块构建稀疏索引
+     */
+    public static class Builder {
+        private final List<byte[]> keys = new ArrayList<>();
+        private long[] offsets = new long[16];
+        private int[] lengths = new int[16];
+
+        /**
+         * 追加一个数据块
+         * @param firstKey 数据块的第一个key
+         * @param offset 偏移
+         * @param length 长度
+         */
+        public void add(byte[] firstKey, long offset, int length) {
+            int index = keys.size();
+            if (index == offsets.length) {
+                offsets = Arrays.copyOf(offsets, index * 2);
+                lengths = Arrays.copyOf(lengths, index * 2);
+            }
+            keys.add(firstKey);
+            offsets[index] = offset;
+            lengths[index] = length;
+        }
+
+        public SparseIndex build() {
+            int size = keys.size();
+            return new SparseIndex(keys.toArray(new byte[size][]), Arrays.copyOf(offsets, size),
+                    Arrays.copyOf(lengths, size));
+        }
+    }
+}
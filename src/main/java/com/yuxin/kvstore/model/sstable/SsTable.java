@@ -2,26 +2,38 @@ package com.summer.kvstore.model.sstable;
 
 import com.alibaba.fastjson.JSONObject;
 import com.alibaba.fastjson.TypeReference;
+import com.summer.kvstore.cache.BlockCache;
+import com.summer.kvstore.cache.BlockCacheKey;
+import com.summer.kvstore.cache.TableCache;
+import com.summer.kvstore.compress.CompressionCodec;
+import com.summer.kvstore.compress.CompressionCodecs;
+import com.summer.kvstore.comparator.BytewiseComparator;
+import com.summer.kvstore.comparator.KeyComparator;
+import com.summer.kvstore.iterator.CommandListIterator;
+import com.summer.kvstore.iterator.InternalIterator;
 import com.summer.kvstore.utils.BlockUtils;
 import com.summer.kvstore.utils.FileUtils;
 import com.summer.kvstore.utils.LoggerUtil;
 import com.summer.kvstore.model.Position;
 import com.summer.kvstore.model.command.Command;
-import com.summer.kvstore.model.command.RmCommand;
-import com.summer.kvstore.model.command.SetCommand;
+import com.summer.kvstore.statistics.PerfContext;
+import com.summer.kvstore.statistics.Statistics;
+import com.summer.kvstore.statistics.Ticker;
 import com.summer.kvstore.utils.ConvertUtil;
 import lombok.Data;
 import lombok.Getter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.xerial.snappy.Snappy;
 
 import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * sstable
@@ -45,14 +57,24 @@ public class SsTable implements Closeable {
     private Integer level;
 
     /**
-     * 数据块的稀疏索引
+     * 数据块的稀疏索引，从文件打开时在第一次访问时才读取，和布隆过滤器一起加载
      */
-    private TreeMap<String, Position> sparseIndex;
+    private volatile SparseIndex sparseIndex;
 
     /**
-     * 文件句柄
+     * 自己持有的文件句柄，构建时用于写入；使用TableCache时为null
      */
-    private final RandomAccessFile tableFile;
+    private RandomAccessFile tableFile;
+
+    /**
+     * 自己持有的文件通道，读取数据块时使用按位置读取，多个线程可以并发读
+     */
+    private FileChannel tableChannel;
+
+    /**
+     * 文件句柄缓存，为null表示自己持有文件句柄
+     */
+    private TableCache tableCache;
 
     /**
      * 文件路径
@@ -60,15 +82,54 @@ public class SsTable implements Closeable {
     private final String filePath;
 
     /**
-     * 是否支持压缩。默认采用snappy压缩
+     * 数据块压缩算法，从文件打开时按元数据中的算法id选择
+     */
+    private CompressionCodec codec;
+
+    /**
+     * 布隆过滤器，老版本的文件没有布隆过滤器；从文件打开时和稀疏索引一起加载
+     */
+    private BloomFilter bloomFilter;
+
+    /**
+     * 构建布隆过滤器时每个key占用的bit数，为0表示不构建
+     */
+    private int bloomBitsPerKey;
+
+    /**
+     * 数据块缓存，为null表示不缓存
      */
-    private boolean enablePartDataCompress;
+    private BlockCache blockCache;
 
-    private SsTable(String filePath, boolean enablePartDataCompress) {
+    /**
+     * 运行统计，为null表示不统计
+     */
+    private Statistics statistics;
+
+    /**
+     * key的比较器，和写入时使用的比较器一致
+     */
+    private KeyComparator comparator = BytewiseComparator.INSTANCE;
+
+    /**
+     * 引用计数，创建者持有初始的一个引用，每个包含它的Version各持有一个引用
+     */
+    private final AtomicInteger refs = new AtomicInteger(1);
+
+    /**
+     * 是否已被compaction淘汰，淘汰的文件在最后一个引用释放时删除
+     */
+    private volatile boolean obsolete;
+
+    private SsTable(String filePath, TableCache tableCache) {
         this.filePath = filePath;
-        this.enablePartDataCompress = enablePartDataCompress;
+        this.tableCache = tableCache;
+        if (tableCache != null) {
+            return;
+        }
         try {
             this.tableFile = new RandomAccessFile(filePath, RW);
+            this.tableChannel = tableFile.getChannel();
             tableFile.seek(0);
         } catch (Throwable t) {
             throw new RuntimeException(t);
@@ -79,49 +140,123 @@ public class SsTable implements Closeable {
      *
      * @param fileNumber 文件编号
      * @param partSize 数据分区大小
-     * @param enablePartDataCompress 是否开启压缩
+     * @param dataDir 数据目录
+     * @param codec 数据块压缩算法
      * @param level sstable位于哪一层
+     * @param bloomBitsPerKey 布隆过滤器每个key占用的bit数
      */
-    private SsTable(Long fileNumber, int partSize, boolean enablePartDataCompress, Integer level) {
+    SsTable(String dataDir, Long fileNumber, int partSize, CompressionCodec codec, Integer level,
+                    int bloomBitsPerKey) {
         this.tableMetaInfo = new TableMetaInfo();
         this.tableMetaInfo.setNumber(fileNumber);
         this.tableMetaInfo.setPartSize(partSize);
         this.level = level;
-        this.filePath = FileUtils.buildSstableFilePath(fileNumber, level);
-        this.enablePartDataCompress = enablePartDataCompress;
+        this.filePath = FileUtils.buildSstableFilePath(dataDir, fileNumber, level);
+        this.codec = codec;
+        this.bloomBitsPerKey = bloomBitsPerKey;
         try {
             this.tableFile = new RandomAccessFile(filePath, RW);
+            this.tableChannel = tableFile.getChannel();
+            //同名的残留文件需要先清空，否则footer会从旧的文件尾读取
+            tableFile.setLength(0);
             tableFile.seek(0);
         } catch (Throwable t) {
             throw new RuntimeException(t);
         }
-        sparseIndex = new TreeMap<>();
     }
 
     /**
-     * 从mmetable构建ssTable
+     * 在指定的数据目录下从mmetable构建ssTable
+     * @param dataDir 数据目录
      * @param fileNumber 文件编号
      * @param partSize
-     * @param index
+     * @param index 按key排好序的命令
+     * @param bloomBitsPerKey 布隆过滤器每个key占用的bit数，为0表示不构建
      * @return
      */
-    public static SsTable createFromIndex(Long fileNumber, int partSize,
-                                          ConcurrentSkipListMap<String, Command> index,
-                                          boolean enablePartDataCompress,
-                                          Integer level) throws IOException {
-        SsTable ssTable = new SsTable(fileNumber, partSize, enablePartDataCompress, level);
-        ssTable.initFromIndex(index);
-        return ssTable;
+    public static SsTable createFromIndex(String dataDir, Long fileNumber, int partSize,
+                                          ConcurrentSkipListMap<byte[], Command> index,
+                                          CompressionCodec codec,
+                                          Integer level,
+                                          int bloomBitsPerKey) throws IOException {
+        SsTableBuilder builder = new SsTableBuilder(dataDir, fileNumber, partSize, codec, level,
+                bloomBitsPerKey);
+        for (Command command : index.values()) {
+            builder.add(command);
+        }
+        return builder.finish();
+    }
+
+    /**
+     * 从多版本的memtable构建ssTable
+     *
+     * 同一个key的旧版本只在还被某个快照需要时保留：比它新的版本对所有快照都可见时丢弃
+     *
+     * @param dataDir 数据目录
+     * @param fileNumber 文件编号
+     * @param partSize
+     * @param iterator memtable的迭代器，合并多个memtable时是它们的归并迭代器
+     * @param bloomBitsPerKey 布隆过滤器每个key占用的bit数，为0表示不构建
+     * @param smallestSnapshot 最小的快照序列号
+     * @return
+     */
+    public static SsTable createFromMemtable(String dataDir, Long fileNumber, int partSize,
+                                             InternalIterator iterator,
+                                             CompressionCodec codec,
+                                             Integer level,
+                                             int bloomBitsPerKey,
+                                             long smallestSnapshot) {
+        SsTableBuilder builder = new SsTableBuilder(dataDir, fileNumber, partSize, codec, level,
+                bloomBitsPerKey);
+        try {
+            byte[] currentKey = null;
+            long lastSequenceForKey = Long.MAX_VALUE;
+            for (iterator.seekToFirst(); iterator.isValid(); iterator.next()) {
+                Command command = iterator.command();
+                if (!Arrays.equals(command.getKey(), currentKey)) {
+                    currentKey = command.getKey();
+                    lastSequenceForKey = Long.MAX_VALUE;
+                }
+                boolean shadowed = lastSequenceForKey <= smallestSnapshot;
+                lastSequenceForKey = command.getSeq();
+                if (!shadowed) {
+                    builder.add(command);
+                }
+            }
+            return builder.finish();
+        } catch (Throwable t) {
+            builder.abandon();
+            throw t;
+        }
     }
 
     /**
      * 从文件中构建ssTable
+     *
+     * 只读取文件尾部的元数据（包括key的范围和压缩算法），稀疏索引和布隆过滤器在第一次查询或迭代时读取
+     *
+     * @param filePath
+     * @return
+     */
+    public static SsTable createFromFile(String filePath) {
+        return createFromFile(filePath, null);
+    }
+
+    /**
+     * 从文件中构建ssTable，文件句柄由TableCache管理
+     *
      * @param filePath
+     * @param tableCache 文件句柄缓存，为null表示自己持有文件句柄
      * @return
      */
-    public static SsTable createFromFile(String filePath, boolean enablePartDataCompress) {
-        SsTable ssTable = new SsTable(filePath, enablePartDataCompress);
-        ssTable.restoreFromFile();
+    public static SsTable createFromFile(String filePath, TableCache tableCache) {
+        SsTable ssTable = new SsTable(filePath, tableCache);
+        try {
+            ssTable.restoreFromFile();
+        } catch (RuntimeException e) {
+            ssTable.unref();
+            throw e;
+        }
         return ssTable;
     }
 
@@ -131,32 +266,69 @@ public class SsTable implements Closeable {
      * @param key
      * @return
      */
-    public Command query(String key) {
+    public Command query(byte[] key) {
+        return query(key, Long.MAX_VALUE);
+    }
+
+    /**
+     * 从ssTable中查询数据
+     *
+     * @param key
+     * @param sequence 只查询序列号不大于它的版本
+     * @return 没有可见的版本返回null
+     */
+    public Command query(byte[] key, long sequence) {
         try {
-            LinkedList<Position> sparseKeyPositionList = new LinkedList<>();
-            //从稀疏索引中找到最后一个小于key的位置，以及第一个大于key的位置
-            for (String k : sparseIndex.keySet()) {
-                if (k.compareTo(key) <= 0) {
-                    sparseKeyPositionList.add(sparseIndex.get(k));
-                } else {
-                    break;
+            //布隆过滤器判断不存在时不需要读取数据块
+            SparseIndex sparseIndex = getSparseIndex();
+            PerfContext perfContext = PerfContext.current();
+            if (bloomFilter != null) {
+                boolean mayContain = bloomFilter.mayContain(key);
+                if (statistics != null) {
+                    statistics.recordTick(Ticker.BLOOM_FILTER_CHECKED);
+                    if (!mayContain) {
+                        statistics.recordTick(Ticker.BLOOM_FILTER_USEFUL);
+                    }
+                }
+                if (perfContext != null) {
+                    perfContext.addBloomCheck(!mayContain);
                 }
+                if (!mayContain) {
+                    return null;
+                }
+            }
+
+            //数据块之间的key是有序的，同一个key的版本不会跨数据块，key只可能在最后一个第一个key不大于它的数据块中
+            long startNanos = perfContext == null ? 0 : System.nanoTime();
+            int blockIndex = sparseIndex.floorIndex(key, comparator);
+            if (perfContext != null) {
+                perfContext.addIndexSearch(System.nanoTime() - startNanos);
             }
-            if (sparseKeyPositionList.size() == 0) {
+            if (blockIndex < 0) {
                 return null;
             }
-            LoggerUtil.debug(LOGGER, "[SsTable][restoreFromFile][sparseKeyPositionList]: {}", sparseKeyPositionList);
-            //TODO 不同dataPart并不是按顺序存在内存上的呀？（但是不同dataPart之间的数据是按顺序的）
+            Position position = sparseIndex.getPosition(blockIndex);
+            LoggerUtil.debug(LOGGER, "[SsTable][query][position]: {}", position);
+
             //读取数据块的内容
-            for (Position position : sparseKeyPositionList) {
-                JSONObject dataPartJson = BlockUtils.readJsonObject(position, enablePartDataCompress, tableFile);
-                LoggerUtil.debug(LOGGER, "[SsTable][restoreFromFile][dataPartJson]: {}", dataPartJson);
-                if (dataPartJson.containsKey(key)) {
-                    JSONObject value = dataPartJson.getJSONObject(key);
-                    return ConvertUtil.jsonToCommand(value);
-                }
+            byte[] dataPart = readBlock(position, true);
+            startNanos = perfContext == null ? 0 : System.nanoTime();
+            Command command;
+            if (tableMetaInfo.getVersion() == TableMetaInfo.VERSION_JSON) {
+                JSONObject dataPartJson = BlockUtils.toJsonObject(dataPart);
+                LoggerUtil.debug(LOGGER, "[SsTable][query][dataPartJson]: {}", dataPartJson);
+                //JSON格式的key是字符串
+                String jsonKey = new String(key, StandardCharsets.UTF_8);
+                command = dataPartJson.containsKey(jsonKey)
+                        ? ConvertUtil.jsonToCommand(dataPartJson.getJSONObject(jsonKey)) : null;
+            } else {
+                //二进制数据块在块内二分查找，不需要解析整个数据块
+                command = new DataBlock(dataPart, hasSequence(), comparator).get(key, sequence);
+            }
+            if (perfContext != null) {
+                perfContext.addBlockDecode(System.nanoTime() - startNanos);
             }
-            return null;
+            return command;
         } catch (Throwable t) {
             t.printStackTrace();
             throw new RuntimeException(t);
@@ -164,110 +336,282 @@ public class SsTable implements Closeable {
     }
 
     /**
-     * 从文件中恢复ssTable到内存
+     * 读取一个数据块中的全部命令，兼容JSON格式的老文件
+     *
+     * compaction时使用：命中缓存直接使用，但读出的数据块不放入缓存，
+     * 避免即将被删除的文件把热点数据块挤出缓存
+     *
+     * @param position 数据块位置
+     * @return 数据块中的命令
+     */
+    public List<Command> readDataPart(Position position) throws IOException {
+        if (tableMetaInfo.getVersion() == TableMetaInfo.VERSION_JSON) {
+            List<Command> commands = new ArrayList<>();
+            JSONObject dataPartJson = BlockUtils.toJsonObject(readBlock(position, false));
+            for (String key : dataPartJson.keySet()) {
+                commands.add(ConvertUtil.jsonToCommand(dataPartJson.getJSONObject(key)));
+            }
+            return commands;
+        }
+        return new DataBlock(readBlock(position, false), hasSequence(), comparator).readAll();
+    }
+
+    /**
+     * 数据块的迭代器，迭代器遍历时才读取对应的数据块
+     *
+     * @param blockIndex 数据块在稀疏索引中的下标
+     * @return
+     */
+    public InternalIterator blockIterator(int blockIndex) {
+        return blockIterator(blockIndex, true);
+    }
+
+    /**
+     * 数据块的迭代器，迭代器遍历时才读取对应的数据块
+     *
+     * @param blockIndex 数据块在稀疏索引中的下标
+     * @param fillCache 未命中缓存时是否放入缓存，compaction时不放入
+     * @return
+     */
+    public InternalIterator blockIterator(int blockIndex, boolean fillCache) {
+        try {
+            Position position = getSparseIndex().getPosition(blockIndex);
+            if (tableMetaInfo.getVersion() == TableMetaInfo.VERSION_JSON) {
+                //JSON数据块中的key不保证有序，需要排序
+                List<Command> commands = new ArrayList<>();
+                JSONObject dataPartJson = BlockUtils.toJsonObject(readBlock(position, fillCache));
+                for (String key : dataPartJson.keySet()) {
+                    commands.add(ConvertUtil.jsonToCommand(dataPartJson.getJSONObject(key)));
+                }
+                commands.sort((command1, command2) -> comparator.compare(command1.getKey(), command2.getKey()));
+                return new CommandListIterator(commands, comparator);
+            }
+            return new DataBlock(readBlock(position, fillCache), hasSequence(), comparator).iterator();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 数据块的entry中是否有序列号
+     */
+    private boolean hasSequence() {
+        return tableMetaInfo.getVersion() >= TableMetaInfo.VERSION_SEQUENCE;
+    }
+
+    /**
+     * 读取解压后的数据块，优先从缓存中读取
+     *
+     * @param position 数据块位置
+     * @param fillCache 未命中缓存时是否放入缓存
+     * @return
+     */
+    private byte[] readBlock(Position position, boolean fillCache) throws IOException {
+        if (blockCache == null) {
+            return readBlockFromFile(position);
+        }
+        BlockCacheKey cacheKey = new BlockCacheKey(getFileNumber(), position.getStart());
+        byte[] dataPart = blockCache.get(cacheKey);
+        if (statistics != null) {
+            statistics.recordTick(dataPart == null ? Ticker.BLOCK_CACHE_MISS : Ticker.BLOCK_CACHE_HIT);
+        }
+        if (dataPart != null) {
+            PerfContext perfContext = PerfContext.current();
+            if (perfContext != null) {
+                perfContext.addBlockCacheHit();
+            }
+            return dataPart;
+        }
+        dataPart = readBlockFromFile(position);
+        if (fillCache) {
+            blockCache.put(cacheKey, dataPart);
+        }
+        return dataPart;
+    }
+
+    private byte[] readBlockFromFile(Position position) throws IOException {
+        if (statistics != null) {
+            statistics.recordTick(Ticker.BLOCK_READ_COUNT);
+            statistics.recordTick(Ticker.BLOCK_READ_BYTES, position.getLen());
+        }
+        return read(getFileNumber(), channel -> BlockUtils.readBlock(position, codec, channel));
+    }
+
+    /**
+     * 从文件中恢复ssTable的元数据，稀疏索引和布隆过滤器延迟到第一次访问时读取
      */
     private void restoreFromFile() {
         try {
-            //先读取索引
-            TableMetaInfo tableMetaInfo = TableMetaInfo.readFromFile(tableFile);
+            long fileNumber = FileUtils.parseFileNumber(filePath);
+            TableMetaInfo tableMetaInfo = read(fileNumber, TableMetaInfo::readFromFile);
             LoggerUtil.debug(LOGGER, "[SsTable][restoreFromFile][tableMetaInfo]: {}", tableMetaInfo);
-            //读取稀疏索引
-            byte[] indexBytes = new byte[(int) tableMetaInfo.getIndexLen()];
-            tableFile.seek(tableMetaInfo.getIndexStart());
-            tableFile.read(indexBytes);
-            String indexStr = new String(indexBytes, StandardCharsets.UTF_8);
-            LoggerUtil.debug(LOGGER, "[SsTable][restoreFromFile][indexStr]: {}", indexStr);
-            this.sparseIndex = JSONObject.parseObject(indexStr,
-                    new TypeReference<TreeMap<String, Position>>() {
-                    });
-            tableMetaInfo.setNumber(FileUtils.parseFileNumber(filePath));
+            tableMetaInfo.setNumber(fileNumber);
+            tableMetaInfo.setFileSize(read(fileNumber, FileChannel::size));
+            this.codec = CompressionCodecs.get(tableMetaInfo.getCodecId());
             this.tableMetaInfo = tableMetaInfo;
             this.level = FileUtils.parseSstableFileLevel(filePath);
-            LoggerUtil.debug(LOGGER, "[SsTable][restoreFromFile][sparseIndex]: {}", sparseIndex);
         } catch (Throwable t) {
             throw new RuntimeException(t);
         }
     }
 
     /**
-     * 从内存表转化为ssTable
-     * @param index
+     * 稀疏索引，第一次访问时从文件中读取稀疏索引和布隆过滤器
+     * @return
      */
-    private void initFromIndex(ConcurrentSkipListMap<String, Command> index) {
-        try {
-            JSONObject partData = new JSONObject(true);
-            tableMetaInfo.setDataStart(tableFile.getFilePointer());
-            for (Command command : index.values()) {
-                //处理set命令
-                if (command instanceof SetCommand) {
-                    SetCommand set = (SetCommand) command;
-                    partData.put(set.getKey(), set);
-                }
-                //处理rm命令
-                if (command instanceof RmCommand) {
-                    RmCommand rm = (RmCommand) command;
-                    partData.put(rm.getKey(), rm);
+    public SparseIndex getSparseIndex() {
+        SparseIndex index = sparseIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = sparseIndex;
+                if (index == null) {
+                    index = loadIndex();
                 }
+            }
+        }
+        return index;
+    }
 
-                //达到分段数量，开始写入数据段
-                if (partData.size() >= tableMetaInfo.getPartSize()) {
-                    writeDataPart(partData);
-                }
+    /**
+     * 布隆过滤器，和稀疏索引一起加载
+     * @return 没有布隆过滤器时返回null
+     */
+    public BloomFilter getBloomFilter() {
+        getSparseIndex();
+        return bloomFilter;
+    }
+
+    /**
+     * 读取稀疏索引和布隆过滤器，布隆过滤器先赋值，发布稀疏索引后两者同时可见
+     */
+    private SparseIndex loadIndex() {
+        try {
+            //读取稀疏索引
+            byte[] indexBytes = read(getFileNumber(), channel -> BlockUtils.readFully(channel,
+                    tableMetaInfo.getIndexStart(), (int) tableMetaInfo.getIndexLen()));
+            SparseIndex index;
+            if (tableMetaInfo.getVersion() == TableMetaInfo.VERSION_JSON) {
+                String indexStr = new String(indexBytes, StandardCharsets.UTF_8);
+                LoggerUtil.debug(LOGGER, "[SsTable][loadIndex][indexStr]: {}", indexStr);
+                index = SparseIndex.fromTreeMap(JSONObject.parseObject(indexStr,
+                        new TypeReference<TreeMap<String, Position>>() {
+                        }));
+            } else {
+                index = SparseIndex.decode(indexBytes);
             }
-            //遍历完之后如果有剩余的数据（尾部数据不一定达到分段条件）写入文件
-            if (partData.size() > 0) {
-                writeDataPart(partData);
+            //读取布隆过滤器
+            if (tableMetaInfo.getFilterLen() > 0) {
+                byte[] filterBytes = read(getFileNumber(), channel -> BlockUtils.readFully(channel,
+                        tableMetaInfo.getFilterStart(), (int) tableMetaInfo.getFilterLen()));
+                this.bloomFilter = new BloomFilter(filterBytes);
             }
-            long dataPartLen = tableFile.getFilePointer() - tableMetaInfo.getDataStart();
-            tableMetaInfo.setDataLen(dataPartLen);
-            //保存稀疏索引
-            byte[] indexBytes = JSONObject.toJSONString(sparseIndex).getBytes(StandardCharsets.UTF_8);
-            tableMetaInfo.setIndexStart(tableFile.getFilePointer());
-            tableFile.write(indexBytes);
-            tableMetaInfo.setIndexLen(indexBytes.length);
-            tableMetaInfo.setSmallestKey(index.firstKey());
-            tableMetaInfo.setLargestKey(index.lastKey());
-            tableMetaInfo.setFileSize(dataPartLen);
-            LoggerUtil.debug(LOGGER, "[SsTable][initFromIndex][sparseIndex]: {}", sparseIndex);
-
-            //保存文件索引
-            tableMetaInfo.writeToFile(tableFile);
-            LoggerUtil.info(LOGGER, "[SsTable][initFromIndex]: {},{}", filePath, tableMetaInfo);
+            LoggerUtil.debug(LOGGER, "[SsTable][loadIndex][sparseIndex]: {}", index);
+            this.sparseIndex = index;
+            return index;
         } catch (Throwable t) {
-            LoggerUtil.debug(LOGGER, "initFromIndex exception,", t);
             throw new RuntimeException(t);
         }
     }
 
     /**
-     * 将数据分区写入文件
-     * @param partData
-     * @throws IOException
+     * 使用文件通道读取，使用TableCache时从缓存中获取文件句柄，读取完成后归还
+     *
+     * @param fileNumber 文件编号
+     * @param reader 读取操作，只能使用按位置读取
+     * @return
      */
-    private void writeDataPart(JSONObject partData) throws IOException {
-        byte[] partDataBytes = partData.toJSONString().getBytes(StandardCharsets.UTF_8);
+    private <T> T read(long fileNumber, ChannelReader<T> reader) throws IOException {
+        if (tableCache == null) {
+            return reader.read(tableChannel);
+        }
+        TableCache.FileHandle handle = tableCache.acquire(fileNumber, filePath);
+        try {
+            return reader.read(handle.getChannel());
+        } finally {
+            handle.release();
+        }
+    }
 
-        //compress(use snappy: https://github.com/xerial/snappy-java)
-        if (enablePartDataCompress) {
-            //LoggerUtil.debug(LOGGER, "writeDataPart,partDataBytes size:[" + partDataBytes.length + "]");
-            partDataBytes = Snappy.compress(partDataBytes);
-            //LoggerUtil.debug(LOGGER, "writeDataPart,partDataBytes comressed size:[" + partDataBytes.length + "]");
+    /**
+     * 改为使用TableCache管理文件句柄，关闭自己持有的句柄
+     *
+     * 构建完成、发布之前调用，之后读取数据时按需打开文件
+     *
+     * @param tableCache 为null时不改变
+     */
+    public void setTableCache(TableCache tableCache) {
+        if (tableCache == null || this.tableCache != null) {
+            return;
+        }
+        this.tableCache = tableCache;
+        try {
+            if (tableFile != null) {
+                tableFile.close();
+            }
+        } catch (IOException e) {
+            LoggerUtil.error(LOGGER, e, "[SsTable][setTableCache] close error,{}", filePath);
+        }
+        tableFile = null;
+        tableChannel = null;
+    }
+
+    /**
+     * 增加一个引用
+     * @return 文件已经被释放时返回false
+     */
+    public boolean ref() {
+        while (true) {
+            int current = refs.get();
+            if (current <= 0) {
+                return false;
+            }
+            if (refs.compareAndSet(current, current + 1)) {
+                return true;
+            }
         }
+    }
 
-        long start = tableFile.getFilePointer();
-        //LoggerUtil.debug(LOGGER, "writeDataPart,before write FilePointer=" + start);
-        tableFile.write(partDataBytes);
-        //LoggerUtil.debug(LOGGER, "writeDataPart,afteer write FilePointer=" + tableFile.getFilePointer());
+    /**
+     * 释放一个引用，最后一个引用释放时关闭文件，已被淘汰的文件同时删除文件并清理缓存
+     */
+    public void unref() {
+        if (refs.decrementAndGet() != 0) {
+            return;
+        }
+        try {
+            close();
+        } catch (IOException e) {
+            LoggerUtil.error(LOGGER, e, "[SsTable][unref] close error,{}", filePath);
+        }
+        if (obsolete) {
+            if (blockCache != null) {
+                blockCache.evictFile(getFileNumber());
+            }
+            File file = new File(filePath);
+            if (file.exists() && !file.delete()) {
+                LoggerUtil.warn(LOGGER, "[SsTable][unref] delete file failed,{}", filePath);
+            }
+        }
+    }
 
-        //记录数据段的第一个key到稀疏索引中
-        Optional<String> firstKey = partData.keySet().stream().findFirst();
-        byte[] finalPartDataBytes = partDataBytes;
-        firstKey.ifPresent(s -> sparseIndex.put(s, new Position(start, finalPartDataBytes.length)));
-        partData.clear();
+    /**
+     * 标记为淘汰，最后一个引用释放时删除文件
+     */
+    public void markObsolete() {
+        obsolete = true;
     }
 
+    /**
+     * 关闭文件句柄，使用TableCache时从缓存中移除
+     */
     @Override
     public void close() throws IOException {
+        if (tableCache != null) {
+            if (tableMetaInfo != null) {
+                tableCache.evict(getFileNumber());
+            }
+            return;
+        }
         tableFile.close();
     }
 
@@ -276,7 +620,8 @@ public class SsTable implements Closeable {
         Map<String, Object> result = new HashMap<>();
         result.put("tableMetaInfo", tableMetaInfo.toString());
         result.put("level", level);
-        result.put("sparseIndex", sparseIndex.toString());
+        //没有加载的索引不为了打印而读取
+        result.put("sparseIndex", sparseIndex == null ? "unloaded" : sparseIndex.toString());
         result.put("filePath", filePath);
         return result.toString();
     }
@@ -284,4 +629,12 @@ public class SsTable implements Closeable {
     public Long getFileNumber() {
         return this.tableMetaInfo.getNumber();
     }
+
+    /**
+     * 使用文件通道的读取操作
+     */
+    @FunctionalInterface
+    private interface ChannelReader<T> {
+        T read(FileChannel channel) throws IOException;
+    }
 }
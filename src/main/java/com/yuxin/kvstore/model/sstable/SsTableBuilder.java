@@ -0,0 +1,191 @@
+package com.summer.kvstore.model.sstable;
+
+import com.summer.kvstore.compress.CompressionCodec;
+import com.summer.kvstore.model.command.Command;
+import com.summer.kvstore.utils.LoggerUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * sstable流式构建器
+ *
+ * 按key从小到大逐条追加命令，数据块达到分段大小后直接写入文件，
+ * 内存中只保留当前数据块、稀疏索引和布隆过滤器需要的key，不需要先把全部数据放入内存。
+ * 同一个key的多个版本不会拆分到两个数据块中，稀疏索引的floor查找总能找到全部版本
+ */
+public class SsTableBuilder {
+    private final Logger LOGGER = LoggerFactory.getLogger(SsTableBuilder.class);
+
+    /**
+     * 正在构建的sstable
+     */
+    private final SsTable ssTable;
+
+    private final TableMetaInfo tableMetaInfo;
+
+    private final RandomAccessFile tableFile;
+
+    /**
+     * 当前数据块
+     */
+    private final DataBlockBuilder partData = new DataBlockBuilder();
+
+    private final SparseIndex.Builder sparseIndexBuilder = new SparseIndex.Builder();
+
+    /**
+     * 布隆过滤器的key
+     */
+    private final List<byte[]> filterKeys = new ArrayList<>();
+
+    private byte[] smallestKey;
+
+    private byte[] largestKey;
+
+    /**
+     * 已追加的命令数
+     */
+    private long entryCount;
+
+    /**
+     *
+     * @param dataDir 数据目录
+     * @param fileNumber 文件编号
+     * @param partSize 数据分区大小
+     * @param codec 数据块压缩算法
+     * @param level sstable位于哪一层
+     * @param bloomBitsPerKey 布隆过滤器每个key占用的bit数，为0表示不构建
+     */
+    public SsTableBuilder(String dataDir, Long fileNumber, int partSize, CompressionCodec codec, Integer level,
+                          int bloomBitsPerKey) {
+        this.ssTable = new SsTable(dataDir, fileNumber, partSize, codec, level, bloomBitsPerKey);
+        this.tableMetaInfo = ssTable.getTableMetaInfo();
+        this.tableFile = ssTable.getTableFile();
+        tableMetaInfo.setVersion(TableMetaInfo.VERSION_CODEC);
+        tableMetaInfo.setCodecId(codec.id());
+        tableMetaInfo.setDataStart(0);
+    }
+
+    /**
+     * 追加一条命令，调用方需要保证key递增，相同的key按序列号从大到小追加
+     * @param command
+     */
+    public void add(Command command) {
+        try {
+            boolean newKey = !Arrays.equals(command.getKey(), largestKey);
+            //达到分段数量，开始写入数据段；同一个key的版本写在同一个数据段中
+            if (newKey && partData.getEntryCount() >= tableMetaInfo.getPartSize()) {
+                writeDataPart();
+            }
+            if (smallestKey == null) {
+                smallestKey = command.getKey();
+            }
+            largestKey = command.getKey();
+            partData.add(command);
+            if (newKey && ssTable.getBloomBitsPerKey() > 0) {
+                filterKeys.add(command.getKey());
+            }
+            entryCount++;
+        } catch (Throwable t) {
+            throw new RuntimeException(t);
+        }
+    }
+
+    /**
+     * 当前文件大小估计，包括还没有写入的数据块
+     * @return
+     */
+    public long getFileSize() {
+        try {
+            return tableFile.getFilePointer() + (partData.getEntryCount() > 0 ? partData.currentSize() : 0);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public long getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * 写入剩余数据、稀疏索引、布隆过滤器和元数据，完成构建
+     * @return 构建好的sstable
+     */
+    public SsTable finish() {
+        try {
+            //尾部数据不一定达到分段条件
+            if (partData.getEntryCount() > 0) {
+                writeDataPart();
+            }
+            SparseIndex sparseIndex = sparseIndexBuilder.build();
+            ssTable.setSparseIndex(sparseIndex);
+            tableMetaInfo.setDataLen(tableFile.getFilePointer() - tableMetaInfo.getDataStart());
+            //保存稀疏索引
+            byte[] indexBytes = sparseIndex.encode();
+            tableMetaInfo.setIndexStart(tableFile.getFilePointer());
+            tableFile.write(indexBytes);
+            tableMetaInfo.setIndexLen(indexBytes.length);
+            //保存布隆过滤器
+            if (ssTable.getBloomBitsPerKey() > 0) {
+                byte[] filterBytes = BloomFilter.build(filterKeys, ssTable.getBloomBitsPerKey());
+                tableMetaInfo.setFilterStart(tableFile.getFilePointer());
+                tableFile.write(filterBytes);
+                tableMetaInfo.setFilterLen(filterBytes.length);
+                ssTable.setBloomFilter(new BloomFilter(filterBytes));
+            }
+            tableMetaInfo.setSmallestKey(smallestKey);
+            tableMetaInfo.setLargestKey(largestKey);
+            LoggerUtil.debug(LOGGER, "[SsTableBuilder][finish][sparseIndex]: {}", sparseIndex);
+
+            //保存文件索引
+            tableMetaInfo.writeToFile(tableFile);
+            tableMetaInfo.setFileSize(tableFile.length());
+            //MANIFEST记录这个文件之前保证文件内容已经落盘
+            tableFile.getFD().sync();
+            LoggerUtil.info(LOGGER, "[SsTableBuilder][finish]: {},{}", ssTable.getFilePath(), tableMetaInfo);
+            return ssTable;
+        } catch (Throwable t) {
+            LoggerUtil.debug(LOGGER, "finish exception,", t);
+            throw new RuntimeException(t);
+        }
+    }
+
+    /**
+     * 放弃构建，关闭并删除文件
+     */
+    public void abandon() {
+        try {
+            ssTable.close();
+        } catch (IOException e) {
+            LoggerUtil.error(LOGGER, e, "[SsTableBuilder][abandon] close error,{}", ssTable.getFilePath());
+        }
+        File file = new File(ssTable.getFilePath());
+        if (file.exists() && !file.delete()) {
+            LoggerUtil.warn(LOGGER, "[SsTableBuilder][abandon] delete file failed,{}", ssTable.getFilePath());
+        }
+    }
+
+    /**
+     * 将数据分区写入文件
+     * @throws IOException
+     */
+    private void writeDataPart() throws IOException {
+        byte[] partDataBytes = partData.finish();
+
+        //每个数据块单独压缩
+        partDataBytes = ssTable.getCodec().compress(partDataBytes);
+
+        long start = tableFile.getFilePointer();
+        tableFile.write(partDataBytes);
+
+        //记录数据段的第一个key到稀疏索引中
+        sparseIndexBuilder.add(partData.getFirstKey(), start, partDataBytes.length);
+        partData.reset();
+    }
+}
@@ -1,9 +1,12 @@
 package com.summer.kvstore.model.sstable;
 
+import com.summer.kvstore.compress.SnappyCodec;
+import com.summer.kvstore.utils.BlockUtils;
 import lombok.Data;
 
 import java.io.RandomAccessFile;
-import java.nio.charset.StandardCharsets;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * ssTable元数据信息
@@ -11,6 +14,31 @@ import java.nio.charset.StandardCharsets;
 @Data
 public class TableMetaInfo {
 
+    /**
+     * 格式版本：数据块和稀疏索引为JSON格式
+     */
+    public static final long VERSION_JSON = 0L;
+
+    /**
+     * 格式版本：二进制数据块（前缀压缩+重启点）和二进制稀疏索引
+     */
+    public static final long VERSION_BINARY_BLOCK = 1L;
+
+    /**
+     * 格式版本：在VERSION_BINARY_BLOCK的基础上增加布隆过滤器区
+     */
+    public static final long VERSION_BLOOM_FILTER = 2L;
+
+    /**
+     * 格式版本：在VERSION_BLOOM_FILTER的基础上，数据块的每个entry增加序列号，同一个key可以有多个版本
+     */
+    public static final long VERSION_SEQUENCE = 3L;
+
+    /**
+     * 格式版本：在VERSION_SEQUENCE的基础上，元数据中记录数据块的压缩算法id；之前的版本都使用snappy压缩
+     */
+    public static final long VERSION_CODEC = 4L;
+
     /**
      * 版本号
      */
@@ -41,14 +69,29 @@ public class TableMetaInfo {
      */
     private long indexLen;
 
+    /**
+     * 布隆过滤器区开始
+     */
+    private long filterStart;
+
+    /**
+     * 布隆过滤器区长度，为0表示没有布隆过滤器
+     */
+    private long filterLen;
+
+    /**
+     * 数据块压缩算法的id，见CompressionCodec
+     */
+    private long codecId;
+
     /**
      * 分段大小
      */
     private long partSize;
 
     private long fileSize;//文件大小
-    private String smallestKey;//最小的key
-    private String largestKey;//最大的key
+    private byte[] smallestKey;//最小的key
+    private byte[] largestKey;//最大的key
 
     /**
      * 把数据写入到文件中
@@ -56,12 +99,19 @@ public class TableMetaInfo {
      */
     public void writeToFile(RandomAccessFile file) {
         try {
-            //写入key的最小值和终止值
-            file.writeBytes(smallestKey);
-            file.writeInt(smallestKey.getBytes(StandardCharsets.UTF_8).length);
-            file.writeBytes(largestKey);
-            file.writeInt(largestKey.getBytes(StandardCharsets.UTF_8).length);
-
+            //写入key的最小值和终止值，按原始字节写入
+            file.write(smallestKey);
+            file.writeInt(smallestKey.length);
+            file.write(largestKey);
+            file.writeInt(largestKey.length);
+
+            if (version >= VERSION_CODEC) {
+                file.writeLong(codecId);
+            }
+            if (version >= VERSION_BLOOM_FILTER) {
+                file.writeLong(filterStart);
+                file.writeLong(filterLen);
+            }
             file.writeLong(partSize);
             file.writeLong(dataStart);
             file.writeLong(dataLen);
@@ -75,47 +125,46 @@ public class TableMetaInfo {
 
     /**
      * 从文件中读取元信息，按照写入的顺序倒着读取出来
-     * @param file
+     *
+     * 只使用按位置读取，不修改文件指针，可以使用多个线程共享的文件句柄
+     *
+     * @param channel
      * @return
      */
-    public static TableMetaInfo readFromFile(RandomAccessFile file) {
+    public static TableMetaInfo readFromFile(FileChannel channel) {
         try {
             TableMetaInfo tableMetaInfo = new TableMetaInfo();
-            long fileLen = file.length();
-
-            file.seek(fileLen - 8);
-            tableMetaInfo.setVersion(file.readLong());
-
-            file.seek(fileLen - 8 * 2);
-            tableMetaInfo.setIndexLen(file.readLong());
-
-            file.seek(fileLen - 8 * 3);
-            tableMetaInfo.setIndexStart(file.readLong());
-
-            file.seek(fileLen - 8 * 4);
-            tableMetaInfo.setDataLen(file.readLong());
-
-            file.seek(fileLen - 8 * 5);
-            tableMetaInfo.setDataStart(file.readLong());
-
-            file.seek(fileLen - 8 * 6);
-            tableMetaInfo.setPartSize(file.readLong());
-
-            //读取key最小值和最大值
-            file.seek(fileLen - 8 * 6 - 4);
-            Integer largestKeyLength = file.readInt();
-            file.seek(fileLen - 8 * 6 - 4 - largestKeyLength);
-            byte[] largestKeyBytes = new byte[largestKeyLength];
-            file.read(largestKeyBytes);
-            tableMetaInfo.setLargestKey(new String(largestKeyBytes, StandardCharsets.UTF_8));
-
-            file.seek(fileLen - 8 * 6 - 8 - largestKeyLength);
-            Integer smallestKeyLength = file.readInt();
-            file.seek(fileLen - 8 * 6 - 8 - largestKeyLength - smallestKeyLength);
-            byte[] smallestKeyBytes = new byte[smallestKeyLength];
-            file.read(smallestKeyBytes);
-            tableMetaInfo.setSmallestKey(new String(smallestKeyBytes));
-
+            long fileLen = channel.size();
+            //定长部分最多9个long，一次读出
+            int tailLen = (int) Math.min(fileLen, 8 * 9);
+            ByteBuffer tail = ByteBuffer.wrap(BlockUtils.readFully(channel, fileLen - tailLen, tailLen));
+            tableMetaInfo.setVersion(tail.getLong(tailLen - 8));
+            tableMetaInfo.setIndexLen(tail.getLong(tailLen - 8 * 2));
+            tableMetaInfo.setIndexStart(tail.getLong(tailLen - 8 * 3));
+            tableMetaInfo.setDataLen(tail.getLong(tailLen - 8 * 4));
+            tableMetaInfo.setDataStart(tail.getLong(tailLen - 8 * 5));
+            tableMetaInfo.setPartSize(tail.getLong(tailLen - 8 * 6));
+            //定长部分的结束位置，之前是key的最小值和最大值
+            long keysEnd = fileLen - 8 * 6;
+            if (tableMetaInfo.getVersion() >= VERSION_BLOOM_FILTER) {
+                tableMetaInfo.setFilterLen(tail.getLong(tailLen - 8 * 7));
+                tableMetaInfo.setFilterStart(tail.getLong(tailLen - 8 * 8));
+                keysEnd = fileLen - 8 * 8;
+            }
+            if (tableMetaInfo.getVersion() >= VERSION_CODEC) {
+                tableMetaInfo.setCodecId(tail.getLong(tailLen - 8 * 9));
+                keysEnd = fileLen - 8 * 9;
+            } else {
+                tableMetaInfo.setCodecId(SnappyCodec.ID);
+            }
+            //读取key最小值和最大值，老版本按writeBytes写入，ASCII的key和原始字节一致
+            int largestKeyLength = ByteBuffer.wrap(BlockUtils.readFully(channel, keysEnd - 4, 4)).getInt();
+            tableMetaInfo.setLargestKey(BlockUtils.readFully(channel, keysEnd - 4 - largestKeyLength,
+                    largestKeyLength));
+            long smallestKeyEnd = keysEnd - 4 - largestKeyLength;
+            int smallestKeyLength = ByteBuffer.wrap(BlockUtils.readFully(channel, smallestKeyEnd - 4, 4)).getInt();
+            tableMetaInfo.setSmallestKey(BlockUtils.readFully(channel, smallestKeyEnd - 4 - smallestKeyLength,
+                    smallestKeyLength));
             return tableMetaInfo;
         } catch (Throwable t) {
             throw new RuntimeException(t);
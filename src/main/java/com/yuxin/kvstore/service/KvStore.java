@@ -1,12 +1,39 @@
 package com.summer.kvstore.service;
 
+import com.summer.kvstore.iterator.KvIterator;
+import com.summer.kvstore.model.ReadOptions;
+import com.summer.kvstore.model.WriteBatch;
+import com.summer.kvstore.model.WriteOptions;
+import com.summer.kvstore.statistics.Statistics;
+import com.summer.kvstore.version.Snapshot;
+
 import java.io.Closeable;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Kv存储接口定义
+ *
+ * key和value是字节数组，key的顺序由Options中的比较器决定；
+ * 字符串形式的接口按UTF-8编解码后调用字节数组的接口
  */
 public interface KvStore extends Closeable {
 
+    /**
+     * 保存数据
+     * @param key
+     * @param value
+     */
+    void set(byte[] key, byte[] value);
+
+    /**
+     * 保存数据
+     * @param key
+     * @param value
+     * @param writeOptions 写入配置
+     */
+    void set(byte[] key, byte[] value, WriteOptions writeOptions);
+
     /**
      * 保存数据
      * @param key
@@ -14,6 +41,42 @@ public interface KvStore extends Closeable {
      */
     void set(String key, String value);
 
+    /**
+     * 保存数据
+     * @param key
+     * @param value
+     * @param writeOptions 写入配置
+     */
+    void set(String key, String value, WriteOptions writeOptions);
+
+    /**
+     * 原子写入一批数据
+     * @param batch
+     */
+    void write(WriteBatch batch);
+
+    /**
+     * 原子写入一批数据
+     * @param batch
+     * @param writeOptions 写入配置
+     */
+    void write(WriteBatch batch, WriteOptions writeOptions);
+
+    /**
+     * 查询数据
+     * @param key
+     * @return 不存在返回null
+     */
+    byte[] get(byte[] key);
+
+    /**
+     * 查询数据
+     * @param key
+     * @param readOptions 读取配置
+     * @return 不存在返回null
+     */
+    byte[] get(byte[] key, ReadOptions readOptions);
+
     /**
      * 查询数据
      * @param key
@@ -21,6 +84,69 @@ public interface KvStore extends Closeable {
      */
     String get(String key);
 
+    /**
+     * 查询数据
+     * @param key
+     * @param readOptions 读取配置
+     * @return
+     */
+    String get(String key, ReadOptions readOptions);
+
+    /**
+     * 范围查询，字节数组key的范围查询使用iterator
+     * @param startKey 起始key（包含），为null表示从第一个key开始
+     * @param endKey 终止key（不包含），为null表示到最后一个key
+     * @return 按key有序的数据
+     */
+    List<Map.Entry<String, String>> scan(String startKey, String endKey);
+
+    /**
+     * 范围查询
+     * @param startKey 起始key（包含），为null表示从第一个key开始
+     * @param endKey 终止key（不包含），为null表示到最后一个key
+     * @param readOptions 读取配置
+     * @return 按key有序的数据
+     */
+    List<Map.Entry<String, String>> scan(String startKey, String endKey, ReadOptions readOptions);
+
+    /**
+     * 创建有序迭代器，使用完需要关闭
+     * @return
+     */
+    KvIterator iterator();
+
+    /**
+     * 创建有序迭代器，使用完需要关闭
+     * @param readOptions 读取配置
+     * @return
+     */
+    KvIterator iterator(ReadOptions readOptions);
+
+    /**
+     * 创建当前时刻的快照，通过ReadOptions指定快照读取时看不到之后的写入，使用完需要调用releaseSnapshot
+     * @return
+     */
+    Snapshot getSnapshot();
+
+    /**
+     * 释放快照，之后compaction可以丢弃只有这个快照需要的旧版本
+     * @param snapshot
+     */
+    void releaseSnapshot(Snapshot snapshot);
+
+    /**
+     * 删除数据
+     * @param key
+     */
+    void rm(byte[] key);
+
+    /**
+     * 删除数据
+     * @param key
+     * @param writeOptions 写入配置
+     */
+    void rm(byte[] key, WriteOptions writeOptions);
+
     /**
      * 删除数据
      * @param key
@@ -28,7 +154,20 @@ public interface KvStore extends Closeable {
     void rm(String key);
 
     /**
-     * 中间状态打印，仅调试使用
+     * 删除数据
+     * @param key
+     * @param writeOptions 写入配置
+     */
+    void rm(String key, WriteOptions writeOptions);
+
+    /**
+     * 运行统计，包括读写的计数器和延迟直方图
+     * @return
+     */
+    Statistics getStatistics();
+
+    /**
+     * 打印运行统计，debug级别时同时打印每一层的sstable
      */
     void printfStats();
 }
@@ -2,28 +2,55 @@ package com.summer.kvstore.service;
 
 import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONObject;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.summer.kvstore.cache.BlockCache;
+import com.summer.kvstore.cache.TableCache;
+import com.summer.kvstore.comparator.KeyComparator;
 import com.summer.kvstore.compaction.Compactioner;
+import com.summer.kvstore.memtable.Memtable;
+import com.summer.kvstore.iterator.DbIterator;
+import com.summer.kvstore.iterator.InternalIterator;
+import com.summer.kvstore.iterator.KvIterator;
+import com.summer.kvstore.iterator.LevelIterator;
+import com.summer.kvstore.iterator.MergingIterator;
+import com.summer.kvstore.iterator.TableIterator;
+import com.summer.kvstore.model.Options;
+import com.summer.kvstore.model.ReadOptions;
+import com.summer.kvstore.model.WriteBatch;
+import com.summer.kvstore.model.WriteOptions;
 import com.summer.kvstore.model.command.Command;
 import com.summer.kvstore.model.command.RmCommand;
 import com.summer.kvstore.model.command.SetCommand;
 import com.summer.kvstore.constants.KVConstants;
 import com.summer.kvstore.model.sstable.SsTable;
+import com.summer.kvstore.statistics.HistogramType;
+import com.summer.kvstore.statistics.PerfContext;
+import com.summer.kvstore.statistics.Statistics;
+import com.summer.kvstore.statistics.Ticker;
+import com.summer.kvstore.utils.CodingUtils;
 import com.summer.kvstore.utils.ConvertUtil;
 import com.summer.kvstore.utils.LoggerUtil;
-import lombok.Getter;
-import org.apache.commons.collections.CollectionUtils;
+import com.summer.kvstore.version.Snapshot;
+import com.summer.kvstore.version.SnapshotList;
+import com.summer.kvstore.version.Version;
+import com.summer.kvstore.version.VersionEdit;
+import com.summer.kvstore.version.VersionSet;
+import com.summer.kvstore.wal.WalRecordCodec;
+import com.summer.kvstore.wal.WalSyncMode;
+import com.summer.kvstore.wal.WalWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.management.ObjectName;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * 基于LsmTree的KV数据库实现
@@ -31,25 +58,46 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 public class LsmKvStore implements KvStore {
     private final Logger LOGGER = LoggerFactory.getLogger(LsmKvStore.class);
 
-    public static final String WAL = "wal";
+    /**
+     * WAL文件名前缀，文件名为前缀 + 编号，每个memtable对应一个WAL
+     */
+    public static final String WAL_PREFIX = "wal_";
     public static final String RW_MODE = "rw";
+
+    /**
+     * 老版本只有一个WAL和一个暂存的walTmp，恢复时视为编号0
+     */
+    public static final String WAL = "wal";
     public static final String WAL_TMP = "walTmp";
 
     /**
-     * memtable
+     * 一组写入的最大字节数
+     */
+    private static final int MAX_WRITE_GROUP_BYTES = 1024 * 1024;
+
+    /**
+     * 队头是小写入时，一组写入最多再合并的字节数，避免小写入的延迟被大写入拉长
+     */
+    private static final int SMALL_WRITE_GROUP_BYTES = 128 * 1024;
+
+    private static final WriteOptions DEFAULT_WRITE_OPTIONS = new WriteOptions();
+
+    private static final ReadOptions DEFAULT_READ_OPTIONS = new ReadOptions();
+
+    /**
+     * memtable和等待持久化的immutable memtable，切换时整体替换，读取时不需要加锁
      */
-    private ConcurrentSkipListMap<String, Command> memtable;
+    private volatile MemState memState;
 
     /**
-     * immutable memtable
+     * 版本管理，维护每一层的sstable信息
      */
-    private ConcurrentSkipListMap<String, Command> immutableMemtable;
+    private final VersionSet versionSet;
 
     /**
-     * 维护每一层的sstable信息
+     * 存活的快照
      */
-    @Getter
-    private Map<Integer, List<SsTable>> levelMetaInfos = new ConcurrentHashMap<>();
+    private final SnapshotList snapshots = new SnapshotList();
 
     /**
      * 数据目录
@@ -57,9 +105,34 @@ public class LsmKvStore implements KvStore {
     private final String dataDir;
 
     /**
-     * 读写锁
+     * 保护memtable的切换和immutable memtable的释放，读取不需要加锁
+     */
+    private final ReentrantLock indexLock;
+
+    /**
+     * immutable memtable持久化完成的通知，和indexLock配合使用
+     */
+    private final Condition flushDone;
+
+    /**
+     * 持久化memtable的后台线程
+     */
+    private final ExecutorService flushExecutor;
+
+    /**
+     * 后台持久化异常，出现后存储变为只读：写入在写WAL之前直接失败，读取不受影响
      */
-    private final ReadWriteLock indexLock;
+    private volatile Throwable backgroundError;
+
+    /**
+     * 运行统计，从打开开始累计
+     */
+    private final Statistics statistics = new Statistics();
+
+    /**
+     * 统计信息注册到JMX的名称，没有注册时为null
+     */
+    private ObjectName statisticsMBeanName;
 
     /**
      * 持久化阈值
@@ -72,25 +145,60 @@ public class LsmKvStore implements KvStore {
     private final int partSize;
 
     /**
-     * 暂存数据的日志句柄
+     * 存储配置
+     */
+    private final Options options;
+
+    /**
+     * key的比较器
+     */
+    private final KeyComparator comparator;
+
+    /**
+     * memtable arena的块大小
      */
-    private RandomAccessFile wal;
+    private final int arenaBlockSize;
 
     /**
-     * 暂存数据日志文件
+     * 暂存数据的日志写入器
      */
-    private File walFile;
+    private volatile WalWriter walWriter;
 
     /**
-     * 文件编号发号器
+     * 写入队列的锁，只用于组提交时排队
      */
-    private final AtomicLong nextFileNumber = new AtomicLong(1);
+    private final ReentrantLock writeMutex = new ReentrantLock();
+
+    /**
+     * 等待写入的线程，队头的线程作为leader负责写入一组数据
+     */
+    private final Deque<Writer> writers = new ArrayDeque<>();
+
+    /**
+     * GROUP刷盘策略下定时fsync WAL
+     */
+    private ScheduledExecutorService walSyncExecutor;
 
     /**
      * compaction执行器
      */
     private Compactioner compactioner;
 
+    /**
+     * 数据块缓存，为null表示不缓存
+     */
+    private BlockCache blockCache;
+
+    /**
+     * sstable文件句柄缓存，读取和compaction共用，为null表示每个sstable自己持有文件句柄
+     */
+    private TableCache tableCache;
+
+    /**
+     * 启动耗时（毫秒），从开始打开到可以处理请求，包括打开sstable和重放WAL
+     */
+    private final long startupTimeMillis;
+
     /**
      * 初始化
      * @param dataDir 数据目录
@@ -98,54 +206,67 @@ public class LsmKvStore implements KvStore {
      * @param partSize 数据分区大小
      */
     public LsmKvStore(String dataDir, int storeThreshold, int partSize) {
+        this(dataDir, buildOptions(storeThreshold, partSize));
+    }
+
+    /**
+     * 初始化
+     * @param dataDir 数据目录
+     * @param options 存储配置
+     */
+    public LsmKvStore(String dataDir, Options options) {
+        long startNanos = System.nanoTime();
         try {
             this.dataDir = dataDir;
-            this.storeThreshold = storeThreshold;
-            this.partSize = partSize;
-            this.indexLock = new ReentrantReadWriteLock();
-            File dir = new File(dataDir);
-            File[] files = dir.listFiles();
-            levelMetaInfos = new ConcurrentHashMap<>();
-            memtable = new ConcurrentSkipListMap<>();
-            walFile = new File(dataDir + WAL);
-            wal = new RandomAccessFile(dataDir + WAL, RW_MODE);
-            compactioner = new Compactioner();
-
-            //目录为空无需加载ssTable
-            if (files == null || files.length == 0) {
-                return;
+            this.options = options;
+            this.storeThreshold = options.getStoreThreshold();
+            this.partSize = options.getPartSize();
+            this.comparator = options.getComparator();
+            this.arenaBlockSize = (int) Math.min(KVConstants.MAX_ARENA_BLOCK_SIZE,
+                    Math.max(KVConstants.MIN_ARENA_BLOCK_SIZE, options.getWriteBufferSize() / 8));
+            this.indexLock = new ReentrantLock();
+            this.flushDone = indexLock.newCondition();
+            ThreadFactory flushThreadFactory = new ThreadFactoryBuilder()
+                    .setNameFormat("summer-kvstore-flush-%s")
+                    .setDaemon(true)
+                    .build();
+            this.flushExecutor = Executors.newSingleThreadExecutor(flushThreadFactory);
+            memState = new MemState(newMemtable(), Collections.emptyList());
+            if (options.getBlockCacheSize() > 0) {
+                blockCache = new BlockCache(options.getBlockCacheSize());
+            }
+            if (options.getMaxOpenFiles() > 0) {
+                tableCache = new TableCache(options.getMaxOpenFiles());
             }
 
-            //文件加载（sstable、wal log）
-            for (File file : files) {
-                String fileName = file.getName();
-                //从暂存的WAL中恢复数据，一般是持久化ssTable过程中异常才会留下walTmp
-                if (file.isFile() && fileName.equals(WAL_TMP)) {
-                    restoreFromWal(new RandomAccessFile(file, RW_MODE));
-                }
-                //加载ssTable
-                if (file.isFile() && fileName.endsWith(KVConstants.FILE_SUFFIX_SSTABLE)) {
-                    SsTable ssTable = SsTable.createFromFile(file.getAbsolutePath(), true);
-                    Integer level = ssTable.getLevel();
-
-                    List<SsTable> tmpLevelSstables = null;
-                    if (levelMetaInfos.get(level) == null) {
-                        tmpLevelSstables = new ArrayList<>();
-                        levelMetaInfos.put(level, tmpLevelSstables);
-                    } else {
-                        tmpLevelSstables = levelMetaInfos.get(level);
-                    }
-                    tmpLevelSstables.add(ssTable);
-                } else if (file.isFile() && fileName.equals(WAL)) {
-                    //加载WAL
-                    walFile = file;
-                    wal = new RandomAccessFile(file, RW_MODE);
-                    restoreFromWal(wal);
-                }
+            //从MANIFEST恢复sstable信息
+            versionSet = new VersionSet(dataDir, blockCache, tableCache, statistics, comparator,
+                    options.getMaxFileOpeningThreads());
+            versionSet.recover();
+            long recoverVersionNanos = System.nanoTime();
+            compactioner = new Compactioner(options, blockCache, tableCache, statistics, versionSet, snapshots);
+
+            //wal log加载，之后的写入使用新的WAL
+            long firstLogNumber = recoverWals();
+            long logNumber = versionSet.newFileNumber();
+            memState.memtable.setLogNumber(firstLogNumber < 0 ? logNumber : firstLogNumber);
+            walWriter = newWalWriter(logNumber);
+            long recoverWalNanos = System.nanoTime();
+            if (options.getWalSyncMode() == WalSyncMode.GROUP) {
+                startWalSyncTask();
+            }
+            //上次关闭前没有完成的compaction
+            compactioner.maybeScheduleCompaction();
+            if (options.isStatisticsJmxEnabled()) {
+                registerStatisticsMBean();
             }
 
-            if (LOGGER.isInfoEnabled()) {
-                LOGGER.info("LsmKvStore started,levelMetaInfos=" + levelMetaInfos.toString());
+            startupTimeMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+            LoggerUtil.info(LOGGER, "LsmKvStore started,startupTimeMillis={},recoverVersionMillis={},recoverWalMillis={}",
+                    startupTimeMillis, TimeUnit.NANOSECONDS.toMillis(recoverVersionNanos - startNanos),
+                    TimeUnit.NANOSECONDS.toMillis(recoverWalNanos - recoverVersionNanos));
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("LsmKvStore started,levelMetaInfos=" + getLevelMetaInfos().toString());
             }
         } catch (Throwable t) {
             LOGGER.error("初始化异常~", t);
@@ -153,28 +274,169 @@ public class LsmKvStore implements KvStore {
         }
     }
 
+    /**
+     * 把统计信息注册到JMX，同一个数据目录已经注册时（上一个实例没有关闭）只打印日志
+     */
+    private void registerStatisticsMBean() {
+        try {
+            ObjectName name = new ObjectName("com.summer.kvstore:type=Statistics,dataDir="
+                    + ObjectName.quote(new File(dataDir).getAbsolutePath()));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(statistics, name);
+            statisticsMBeanName = name;
+        } catch (Exception e) {
+            LoggerUtil.warn(LOGGER, "registerStatisticsMBean failed,dataDir={},error={}", dataDir, e.toString());
+        }
+    }
+
+    private Memtable newMemtable() {
+        return new Memtable(comparator, arenaBlockSize);
+    }
+
+    private static Options buildOptions(int storeThreshold, int partSize) {
+        Options options = new Options();
+        options.setStoreThreshold(storeThreshold);
+        options.setPartSize(partSize);
+        return options;
+    }
+
+    private WalWriter newWalWriter(long logNumber) throws IOException {
+        return new WalWriter(new File(dataDir + WAL_PREFIX + logNumber), options.getWalSyncMode(),
+                options.getWalSyncIntervalMs(), options.getWalSyncBytes());
+    }
+
+    /**
+     * 按从旧到新的顺序把还没有持久化的WAL重放到当前memtable
+     *
+     * 老版本的walTmp和wal视为编号0，比所有带编号的WAL都旧；编号小于MANIFEST中logNumber的WAL已经持久化，直接删除
+     *
+     * @return 第一个重放的WAL编号，没有需要重放的WAL时返回-1
+     */
+    private long recoverWals() throws IOException {
+        long minLogNumber = versionSet.getLogNumber();
+        List<File> toReplay = new ArrayList<>();
+        long firstLogNumber = -1;
+        if (minLogNumber == 0) {
+            //walTmp中的数据比wal旧
+            for (String name : new String[]{WAL_TMP, WAL}) {
+                File file = new File(dataDir + name);
+                if (file.isFile()) {
+                    toReplay.add(file);
+                    firstLogNumber = 0;
+                }
+            }
+        }
+        TreeMap<Long, File> wals = new TreeMap<>();
+        File[] files = new File(dataDir).listFiles();
+        for (File file : files == null ? new File[0] : files) {
+            long number = parseLogNumber(file.getName());
+            if (file.isFile() && number >= 0) {
+                //WAL的编号可能还没有记录到MANIFEST中
+                versionSet.markFileNumberUsed(number);
+                if (number >= minLogNumber && file.length() > 0) {
+                    wals.put(number, file);
+                } else if (number >= minLogNumber && !file.delete()) {
+                    //没有写入过数据的WAL，一般是上次打开后没有写入
+                    LoggerUtil.warn(LOGGER, "recoverWals,delete empty wal failed,{}", file.getName());
+                }
+            }
+        }
+        if (firstLogNumber < 0 && !wals.isEmpty()) {
+            firstLogNumber = wals.firstKey();
+        }
+        toReplay.addAll(wals.values());
+        for (File file : toReplay) {
+            try (RandomAccessFile wal = new RandomAccessFile(file, RW_MODE)) {
+                restoreFromWal(wal);
+            }
+        }
+        deleteObsoleteWals(minLogNumber);
+        return firstLogNumber;
+    }
+
+    /**
+     * 删除编号小于logNumber的WAL，其中的数据都已经持久化
+     * @param logNumber
+     */
+    private void deleteObsoleteWals(long logNumber) {
+        if (logNumber <= 0) {
+            return;
+        }
+        File[] files = new File(dataDir).listFiles();
+        for (File file : files == null ? new File[0] : files) {
+            String name = file.getName();
+            boolean legacy = name.equals(WAL) || name.equals(WAL_TMP);
+            long number = parseLogNumber(name);
+            if (file.isFile() && (legacy || (number >= 0 && number < logNumber))) {
+                if (!file.delete()) {
+                    LoggerUtil.warn(LOGGER, "deleteObsoleteWals,delete failed,{}", name);
+                }
+            }
+        }
+    }
+
+    /**
+     * 从文件名中解析WAL编号
+     * @param fileName
+     * @return 不是带编号的WAL时返回-1
+     */
+    private static long parseLogNumber(String fileName) {
+        if (!fileName.startsWith(WAL_PREFIX)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(fileName.substring(WAL_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 定时检查是否需要fsync，保证写入停止后数据也能在刷盘间隔内落盘
+     */
+    private void startWalSyncTask() {
+        ThreadFactory walSyncThreadFactory = new ThreadFactoryBuilder()
+                .setNameFormat("summer-kvstore-wal-sync-%s")
+                .setDaemon(true)
+                .build();
+        walSyncExecutor = Executors.newSingleThreadScheduledExecutor(walSyncThreadFactory);
+        long interval = Math.max(1, options.getWalSyncIntervalMs());
+        walSyncExecutor.scheduleWithFixedDelay(() -> {
+            try {
+                walWriter.syncIfDue();
+            } catch (Throwable t) {
+                //WAL切换时旧的写入器会被关闭，下次调度使用新的写入器
+                LoggerUtil.debug(LOGGER, "walSyncTask exception,", t);
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
     /**
      * 从暂存日志中恢复数据
      * @param wal
      */
     private void restoreFromWal(RandomAccessFile wal) {
         try {
-            long len = wal.length();
-            long start = 0;
-            wal.seek(start);
-            while (start < len) {
-                //先读取数据大小
-                int valueLen = wal.readInt();
-                //根据数据大小读取数据
-                byte[] bytes = new byte[valueLen];
-                wal.read(bytes);
-                JSONObject value = JSON.parseObject(new String(bytes, StandardCharsets.UTF_8));
-                Command command = ConvertUtil.jsonToCommand(value);
-                if (command != null) {
-                    memtable.put(command.getKey(), command);
+            byte[] bytes = new byte[(int) wal.length()];
+            wal.seek(0);
+            wal.readFully(bytes);
+            if (isJsonWal(bytes)) {
+                restoreFromJsonWal(wal, bytes);
+                return;
+            }
+
+            int offset = 0;
+            while (offset < bytes.length) {
+                WalRecordCodec.DecodeResult result = WalRecordCodec.decode(bytes, offset, bytes.length);
+                if (result == null) {
+                    //尾部记录不完整或校验失败（一般是写入过程中宕机），丢弃尾部并截断，后续写入从这里继续
+                    LoggerUtil.warn(LOGGER, "restoreFromWal,torn tail truncated,offset={},len={}", offset, bytes.length);
+                    wal.setLength(offset);
+                    break;
+                }
+                for (Command command : result.getCommands()) {
+                    recoverCommand(command);
                 }
-                start += 4;
-                start += valueLen;
+                offset = result.getNextOffset();
             }
             wal.seek(wal.length());
         } catch (Throwable t) {
@@ -182,111 +444,473 @@ public class LsmKvStore implements KvStore {
         }
     }
 
+    /**
+     * 把WAL中恢复的命令放入memtable
+     *
+     * 老版本的记录没有序列号，按恢复的顺序在最后一个序列号之后分配
+     *
+     * @param command
+     */
+    private void recoverCommand(Command command) {
+        long lastSequence = versionSet.getLastSequence();
+        if (command.getSeq() <= 0) {
+            command.setSeq(lastSequence + 1);
+        }
+        memState.memtable.add(command);
+        versionSet.setLastSequence(Math.max(lastSequence, command.getSeq()));
+    }
+
+    /**
+     * 老版本的WAL每条记录是 长度(int) + JSON，JSON总是以'{'开头；
+     * 新版本第5个字节是命令类型，不会是'{'
+     *
+     * @param bytes
+     * @return
+     */
+    private boolean isJsonWal(byte[] bytes) {
+        return bytes.length > 4 && bytes[4] == '{';
+    }
+
+    /**
+     * 从老版本JSON格式的WAL中恢复数据，恢复后按二进制格式重写，后续追加的记录格式保持一致
+     *
+     * @param wal
+     * @param bytes
+     */
+    private void restoreFromJsonWal(RandomAccessFile wal, byte[] bytes) throws IOException {
+        List<Command> commands = new ArrayList<>();
+        int start = 0;
+        while (start + 4 <= bytes.length) {
+            //先读取数据大小
+            int valueLen = CodingUtils.readInt(bytes, start);
+            if (valueLen < 0 || start + 4 + valueLen > bytes.length) {
+                break;
+            }
+            //根据数据大小读取数据
+            JSONObject value = JSON.parseObject(new String(bytes, start + 4, valueLen, StandardCharsets.UTF_8));
+            Command command = ConvertUtil.jsonToCommand(value);
+            if (command != null) {
+                recoverCommand(command);
+                commands.add(command);
+            }
+            start += 4;
+            start += valueLen;
+        }
+
+        wal.setLength(0);
+        wal.seek(0);
+        for (Command command : commands) {
+            wal.write(WalRecordCodec.encode(command));
+        }
+    }
+
+    @Override
+    public void set(byte[] key, byte[] value) {
+        set(key, value, DEFAULT_WRITE_OPTIONS);
+    }
+
+    @Override
+    public void set(byte[] key, byte[] value, WriteOptions writeOptions) {
+        //写入memtable时key和value会复制到arena中，调用方之后修改数组不影响已写入的数据
+        write(Collections.singletonList(new SetCommand(key, value)), writeOptions);
+    }
+
     @Override
     public void set(String key, String value) {
+        set(key, value, DEFAULT_WRITE_OPTIONS);
+    }
+
+    @Override
+    public void set(String key, String value, WriteOptions writeOptions) {
+        write(Collections.singletonList(new SetCommand(key, value)), writeOptions);
+    }
+
+    @Override
+    public void write(WriteBatch batch) {
+        write(batch, DEFAULT_WRITE_OPTIONS);
+    }
+
+    @Override
+    public void write(WriteBatch batch, WriteOptions writeOptions) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        //复制一份命令：写入时会设置序列号，batch之后可能被清空重用
+        List<Command> commands = new ArrayList<>(batch.size());
+        for (Command command : batch.getCommands()) {
+            if (command instanceof SetCommand) {
+                commands.add(new SetCommand(command.getKey(), ((SetCommand) command).getValue()));
+            } else {
+                commands.add(new RmCommand(command.getKey()));
+            }
+        }
+        write(commands, writeOptions);
+    }
+
+    /**
+     * 组提交写入
+     *
+     * 写入线程先排队，队头的线程作为leader，把队列中的一组记录合并为一次WAL写入，
+     * 按队列顺序写入memtable后唤醒同组的其他线程。WAL的写入不持有indexLock，读取不加锁
+     *
+     * @param commands 一起写入的命令，多条时编码为一条WAL记录
+     * @param writeOptions
+     */
+    private void write(List<Command> commands, WriteOptions writeOptions) {
+        long startNanos = System.nanoTime();
         try {
-            SetCommand command = new SetCommand(key, value);
-            byte[] commandBytes = JSONObject.toJSONBytes(command);
-            indexLock.writeLock().lock();
-            //先保存数据到WAL中
-            wal.writeInt(commandBytes.length);
-            wal.write(commandBytes);
-            memtable.put(key, command);
-
-            //内存表大小超过阈值进行持久化
-            if (memtable.size() > storeThreshold) {
-                switchIndex();
-                dumpToL0SsTable();
+            doWrite(commands, writeOptions);
+        } finally {
+            statistics.recordInHistogram(HistogramType.WRITE, System.nanoTime() - startNanos);
+        }
+    }
+
+    private void doWrite(List<Command> commands, WriteOptions writeOptions) {
+        Writer writer = new Writer(commands, writeOptions.isSync(), writeMutex.newCondition());
+        writeMutex.lock();
+        try {
+            writers.addLast(writer);
+            while (!writer.done && writer != writers.peekFirst()) {
+                writer.condition.awaitUninterruptibly();
             }
-        } catch (Throwable t) {
-            t.printStackTrace();
-            throw new RuntimeException(t);
+            if (writer.done) {
+                writer.checkError();
+                return;
+            }
+
+            //当前线程成为leader，取出一组写入
+            List<Writer> group = buildWriteGroup();
+            Throwable error = null;
+            writeMutex.unlock();
+            try {
+                writeGroup(group);
+            } catch (Throwable t) {
+                error = t;
+            } finally {
+                writeMutex.lock();
+            }
+
+            for (Writer member : group) {
+                writers.pollFirst();
+                member.error = error;
+                member.done = true;
+                if (member != writer) {
+                    member.condition.signal();
+                }
+            }
+            //唤醒下一组的leader
+            if (!writers.isEmpty()) {
+                writers.peekFirst().condition.signal();
+            }
+            writer.checkError();
         } finally {
-            indexLock.writeLock().unlock();
+            writeMutex.unlock();
         }
     }
 
     /**
-     * 切换内存表，新建一个内存表，老的暂存起来
+     * 从队头开始取出一组写入，限制一组的数据量，避免小写入等待太久
+     * @return
      */
-    private void switchIndex() {
-        try {
-            indexLock.writeLock().lock();
-            //切换内存表
-            immutableMemtable = memtable;
-            memtable = new ConcurrentSkipListMap<>();
-            wal.close();
-            //切换内存表后也要切换WAL
-            File tmpWal = new File(dataDir + WAL_TMP);
-            if (tmpWal.exists()) {
-                if (!tmpWal.delete()) {
-                    throw new RuntimeException("删除文件失败: walTmp");
+    private List<Writer> buildWriteGroup() {
+        List<Writer> group = new ArrayList<>();
+        Writer first = writers.peekFirst();
+        long maxSize = MAX_WRITE_GROUP_BYTES;
+        if (first.size <= SMALL_WRITE_GROUP_BYTES) {
+            maxSize = first.size + SMALL_WRITE_GROUP_BYTES;
+        }
+        long size = 0;
+        for (Writer writer : writers) {
+            if (!group.isEmpty() && size + writer.size > maxSize) {
+                break;
+            }
+            size += writer.size;
+            group.add(writer);
+        }
+        return group;
+    }
+
+    /**
+     * leader写入一组数据：按顺序分配序列号，合并为一次WAL写入，然后写入memtable
+     *
+     * 写入前先为这组数据腾出memtable的空间，失败时这组数据没有写入WAL和memtable，调用方看到的失败就是真正的失败。
+     * 写入memtable之后才更新最后一个序列号，读取到的序列号对应的数据一定已经在memtable中，
+     * 同一个batch的命令一起可见
+     *
+     * @param group
+     */
+    private void writeGroup(List<Writer> group) throws IOException {
+        makeRoomForWrite();
+        long sequence = versionSet.getLastSequence();
+        int size = 0;
+        boolean sync = false;
+        long keys = 0;
+        long userBytes = 0;
+        for (Writer writer : group) {
+            for (Command command : writer.commands) {
+                command.setSeq(++sequence);
+                keys++;
+                userBytes += command.getKey().length;
+                if (command instanceof SetCommand && ((SetCommand) command).getValue() != null) {
+                    userBytes += ((SetCommand) command).getValue().length;
                 }
             }
-            if (!walFile.renameTo(tmpWal)) {
-                throw new RuntimeException("重命名文件失败: walTmp");
+            writer.record = writer.commands.size() == 1 ? WalRecordCodec.encode(writer.commands.get(0))
+                    : WalRecordCodec.encodeBatch(writer.commands);
+            size += writer.record.length;
+            sync |= writer.sync;
+        }
+        byte[] records = new byte[size];
+        int offset = 0;
+        for (Writer writer : group) {
+            System.arraycopy(writer.record, 0, records, offset, writer.record.length);
+            offset += writer.record.length;
+        }
+
+        //先保存数据到WAL中
+        walWriter.append(records, sync);
+        statistics.recordTick(Ticker.WAL_BYTES_WRITTEN, records.length);
+        statistics.recordTick(Ticker.KEYS_WRITTEN, keys);
+        statistics.recordTick(Ticker.BYTES_WRITTEN, userBytes);
+        Memtable memtable = memState.memtable;
+        for (Writer writer : group) {
+            for (Command command : writer.commands) {
+                memtable.add(command);
+            }
+        }
+        versionSet.setLastSequence(sequence);
+    }
+
+    /**
+     * 写入前检查后台异常，当前memtable已满时切换memtable并交给后台线程持久化
+     *
+     * 切换后的memtable进入immutable队列按顺序持久化，只有队列已满时写入才需要等待。
+     * 后台持久化失败后存储变为只读，写入直接失败；创建新WAL失败时不切换，这次写入失败，之后的写入重新尝试切换
+     */
+    private void makeRoomForWrite() {
+        checkBackgroundError();
+        //内存表占用的内存或条数超过阈值进行持久化，只有leader写入memtable，这里读到的不会过期
+        Memtable memtable = memState.memtable;
+        if (memtable.approximateMemoryUsage() < options.getWriteBufferSize()
+                && (storeThreshold <= 0 || memtable.size() <= storeThreshold)) {
+            return;
+        }
+        indexLock.lock();
+        try {
+            int maxImmutableMemtables = Math.max(1, options.getMaxWriteBufferNumber() - 1);
+            if (memState.immutableMemtables.size() >= maxImmutableMemtables && backgroundError == null) {
+                //immutable队列已满，写入停顿到最早的immutable memtable持久化完成
+                long stallStartNanos = System.nanoTime();
+                statistics.recordTick(Ticker.WRITE_STALLS, 1);
+                while (memState.immutableMemtables.size() >= maxImmutableMemtables && backgroundError == null) {
+                    flushDone.awaitUninterruptibly();
+                }
+                statistics.recordTick(Ticker.STALL_MICROS,
+                        TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - stallStartNanos));
             }
-            walFile = new File(dataDir + WAL);
-            wal = new RandomAccessFile(walFile, RW_MODE);
+            checkBackgroundError();
+            switchIndex();
+            flushExecutor.execute(this::flushImmutableMemtables);
+        } finally {
+            indexLock.unlock();
+        }
+    }
+
+    private void checkBackgroundError() {
+        Throwable error = getBackgroundError();
+        if (error != null) {
+            throw new IllegalStateException("后台持久化异常，存储已变为只读", error);
+        }
+    }
+
+    /**
+     * 后台持久化异常，包括compaction提交时MANIFEST写入失败，不为null时存储是只读的，需要排查原因后重新打开
+     * @return
+     */
+    public Throwable getBackgroundError() {
+        Throwable error = backgroundError;
+        return error != null ? error : versionSet.getManifestError();
+    }
+
+    /**
+     * 切换内存表，新建一个内存表和对应的WAL，老的放入immutable队列的队头
+     */
+    private void switchIndex() {
+        try {
+            indexLock.lock();
+            //先创建新的WAL，失败时不切换memtable
+            long logNumber = versionSet.newFileNumber();
+            WalWriter newWalWriter = newWalWriter(logNumber);
+            Memtable memtable = newMemtable();
+            memtable.setLogNumber(logNumber);
+            List<Memtable> immutableMemtables = new ArrayList<>(memState.immutableMemtables.size() + 1);
+            immutableMemtables.add(memState.memtable);
+            immutableMemtables.addAll(memState.immutableMemtables);
+            //切换内存表，一次发布memtable和immutable memtable
+            memState = new MemState(memtable, Collections.unmodifiableList(immutableMemtables));
+            //旧的WAL保留到对应的memtable持久化完成
+            WalWriter oldWalWriter = walWriter;
+            walWriter = newWalWriter;
+            oldWalWriter.close();
         } catch (Throwable t) {
             throw new RuntimeException(t);
         } finally {
-            indexLock.writeLock().unlock();
+            indexLock.unlock();
         }
     }
 
     /**
-     * 执行dump操作，保存数据到level0的ssTable
+     * 持久化队列中最旧的immutable memtable，在后台线程中执行
+     *
+     * 每次切换提交一个任务，只有一个后台线程，按切换的顺序持久化。
+     * 允许合并时把队尾相邻的多个immutable memtable归并写入一个level0 sstable，之后的任务发现队列为空直接返回。
+     * 构建sstable时不持有锁，读写都不受影响；完成后先发布新版本，再释放immutable memtable
      */
-    private void dumpToL0SsTable() {
+    private void flushImmutableMemtables() {
+        //只有这个线程从队列中移除，其他线程只会在队头加入，队尾的memtable不会变化
+        List<Memtable> immutableMemtables = memState.immutableMemtables;
+        if (immutableMemtables.isEmpty() || backgroundError != null) {
+            return;
+        }
+        long startNanos = System.nanoTime();
         try {
-            //获取文件编号
-            Long fileNumber = nextFileNumber.getAndIncrement();
-            //ssTable命名按照编号递增
-            SsTable ssTable = SsTable.createFromIndex(fileNumber, partSize, immutableMemtable, true, 0);
-
-            //sstable信息记录
-            List<SsTable> levelSstables = levelMetaInfos.get(0);
-            if (levelSstables == null) {
-                levelSstables = new ArrayList<>();
-                levelMetaInfos.put(0, levelSstables);
-            }
-            levelSstables.add(ssTable);
-
-            //持久化完成删除暂存的内存表和WAL_TMP
-            immutableMemtable = null;
-            File tmpWal = new File(dataDir + WAL_TMP);
-            if (tmpWal.exists()) {
-                if (!tmpWal.delete()) {
-                    throw new RuntimeException("删除文件失败: walTmp");
+            int count = Math.min(immutableMemtables.size(), Math.max(1, options.getMaxWriteBufferNumberToMerge()));
+            //从新到旧排列，和归并迭代器要求的顺序一致
+            List<Memtable> toFlush = immutableMemtables.subList(immutableMemtables.size() - count,
+                    immutableMemtables.size());
+            for (Memtable memtable : toFlush) {
+                statistics.recordTick(Ticker.FLUSH_BYTES_READ, memtable.approximateMemoryUsage());
+            }
+            InternalIterator iterator;
+            if (toFlush.size() == 1) {
+                iterator = toFlush.get(0).iterator();
+            } else {
+                List<InternalIterator> children = new ArrayList<>(toFlush.size());
+                for (Memtable memtable : toFlush) {
+                    children.add(memtable.iterator());
                 }
+                iterator = new MergingIterator(children, comparator);
             }
 
+            //获取文件编号
+            Long fileNumber = versionSet.newFileNumber();
+            //ssTable命名按照编号递增，快照不再需要的旧版本不写入
+            SsTable ssTable = SsTable.createFromMemtable(dataDir, fileNumber, partSize, iterator,
+                    options.getCompression(0), 0, options.getBloomBitsPerKey(),
+                    snapshots.oldest(versionSet::getLastSequence));
+            ssTable.setBlockCache(blockCache);
+            ssTable.setTableCache(tableCache);
+            ssTable.setComparator(comparator);
+            ssTable.setStatistics(statistics);
+            statistics.recordTick(Ticker.FLUSH_BYTES_WRITTEN, ssTable.getTableMetaInfo().getFileSize());
+            installL0SsTable(ssTable, count);
+            statistics.recordInHistogram(HistogramType.FLUSH, System.nanoTime() - startNanos);
+
             //可能会触发compaction
-            compactioner.compaction(levelMetaInfos, nextFileNumber);
+            compactioner.maybeScheduleCompaction();
         } catch (Throwable t) {
-            throw new RuntimeException(t);
+            LoggerUtil.error(LOGGER, t, "flushImmutableMemtables exception,");
+            indexLock.lock();
+            try {
+                //immutable memtable保留，数据仍然可以从对应的WAL中恢复
+                backgroundError = t;
+                flushDone.signalAll();
+            } finally {
+                indexLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 把持久化完成的sstable加入level0，从队尾释放对应的immutable memtable，删除它们的WAL
+     * @param ssTable
+     * @param flushedCount 持久化的immutable memtable个数
+     */
+    private void installL0SsTable(SsTable ssTable, int flushedCount) {
+        indexLock.lock();
+        try {
+            List<Memtable> immutableMemtables = memState.immutableMemtables;
+            List<Memtable> remaining = immutableMemtables.subList(0, immutableMemtables.size() - flushedCount);
+            //还没有持久化的最旧的memtable的WAL编号，更早的WAL都可以删除
+            long logNumber = remaining.isEmpty() ? memState.memtable.getLogNumber()
+                    : remaining.get(remaining.size() - 1).getLogNumber();
+
+            //sstable信息和WAL进度一起记录
+            VersionEdit edit = new VersionEdit();
+            edit.addFile(0, ssTable);
+            edit.setLogNumber(logNumber);
+            versionSet.logAndApply(edit);
+
+            //新版本已经发布，先读取memState再读取版本的线程不会漏掉这部分数据
+            memState = new MemState(memState.memtable, Collections.unmodifiableList(new ArrayList<>(remaining)));
+            deleteObsoleteWals(logNumber);
+
+            flushDone.signalAll();
+        } finally {
+            indexLock.unlock();
         }
     }
 
+    @Override
+    public byte[] get(byte[] key) {
+        return get(key, DEFAULT_READ_OPTIONS);
+    }
+
     @Override
     public String get(String key) {
-        LoggerUtil.info(LOGGER, "[get]key: {}", key);
+        return get(key, DEFAULT_READ_OPTIONS);
+    }
+
+    @Override
+    public String get(String key, ReadOptions readOptions) {
+        byte[] value = get(key.getBytes(StandardCharsets.UTF_8), readOptions);
+        return value == null ? null : new String(value, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public byte[] get(byte[] key, ReadOptions readOptions) {
+        //先读取memState再引用版本：flush先发布版本再释放immutable memtable，两者之间的数据不会漏掉
+        long startNanos = System.nanoTime();
+        MemState currentMemState = memState;
+        Version version = versionSet.current();
+
         try {
-            indexLock.readLock().lock();
+            long sequence = readSequence(readOptions);
+            PerfContext perfContext = PerfContext.current();
+            long memtableStartNanos = 0;
+            if (perfContext != null) {
+                perfContext.setFoundLevel(PerfContext.LEVEL_NOT_FOUND);
+                memtableStartNanos = System.nanoTime();
+            }
             //先从memtable中取
-            Command command = memtable.get(key);
-            //再尝试从不可变索引中取，此时可能处于持久化sstable的过程中
-            if (command == null && immutableMemtable != null) {
-                command = immutableMemtable.get(key);
+            Command command = currentMemState.memtable.get(key, sequence);
+            //再从新到旧尝试不可变索引，它们可能正在排队或处于持久化sstable的过程中
+            for (int i = 0; command == null && i < currentMemState.immutableMemtables.size(); i++) {
+                command = currentMemState.immutableMemtables.get(i).get(key, sequence);
+            }
+            if (perfContext != null) {
+                perfContext.addMemtableLookup(System.nanoTime() - memtableStartNanos);
             }
             if (command == null) {
+                statistics.recordTick(Ticker.MEMTABLE_MISS);
                 //memtable中没有尝试从ssTable中获取，从新的ssTable找到老的
-                command = findFromSstables(key);
+                command = version.get(key, sequence);
+            } else {
+                statistics.recordTick(Ticker.MEMTABLE_HIT);
+                if (perfContext != null) {
+                    perfContext.setFoundLevel(PerfContext.LEVEL_MEMTABLE);
+                }
             }
+            statistics.recordTick(Ticker.KEYS_READ);
 
             if (command instanceof SetCommand) {
-                return ((SetCommand) command).getValue();
+                //memtable和sstable中读出的命令都是复制的，可以直接交给调用方
+                byte[] value = ((SetCommand) command).getValue();
+                statistics.recordTick(Ticker.KEYS_FOUND);
+                if (value != null) {
+                    statistics.recordTick(Ticker.BYTES_READ, value.length);
+                }
+                return value;
             }
             if (command instanceof RmCommand) {
                 return null;
@@ -296,170 +920,316 @@ public class LsmKvStore implements KvStore {
         } catch (Throwable t) {
             throw new RuntimeException(t);
         } finally {
-            indexLock.readLock().unlock();
+            version.unref();
+            statistics.recordInHistogram(HistogramType.GET, System.nanoTime() - startNanos);
         }
     }
 
     /**
-     * 从sstable中查找
+     * 读取使用的序列号
+     *
+     * 没有指定快照时使用最后一个写入的序列号，需要在引用版本之后读取：
+     * flush和compaction丢弃旧版本时使用的序列号不会大于它，丢弃的版本一定被可见的新版本覆盖
      *
-     * @param key key值
+     * @param readOptions
      * @return
      */
-    private Command findFromSstables(String key) {
-        //1. 查找level0
-        Command l0Result = findFromL0Sstables(key);
-        if (l0Result != null) {
-            return l0Result;
+    private long readSequence(ReadOptions readOptions) {
+        Snapshot snapshot = readOptions.getSnapshot();
+        if (snapshot == null) {
+            return versionSet.getLastSequence();
         }
-
-        //2. 查找其他level
-        for (int level = 1;level < KVConstants.SSTABLE_MAX_LEVEL;++level) {
-            Command otherLevelResult = findFromOtherLevelSstables(key, level);
-            if (otherLevelResult != null) {
-                return otherLevelResult;
-            }
+        if (snapshot.isReleased()) {
+            throw new IllegalStateException("快照已释放," + snapshot);
         }
-        return null;
+        return snapshot.getSequence();
     }
 
-    /**
-     * 在level0查找
-     *
-     * level0因为不同sstable之间存在相同key信息，因此需要逐个遍历
-     *
-     * @param key
-     * @return
-     */
-    private Command findFromL0Sstables(String key) {
-        List<SsTable> l0Sstables = levelMetaInfos.get(0);
-        if (CollectionUtils.isEmpty(l0Sstables)) {
-            return null;
-        }
+    @Override
+    public List<Map.Entry<String, String>> scan(String startKey, String endKey) {
+        return scan(startKey, endKey, DEFAULT_READ_OPTIONS);
+    }
 
-        //按编号从大到小排列
-        l0Sstables.sort((sstabl1, sstable2) -> {
-            if (sstabl1.getFileNumber() < sstable2.getFileNumber()) {
-                return 1;
-            } else if (sstabl1.getFileNumber() == sstable2.getFileNumber()) {
-                return 0;
+    @Override
+    public List<Map.Entry<String, String>> scan(String startKey, String endKey, ReadOptions readOptions) {
+        List<Map.Entry<String, String>> result = new ArrayList<>();
+        byte[] end = endKey == null ? null : endKey.getBytes(StandardCharsets.UTF_8);
+        try (KvIterator iterator = newIterator(end, readOptions)) {
+            if (startKey == null) {
+                iterator.seekToFirst();
             } else {
-                return -1;
+                iterator.seek(startKey);
             }
-        });
-
-        //存在多个key相同的数据时，以最新的为准
-        for (SsTable ssTable : l0Sstables) {
-            Command command = ssTable.query(key);
-            if (command != null) {
-                return command;
+            for (; iterator.isValid(); iterator.next()) {
+                result.add(new AbstractMap.SimpleImmutableEntry<>(iterator.key(), iterator.value()));
             }
         }
+        return result;
+    }
 
-        return null;
+    @Override
+    public KvIterator iterator() {
+        return iterator(DEFAULT_READ_OPTIONS);
+    }
+
+    @Override
+    public KvIterator iterator(ReadOptions readOptions) {
+        return newIterator(null, readOptions);
+    }
+
+    @Override
+    public Snapshot getSnapshot() {
+        return snapshots.create(versionSet::getLastSequence);
+    }
+
+    @Override
+    public void releaseSnapshot(Snapshot snapshot) {
+        snapshots.release(snapshot);
     }
 
     /**
-     * 在其他level查找
+     * 创建迭代器
      *
-     * 其他level的sstable之间不会存在key重叠的情况，因此可以采用二分查找
+     * 取得memtable、immutable memtable并引用当前版本，不需要加锁，
+     * 迭代期间compaction删除的文件在迭代器关闭后才真正删除。数据块在迭代时才读取。
+     * 只能看到创建时（或快照）序列号之前的数据，迭代过程中的写入不可见
      *
-     * @param key
-     * @param level 层编号
+     * @param endKey key的上界（不包含），为null表示不限制
+     * @param readOptions
      * @return
      */
-    private Command findFromOtherLevelSstables(String key, Integer level) {
-        List<SsTable> sstables = levelMetaInfos.get(level);
-        if (CollectionUtils.isEmpty(sstables)) {
-            return null;
+    private KvIterator newIterator(byte[] endKey, ReadOptions readOptions) {
+        List<InternalIterator> children = new ArrayList<>();
+        //和get一样先读取memState再引用版本，最后读取序列号
+        MemState currentMemState = memState;
+        Version version = versionSet.current();
+        long sequence;
+        try {
+            sequence = readSequence(readOptions);
+        } catch (RuntimeException e) {
+            version.unref();
+            throw e;
         }
 
-        //二分查找
-        //按编号从小到大排列
-        sstables.sort((sstabl1, sstable2) -> {
-            if (sstabl1.getTableMetaInfo().getSmallestKey().compareTo(sstable2.getTableMetaInfo().getSmallestKey()) < 0) {
-                return -1;
-            } else if (sstabl1.getTableMetaInfo().getSmallestKey().compareTo(sstable2.getTableMetaInfo().getSmallestKey()) == 0) {
-                return 0;
-            } else {
-                return 1;
-            }
-        });
-
-        Command command = binarySearchSstables(key, sstables);
-        if (command != null) {
-            return command;
+        //按从新到旧的顺序加入，相同key以最新的为准
+        children.add(currentMemState.memtable.iterator());
+        for (Memtable immutableMemtable : currentMemState.immutableMemtables) {
+            children.add(immutableMemtable.iterator());
         }
 
-        return null;
-    }
-
-    /**
-     * 二分查找
-     *
-     * @param key
-     * @param ssTables
-     * @return
-     */
-    private Command binarySearchSstables(String key, List<SsTable> ssTables) {
-        if (ssTables == null) {
-            return null;
+        //level0的sstable之间key可能重叠，每个sstable单独迭代，列表已按从新到旧排列
+        for (SsTable ssTable : version.getLevel(0)) {
+            children.add(new TableIterator(ssTable));
         }
 
-        int left = 0, right = ssTables.size() - 1;
-        while (left <= right) {
-            int mid = left + (right - left) / 2;
-            SsTable midSsTable = ssTables.get(mid);
-            if (key.compareTo(midSsTable.getTableMetaInfo().getSmallestKey()) >= 0
-                && key.compareTo(midSsTable.getTableMetaInfo().getLargestKey()) <= 0) {
-                return midSsTable.query(key);
-            } else if (key.compareTo(midSsTable.getTableMetaInfo().getSmallestKey()) < 0) {
-                right = mid - 1;
-            } else {
-                left = mid + 1;
+        //其他level的sstable之间key不重叠，每层按最小key顺序迭代
+        for (int level = 1; level < KVConstants.SSTABLE_MAX_LEVEL; ++level) {
+            List<SsTable> sstables = version.getLevel(level);
+            if (!sstables.isEmpty()) {
+                children.add(new LevelIterator(sstables, comparator));
             }
         }
+        return new DbIterator(new MergingIterator(children, comparator), endKey, sequence, version, comparator);
+    }
+
+    @Override
+    public void rm(byte[] key) {
+        rm(key, DEFAULT_WRITE_OPTIONS);
+    }
 
-        return null;
+    @Override
+    public void rm(byte[] key, WriteOptions writeOptions) {
+        write(Collections.singletonList(new RmCommand(key)), writeOptions);
     }
 
     @Override
     public void rm(String key) {
+        rm(key, DEFAULT_WRITE_OPTIONS);
+    }
+
+    @Override
+    public void rm(String key, WriteOptions writeOptions) {
+        //删除和写入的操作是一样的
+        write(Collections.singletonList(new RmCommand(key)), writeOptions);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (walSyncExecutor != null) {
+            walSyncExecutor.shutdownNow();
+        }
+        //等待正在进行的持久化完成
+        flushExecutor.shutdown();
         try {
-            //删除和写入的操作是一样的
-            indexLock.writeLock().lock();
-            RmCommand rmCommand = new RmCommand(key);
-            byte[] commandBytes = JSONObject.toJSONBytes(rmCommand);
-            wal.writeInt(commandBytes.length);
-            wal.write(commandBytes);
-            memtable.put(key, rmCommand);
-            if (memtable.size() > storeThreshold) {
-                switchIndex();
-                dumpToL0SsTable();
+            flushExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        compactioner.close();
+        walWriter.close();
+        //未关闭的迭代器引用的sstable在迭代器关闭时释放
+        versionSet.close();
+        if (statisticsMBeanName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(statisticsMBeanName);
+            } catch (Exception e) {
+                LoggerUtil.warn(LOGGER, "unregisterStatisticsMBean failed,name={},error={}", statisticsMBeanName,
+                        e.toString());
             }
-        } catch (Throwable t) {
-            throw new RuntimeException(t);
+            statisticsMBeanName = null;
+        }
+    }
+
+    /**
+     * 当前版本每一层的sstable信息
+     * @return
+     */
+    public Map<Integer, List<SsTable>> getLevelMetaInfos() {
+        Version version = versionSet.current();
+        try {
+            return version.toLevelMap();
         } finally {
-            indexLock.writeLock().unlock();
+            version.unref();
         }
     }
 
+    /**
+     * 当前打开的sstable文件数，不使用TableCache时返回-1
+     * @return
+     */
+    public int getOpenTableFiles() {
+        return tableCache == null ? -1 : tableCache.getOpenFiles();
+    }
+
+    /**
+     * 本次打开以来写入磁盘的字节数，包括WAL、持久化memtable和compaction写出的sstable，用于计算写放大；
+     * 从统计信息中读取，调用Statistics.reset后重新计数
+     * @return
+     */
+    public long getDiskBytesWritten() {
+        return getWalBytesWritten() + getFlushBytesWritten() + getCompactionBytesWritten();
+    }
+
+    /**
+     * 本次打开以来写入WAL的字节数
+     * @return
+     */
+    public long getWalBytesWritten() {
+        return statistics.getTickerCount(Ticker.WAL_BYTES_WRITTEN);
+    }
+
+    /**
+     * 本次打开以来持久化memtable写出的sstable字节数
+     * @return
+     */
+    public long getFlushBytesWritten() {
+        return statistics.getTickerCount(Ticker.FLUSH_BYTES_WRITTEN);
+    }
+
+    /**
+     * 本次打开以来compaction写出的sstable字节数
+     * @return
+     */
+    public long getCompactionBytesWritten() {
+        return statistics.getTickerCount(Ticker.COMPACTION_BYTES_WRITTEN);
+    }
+
+    /**
+     * 启动耗时（毫秒），从开始打开到可以处理请求
+     * @return
+     */
+    public long getStartupTimeMillis() {
+        return startupTimeMillis;
+    }
+
     @Override
-    public void close() throws IOException {
-        wal.close();
-        for (List<SsTable> ssTableList : levelMetaInfos.values()) {
-            ssTableList.forEach(ssTable -> {
-                try {
-                    ssTable.close();
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-            });
-        }
+    public Statistics getStatistics() {
+        return statistics;
     }
 
     @Override
     public void printfStats() {
+        LoggerUtil.info(LOGGER, "printfStats,statistics=\n{}", statistics);
         LoggerUtil.debug(LOGGER, "printfStats,levelMetaInfos=" + this.getLevelMetaInfos());
     }
+
+    /**
+     * memtable和immutable memtable的不可变组合，切换memtable时整体替换
+     */
+    private static class MemState {
+        /**
+         * 按(key, 序列号)排列，同一个key的多个版本都保留
+         */
+        private final Memtable memtable;
+
+        /**
+         * 等待持久化的内存表，从新到旧排列，不可修改
+         */
+        private final List<Memtable> immutableMemtables;
+
+        MemState(Memtable memtable, List<Memtable> immutableMemtables) {
+            this.memtable = memtable;
+            this.immutableMemtables = immutableMemtables;
+        }
+    }
+
+    /**
+     * 排队等待写入的线程
+     */
+    private static class Writer {
+        /**
+         * 一次写入的命令，单条写入或者一个batch
+         */
+        private final List<Command> commands;
+
+        /**
+         * 编码好的WAL记录，由leader分配序列号后编码
+         */
+        private byte[] record;
+
+        /**
+         * 数据大小估计，用于限制一组写入的数据量
+         */
+        private final int size;
+
+        private final boolean sync;
+
+        private final Condition condition;
+
+        /**
+         * 是否已经由leader写入完成
+         */
+        private boolean done;
+
+        /**
+         * 写入异常
+         */
+        private Throwable error;
+
+        Writer(List<Command> commands, boolean sync, Condition condition) {
+            this.commands = commands;
+            int size = 0;
+            for (Command command : commands) {
+                size += command.getKey().length;
+                if (command instanceof SetCommand && ((SetCommand) command).getValue() != null) {
+                    size += ((SetCommand) command).getValue().length;
+                }
+            }
+            this.size = size;
+            this.sync = sync;
+            this.condition = condition;
+        }
+
+        void checkError() {
+            if (error instanceof RuntimeException) {
+                throw (RuntimeException) error;
+            }
+            if (error instanceof Error) {
+                throw (Error) error;
+            }
+            if (error != null) {
+                throw new RuntimeException(error);
+            }
+        }
+    }
 }
@@ -0,0 +1,138 @@
+package com.summer.kvstore.statistics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 线程安全的延迟直方图（单位：纳秒）
+ *
+ * 按2的幂分组，每组再均分为16个子桶，记录和合并都是O(1)，分位数的相对误差约6%。
+ * 每个桶是一个LongAdder，多个线程同时记录时分散到不同的cell，不需要加锁
+ */
+public class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final LongAdder[] buckets = new LongAdder[64 * SUB_BUCKETS];
+
+    private final LongAdder count = new LongAdder();
+
+    private final LongAdder sum = new LongAdder();
+
+    private final LongAccumulator min = new LongAccumulator(Math::min, Long.MAX_VALUE);
+
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public Histogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * 记录一个值
+     * @param value 纳秒，小于0按0记录
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        buckets[bucketIndex(value)].increment();
+        count.increment();
+        sum.add(value);
+        min.accumulate(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * 合并另一个直方图，合并期间other不应再有新的记录
+     * @param other
+     */
+    public void merge(Histogram other) {
+        long otherCount = other.count.sum();
+        if (otherCount == 0) {
+            return;
+        }
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i].add(other.buckets[i].sum());
+        }
+        count.add(otherCount);
+        sum.add(other.sum.sum());
+        min.accumulate(other.min.get());
+        max.accumulate(other.max.get());
+    }
+
+    /**
+     * 清空
+     */
+    public void reset() {
+        for (LongAdder bucket : buckets) {
+            bucket.reset();
+        }
+        count.reset();
+        sum.reset();
+        min.reset();
+        max.reset();
+    }
+
+    /**
+     * 当前数据的摘要，记录和读取并发时各项之间可能有少量不一致
+     * @return
+     */
+    public HistogramData getData() {
+        long[] counts = new long[buckets.length];
+        long total = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            counts[i] = buckets[i].sum();
+            total += counts[i];
+        }
+        if (total == 0) {
+            return new HistogramData(0, 0, 0, 0, 0, 0, 0, 0);
+        }
+        long maxValue = max.get();
+        return new HistogramData(total, sum.sum() / (double) total, Math.min(min.get(), maxValue),
+                percentile(counts, total, maxValue, 50), percentile(counts, total, maxValue, 95),
+                percentile(counts, total, maxValue, 99), percentile(counts, total, maxValue, 99.9), maxValue);
+    }
+
+    /**
+     * 分位数
+     * @return 分位数所在子桶的上界，不超过最大值
+     */
+    private static long percentile(long[] counts, long total, long maxValue, double percentile) {
+        long threshold = (long) Math.ceil(total * percentile / 100.0);
+        long cumulative = 0;
+        for (int i = 0; i < counts.length; i++) {
+            cumulative += counts[i];
+            if (cumulative >= threshold && counts[i] > 0) {
+                return Math.min(bucketUpperBound(i), maxValue);
+            }
+        }
+        return maxValue;
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * 子桶内最大的值
+     */
+    static long bucketUpperBound(int index) {
+        int group = index / SUB_BUCKETS;
+        int subBucket = index % SUB_BUCKETS;
+        if (group == 0) {
+            return subBucket;
+        }
+        int exponent = group + SUB_BUCKET_BITS - 1;
+        int shift = exponent - SUB_BUCKET_BITS;
+        return (1L << exponent) + ((long) (subBucket + 1) << shift) - 1;
+    }
+}
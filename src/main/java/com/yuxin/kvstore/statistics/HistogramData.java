@@ -0,0 +1,52 @@
+package com.summer.kvstore.statistics;
+
+import lombok.Getter;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * 直方图的摘要（单位：纳秒），通过JMX暴露时映射为CompositeData
+ */
+@Getter
+public class HistogramData {
+    private final long count;
+
+    private final double average;
+
+    private final long min;
+
+    private final long median;
+
+    private final long percentile95;
+
+    private final long percentile99;
+
+    private final long percentile999;
+
+    private final long max;
+
+    @ConstructorProperties({"count", "average", "min", "median", "percentile95", "percentile99", "percentile999",
+            "max"})
+    public HistogramData(long count, double average, long min, long median, long percentile95, long percentile99,
+                         long percentile999, long max) {
+        this.count = count;
+        this.average = average;
+        this.min = min;
+        this.median = median;
+        this.percentile95 = percentile95;
+        this.percentile99 = percentile99;
+        this.percentile999 = percentile999;
+        this.max = max;
+    }
+
+    /**
+     * 以微秒输出摘要
+     * @return
+     */
+    @Override
+    public String toString() {
+        return String.format("count=%d avg=%.2fus p50=%.2fus p95=%.2fus p99=%.2fus p99.9=%.2fus max=%.2fus",
+                count, average / 1000.0, median / 1000.0, percentile95 / 1000.0, percentile99 / 1000.0,
+                percentile999 / 1000.0, max / 1000.0);
+    }
+}
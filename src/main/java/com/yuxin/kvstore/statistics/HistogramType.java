@@ -0,0 +1,26 @@
+package com.summer.kvstore.statistics;
+
+/**
+ * 延迟直方图类型，记录的单位都是纳秒
+ */
+public enum HistogramType {
+    /**
+     * 点查的耗时
+     */
+    GET,
+
+    /**
+     * 写入的耗时，包括单条写入、删除和WriteBatch，含组提交排队和写入停顿的时间
+     */
+    WRITE,
+
+    /**
+     * 持久化immutable memtable的耗时
+     */
+    FLUSH,
+
+    /**
+     * 一次compaction的耗时，从合并输入到提交新版本
+     */
+    COMPACTION
+}
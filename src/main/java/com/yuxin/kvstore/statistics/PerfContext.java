@@ -0,0 +1,221 @@
+package com.summer.kvstore.statistics;
+
+import lombok.Getter;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 线程级别的单次操作耗时明细，用于分析某一次慢读把时间花在了哪里
+ *
+ * 默认关闭，需要在当前线程调用enable开启，之后当前线程上的读取把各阶段的耗时和次数累加到这个线程的PerfContext，
+ * 每次操作前调用reset清零。没有任何线程开启时，埋点只需要读取一次volatile变量，不访问ThreadLocal也不读取时钟。
+ *
+ * 用法：
+ * <pre>
+ * PerfContext.enable();
+ * PerfContext perfContext = PerfContext.get();
+ * perfContext.reset();
+ * kvStore.get(key);
+ * System.out.println(perfContext);
+ * PerfContext.disable();
+ * </pre>
+ */
+@Getter
+public class PerfContext {
+
+    /**
+     * 在memtable或immutable memtable中找到
+     */
+    public static final int LEVEL_MEMTABLE = -1;
+
+    /**
+     * 没有找到
+     */
+    public static final int LEVEL_NOT_FOUND = -2;
+
+    private static final ThreadLocal<PerfContext> CONTEXT = ThreadLocal.withInitial(PerfContext::new);
+
+    /**
+     * 开启了PerfContext的线程数，为0时埋点直接跳过
+     */
+    private static final AtomicInteger ENABLED_THREADS = new AtomicInteger();
+
+    private boolean enabled;
+
+    /**
+     * 查找memtable和immutable memtable的耗时（纳秒）
+     */
+    private long memtableLookupNanos;
+
+    /**
+     * 查询的level0 sstable个数
+     */
+    private long l0TablesProbed;
+
+    /**
+     * 查询布隆过滤器的次数
+     */
+    private long bloomChecked;
+
+    /**
+     * 布隆过滤器判断不存在的次数
+     */
+    private long bloomUseful;
+
+    /**
+     * 在稀疏索引中查找数据块的耗时（纳秒），不包括第一次访问时加载索引
+     */
+    private long indexSearchNanos;
+
+    /**
+     * 命中数据块缓存的次数
+     */
+    private long blockCacheHitCount;
+
+    /**
+     * 从文件中读取的数据块个数
+     */
+    private long blockReadCount;
+
+    /**
+     * 从文件中读取的字节数（压缩后）
+     */
+    private long blockReadBytes;
+
+    /**
+     * 从文件中读取数据块的耗时（纳秒），不包括解压
+     */
+    private long blockReadNanos;
+
+    /**
+     * 解压数据块的耗时（纳秒）
+     */
+    private long decompressNanos;
+
+    /**
+     * 在数据块中解析和查找key的耗时（纳秒）
+     */
+    private long blockDecodeNanos;
+
+    /**
+     * 最后一次点查找到key的层，memtable中找到为LEVEL_MEMTABLE，没有找到为LEVEL_NOT_FOUND
+     */
+    private int foundLevel = LEVEL_NOT_FOUND;
+
+    /**
+     * 在当前线程开启
+     */
+    public static void enable() {
+        PerfContext perfContext = CONTEXT.get();
+        if (!perfContext.enabled) {
+            perfContext.enabled = true;
+            ENABLED_THREADS.incrementAndGet();
+        }
+    }
+
+    /**
+     * 在当前线程关闭，开启过的线程退出前需要调用，否则其他线程的埋点会多一次ThreadLocal查找
+     */
+    public static void disable() {
+        PerfContext perfContext = CONTEXT.get();
+        if (perfContext.enabled) {
+            perfContext.enabled = false;
+            ENABLED_THREADS.decrementAndGet();
+        }
+    }
+
+    /**
+     * 当前线程的PerfContext，没有开启时各项保持不变
+     * @return
+     */
+    public static PerfContext get() {
+        return CONTEXT.get();
+    }
+
+    /**
+     * 埋点使用：当前线程开启时返回它的PerfContext，否则返回null
+     * @return
+     */
+    public static PerfContext current() {
+        if (ENABLED_THREADS.get() == 0) {
+            return null;
+        }
+        PerfContext perfContext = CONTEXT.get();
+        return perfContext.enabled ? perfContext : null;
+    }
+
+    /**
+     * 清零，每次要分析的操作之前调用
+     */
+    public void reset() {
+        memtableLookupNanos = 0;
+        l0TablesProbed = 0;
+        bloomChecked = 0;
+        bloomUseful = 0;
+        indexSearchNanos = 0;
+        blockCacheHitCount = 0;
+        blockReadCount = 0;
+        blockReadBytes = 0;
+        blockReadNanos = 0;
+        decompressNanos = 0;
+        blockDecodeNanos = 0;
+        foundLevel = LEVEL_NOT_FOUND;
+    }
+
+    public void addMemtableLookup(long nanos) {
+        memtableLookupNanos += nanos;
+    }
+
+    public void addL0TableProbed() {
+        l0TablesProbed++;
+    }
+
+    public void addBloomCheck(boolean useful) {
+        bloomChecked++;
+        if (useful) {
+            bloomUseful++;
+        }
+    }
+
+    public void addIndexSearch(long nanos) {
+        indexSearchNanos += nanos;
+    }
+
+    public void addBlockCacheHit() {
+        blockCacheHitCount++;
+    }
+
+    public void addBlockRead(long bytes, long nanos) {
+        blockReadCount++;
+        blockReadBytes += bytes;
+        blockReadNanos += nanos;
+    }
+
+    public void addDecompress(long nanos) {
+        decompressNanos += nanos;
+    }
+
+    public void addBlockDecode(long nanos) {
+        blockDecodeNanos += nanos;
+    }
+
+    public void setFoundLevel(int foundLevel) {
+        this.foundLevel = foundLevel;
+    }
+
+    @Override
+    public String toString() {
+        return "memtableLookupNanos=" + memtableLookupNanos
+                + ",l0TablesProbed=" + l0TablesProbed
+                + ",bloomChecked=" + bloomChecked
+                + ",bloomUseful=" + bloomUseful
+                + ",indexSearchNanos=" + indexSearchNanos
+                + ",blockCacheHitCount=" + blockCacheHitCount
+                + ",blockReadCount=" + blockReadCount
+                + ",blockReadBytes=" + blockReadBytes
+                + ",blockReadNanos=" + blockReadNanos
+                + ",decompressNanos=" + decompressNanos
+                + ",blockDecodeNanos=" + blockDecodeNanos
+                + ",foundLevel=" + foundLevel;
+    }
+}
@@ -0,0 +1,115 @@
+package com.summer.kvstore.statistics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 存储引擎的运行统计
+ *
+ * 计数器使用LongAdder，读写线程和后台线程并发累加时各自落在不同的cell上，开销接近普通的加法；
+ * 延迟按类型记录到直方图。所有值从打开数据库开始累计，调用reset后重新开始
+ */
+public class Statistics implements StatisticsMXBean {
+
+    private final LongAdder[] tickers = new LongAdder[Ticker.values().length];
+
+    private final Histogram[] histograms = new Histogram[HistogramType.values().length];
+
+    public Statistics() {
+        for (int i = 0; i < tickers.length; i++) {
+            tickers[i] = new LongAdder();
+        }
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new Histogram();
+        }
+    }
+
+    /**
+     * 计数器加1
+     * @param ticker
+     */
+    public void recordTick(Ticker ticker) {
+        tickers[ticker.ordinal()].increment();
+    }
+
+    /**
+     * 计数器增加count
+     * @param ticker
+     * @param count
+     */
+    public void recordTick(Ticker ticker, long count) {
+        tickers[ticker.ordinal()].add(count);
+    }
+
+    /**
+     * 计数器的当前值
+     * @param ticker
+     * @return
+     */
+    public long getTickerCount(Ticker ticker) {
+        return tickers[ticker.ordinal()].sum();
+    }
+
+    /**
+     * 记录一次耗时
+     * @param type
+     * @param nanos 纳秒
+     */
+    public void recordInHistogram(HistogramType type, long nanos) {
+        histograms[type.ordinal()].record(nanos);
+    }
+
+    /**
+     * 直方图的摘要
+     * @param type
+     * @return
+     */
+    public HistogramData getHistogramData(HistogramType type) {
+        return histograms[type.ordinal()].getData();
+    }
+
+    @Override
+    public Map<String, Long> getTickers() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (Ticker ticker : Ticker.values()) {
+            result.put(ticker.name(), getTickerCount(ticker));
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, HistogramData> getHistograms() {
+        Map<String, HistogramData> result = new LinkedHashMap<>();
+        for (HistogramType type : HistogramType.values()) {
+            result.put(type.name(), getHistogramData(type));
+        }
+        return result;
+    }
+
+    @Override
+    public void reset() {
+        for (LongAdder ticker : tickers) {
+            ticker.reset();
+        }
+        for (Histogram histogram : histograms) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * 每行一个计数器或直方图
+     * @return
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Ticker ticker : Ticker.values()) {
+            builder.append(ticker.name()).append(" : ").append(getTickerCount(ticker)).append('\n');
+        }
+        for (HistogramType type : HistogramType.values()) {
+            builder.append(type.name()).append(" : ").append(getHistogramData(type)).append('\n');
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,26 @@
+package com.summer.kvstore.statistics;
+
+import java.util.Map;
+
+/**
+ * 通过JMX暴露的统计信息，ObjectName为com.summer.kvstore:type=Statistics,dataDir=数据目录
+ */
+public interface StatisticsMXBean {
+
+    /**
+     * 所有计数器的当前值
+     * @return 计数器名称 -> 值
+     */
+    Map<String, Long> getTickers();
+
+    /**
+     * 所有直方图的摘要（单位：纳秒）
+     * @return 直方图名称 -> 摘要
+     */
+    Map<String, HistogramData> getHistograms();
+
+    /**
+     * 清空所有计数器和直方图
+     */
+    void reset();
+}
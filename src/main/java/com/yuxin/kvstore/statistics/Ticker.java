@@ -0,0 +1,126 @@
+package com.summer.kvstore.statistics;
+
+/**
+ * 计数器类型
+ */
+public enum Ticker {
+    /**
+     * 写入的key个数，包括删除
+     */
+    KEYS_WRITTEN,
+
+    /**
+     * 写入的用户数据字节数（key + value）
+     */
+    BYTES_WRITTEN,
+
+    /**
+     * 读取的key个数
+     */
+    KEYS_READ,
+
+    /**
+     * 读取到的key个数
+     */
+    KEYS_FOUND,
+
+    /**
+     * 读取返回的value字节数
+     */
+    BYTES_READ,
+
+    /**
+     * 在memtable或immutable memtable中找到
+     */
+    MEMTABLE_HIT,
+
+    /**
+     * memtable和immutable memtable中都没有找到
+     */
+    MEMTABLE_MISS,
+
+    /**
+     * 在level0找到
+     */
+    L0_HIT,
+
+    /**
+     * 在level1找到
+     */
+    L1_HIT,
+
+    /**
+     * 在level2及更深的层找到
+     */
+    L2_AND_UP_HIT,
+
+    /**
+     * 从文件中读取的数据块个数，命中数据块缓存的不计入
+     */
+    BLOCK_READ_COUNT,
+
+    /**
+     * 从文件中读取的数据块字节数（压缩后）
+     */
+    BLOCK_READ_BYTES,
+
+    /**
+     * 数据块缓存命中
+     */
+    BLOCK_CACHE_HIT,
+
+    /**
+     * 数据块缓存未命中
+     */
+    BLOCK_CACHE_MISS,
+
+    /**
+     * 查询布隆过滤器的次数
+     */
+    BLOOM_FILTER_CHECKED,
+
+    /**
+     * 布隆过滤器判断不存在、省去读取数据块的次数
+     */
+    BLOOM_FILTER_USEFUL,
+
+    /**
+     * 写入WAL的字节数
+     */
+    WAL_BYTES_WRITTEN,
+
+    /**
+     * 持久化的immutable memtable占用的内存字节数
+     */
+    FLUSH_BYTES_READ,
+
+    /**
+     * 持久化memtable写出的sstable字节数
+     */
+    FLUSH_BYTES_WRITTEN,
+
+    /**
+     * compaction读取的输入sstable字节数
+     */
+    COMPACTION_BYTES_READ,
+
+    /**
+     * compaction写出的sstable字节数
+     */
+    COMPACTION_BYTES_WRITTEN,
+
+    /**
+     * 执行失败的compaction次数
+     */
+    COMPACTION_FAILURES,
+
+    /**
+     * 写入因为immutable memtable队列已满而停顿的次数，开始等待时记录
+     */
+    WRITE_STALLS,
+
+    /**
+     * 写入等待immutable memtable持久化的时间（微秒）
+     */
+    STALL_MICROS
+}
@@ -1,11 +1,15 @@
 package com.summer.kvstore.utils;
 
 import com.alibaba.fastjson.JSONObject;
+import com.summer.kvstore.compress.CompressionCodec;
 import com.summer.kvstore.model.Position;
-import org.xerial.snappy.Snappy;
+import com.summer.kvstore.statistics.PerfContext;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * 数据块操作工具类
@@ -16,22 +20,72 @@ public class BlockUtils {
      * 从文件里读出数据块的内容
      *
      * @param position 数据块在文件中的内容
-     * @param enablePartDataCompress 是否支持压缩
+     * @param codec 数据块压缩算法
      * @param tableFile 文件句柄
      * @return
      */
     public final static JSONObject readJsonObject(Position position,
-                                                  boolean enablePartDataCompress,
+                                                  CompressionCodec codec,
                                                   RandomAccessFile tableFile) throws IOException {
-        //解压缩（因为压缩是每个part单独压缩的，所以需要每个part逐步解压缩）
-        byte[] dataPart = new byte[(int) position.getLen()];
-        tableFile.seek(position.getStart());
-        tableFile.read(dataPart);
+        byte[] dataPart = readBlock(position, codec, tableFile.getChannel());
+        return toJsonObject(dataPart);
+    }
 
-        if (enablePartDataCompress) {
-            dataPart = Snappy.uncompress(dataPart);
-        }
+    /**
+     * 解析JSON格式的数据块
+     *
+     * @param dataPart 解压后的数据块
+     * @return
+     */
+    public final static JSONObject toJsonObject(byte[] dataPart) {
         JSONObject dataPartJson = JSONObject.parseObject(new String(dataPart));
         return dataPartJson;
     }
+
+    /**
+     * 从文件里读出数据块的原始内容
+     *
+     * 使用FileChannel的按位置读取，不修改文件指针，多个线程可以并发读取同一个文件
+     *
+     * @param position 数据块在文件中的内容
+     * @param codec 数据块压缩算法，由sstable元数据中的算法id决定
+     * @param tableChannel 文件通道
+     * @return 解压后的数据块
+     */
+    public final static byte[] readBlock(Position position,
+                                         CompressionCodec codec,
+                                         FileChannel tableChannel) throws IOException {
+        PerfContext perfContext = PerfContext.current();
+        if (perfContext == null) {
+            //解压缩（因为压缩是每个part单独压缩的，所以需要每个part逐步解压缩）
+            return codec.uncompress(readFully(tableChannel, position.getStart(), (int) position.getLen()));
+        }
+        long startNanos = System.nanoTime();
+        byte[] dataPart = readFully(tableChannel, position.getStart(), (int) position.getLen());
+        long readNanos = System.nanoTime();
+        perfContext.addBlockRead(dataPart.length, readNanos - startNanos);
+        byte[] uncompressed = codec.uncompress(dataPart);
+        perfContext.addDecompress(System.nanoTime() - readNanos);
+        return uncompressed;
+    }
+
+    /**
+     * 从指定位置读取指定长度的内容
+     *
+     * @param channel 文件通道
+     * @param start 开始位置
+     * @param len 长度
+     * @return
+     */
+    public final static byte[] readFully(FileChannel channel, long start, int len) throws IOException {
+        byte[] bytes = new byte[len];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, start + buffer.position());
+            if (read < 0) {
+                throw new EOFException("读取数据块越界,start=" + start + ",len=" + len);
+            }
+        }
+        return bytes;
+    }
 }
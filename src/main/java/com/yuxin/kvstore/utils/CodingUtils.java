@@ -0,0 +1,162 @@
+package com.summer.kvstore.utils;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * 二进制编解码工具类
+ *
+ * 定长整数统一采用大端序，和RandomAccessFile.writeInt/writeLong保持一致
+ */
+public class CodingUtils {
+
+    /**
+     * 写入变长int（每个字节低7位存数据，最高位表示后面还有字节）
+     *
+     * @param out
+     * @param value 非负数
+     */
+    public final static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * 从指定位置读取变长int，读取的字节数可以通过varIntLength计算
+     *
+     * @param buf
+     * @param offset
+     * @return
+     */
+    public final static int readVarInt(byte[] buf, int offset) {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            if (offset >= buf.length) {
+                throw new IllegalArgumentException("varint越界,offset=" + offset);
+            }
+            int b = buf[offset++] & 0xFF;
+            result |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IllegalArgumentException("varint格式错误");
+    }
+
+    /**
+     * 变长int编码后占用的字节数
+     *
+     * @param value
+     * @return
+     */
+    public final static int varIntLength(int value) {
+        int len = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            len++;
+        }
+        return len;
+    }
+
+    /**
+     * 写入变长long，编码方式和变长int相同
+     *
+     * @param out
+     * @param value 非负数
+     */
+    public final static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /**
+     * 从指定位置读取变长long，读取的字节数可以通过varLongLength计算
+     *
+     * @param buf
+     * @param offset
+     * @return
+     */
+    public final static long readVarLong(byte[] buf, int offset) {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (offset >= buf.length) {
+                throw new IllegalArgumentException("varlong越界,offset=" + offset);
+            }
+            long b = buf[offset++] & 0xFF;
+            result |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IllegalArgumentException("varlong格式错误");
+    }
+
+    /**
+     * 变长long编码后占用的字节数
+     *
+     * @param value
+     * @return
+     */
+    public final static int varLongLength(long value) {
+        int len = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            len++;
+        }
+        return len;
+    }
+
+    /**
+     * 写入定长int
+     *
+     * @param out
+     * @param value
+     */
+    public final static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    /**
+     * 读取定长int
+     *
+     * @param buf
+     * @param offset
+     * @return
+     */
+    public final static int readInt(byte[] buf, int offset) {
+        return ((buf[offset] & 0xFF) << 24)
+                | ((buf[offset + 1] & 0xFF) << 16)
+                | ((buf[offset + 2] & 0xFF) << 8)
+                | (buf[offset + 3] & 0xFF);
+    }
+
+    /**
+     * 写入定长long
+     *
+     * @param out
+     * @param value
+     */
+    public final static void writeLong(ByteArrayOutputStream out, long value) {
+        writeInt(out, (int) (value >>> 32));
+        writeInt(out, (int) value);
+    }
+
+    /**
+     * 读取定长long
+     *
+     * @param buf
+     * @param offset
+     * @return
+     */
+    public final static long readLong(byte[] buf, int offset) {
+        return ((long) readInt(buf, offset) << 32) | (readInt(buf, offset + 4) & 0xFFFFFFFFL);
+    }
+}
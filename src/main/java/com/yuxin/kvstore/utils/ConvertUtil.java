@@ -13,11 +13,20 @@ public class ConvertUtil {
 
     public static final String TYPE = "type";
 
+    public static final String KEY = "key";
+
+    public static final String VALUE = "value";
+
+    /**
+     * 老版本JSON格式的命令，key和value是字符串，按UTF-8编码转换
+     * @param value
+     * @return
+     */
     public static Command jsonToCommand(JSONObject value) {
         if (value.getString(TYPE).equals(CommandTypeEnum.SET.name())) {
-            return value.toJavaObject(SetCommand.class);
+            return new SetCommand(value.getString(KEY), value.getString(VALUE));
         } else if (value.getString(TYPE).equals(CommandTypeEnum.RM.name())) {
-            return value.toJavaObject(RmCommand.class);
+            return new RmCommand(value.getString(KEY));
         }
         return null;
     }
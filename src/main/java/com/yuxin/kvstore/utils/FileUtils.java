@@ -3,6 +3,11 @@ package com.summer.kvstore.utils;
 import  com.summer.kvstore.constants.KVConstants;
 import org.apache.commons.lang3.StringUtils;
 
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
 /**
  * 文件相关工具类
  */
@@ -10,12 +15,13 @@ public class FileUtils {
     /**
      * 构建sstable文件全路径
      *
+     * @param dataDir 数据目录，以/结尾
      * @param fileNumber 文件编号
      * @param level 所处的level
      * @return
      */
-    public final static String buildSstableFilePath(Long fileNumber, Integer level) {
-        return KVConstants.WORK_DIR + level + "_" + fileNumber + KVConstants.FILE_SUFFIX_SSTABLE;
+    public final static String buildSstableFilePath(String dataDir, Long fileNumber, Integer level) {
+        return dataDir + level + "_" + fileNumber + KVConstants.FILE_SUFFIX_SSTABLE;
     }
 
     /**
@@ -57,4 +63,26 @@ public class FileUtils {
         String fileName = filePath.substring(lastIndex + 1);
         return Integer.valueOf(fileName.substring(0, fileName.indexOf('_')));
     }
+
+    /**
+     * 把目录项（文件的创建、重命名、删除）刷到磁盘
+     *
+     * 不支持以只读方式打开目录的平台（Windows）上直接跳过，这些平台的重命名由文件系统自己保证持久
+     *
+     * @param dir 目录路径
+     * @throws IOException
+     */
+    public final static void syncDirectory(String dir) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(Paths.get(dir), StandardOpenOption.READ);
+        } catch (IOException e) {
+            return;
+        }
+        try {
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
 }
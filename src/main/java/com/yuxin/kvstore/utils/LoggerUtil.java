@@ -16,6 +16,12 @@ public class LoggerUtil {
         }
     }
 
+    public static void warn(Logger logger, String format, Object... arguments) {
+        if (logger.isWarnEnabled()) {
+            logger.warn(format, arguments);
+        }
+    }
+
     public static void error(Logger logger, Throwable t, String format, Object... arguments) {
         if (logger.isErrorEnabled()) {
             logger.error(format, arguments, t);
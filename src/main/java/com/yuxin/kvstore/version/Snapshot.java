@@ -0,0 +1,35 @@
+package com.summer.kvstore.version;
+
+import lombok.Getter;
+
+/**
+ * 某一时刻的数据快照
+ *
+ * 通过快照读取时只能看到序列号不大于快照序列号的数据；快照释放前，compaction不会丢弃快照可见的旧版本
+ */
+@Getter
+public class Snapshot {
+
+    /**
+     * 创建快照时最后一个写入的序列号
+     */
+    private final long sequence;
+
+    /**
+     * 是否已经释放
+     */
+    private boolean released;
+
+    Snapshot(long sequence) {
+        this.sequence = sequence;
+    }
+
+    void setReleased(boolean released) {
+        this.released = released;
+    }
+
+    @Override
+    public String toString() {
+        return "Snapshot{sequence=" + sequence + "}";
+    }
+}
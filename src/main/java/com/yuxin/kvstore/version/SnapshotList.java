@@ -0,0 +1,78 @@
+package com.summer.kvstore.version;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * 存活的快照
+ *
+ * 按序列号记录快照个数，compaction和flush通过最小的快照序列号判断哪些旧版本还需要保留
+ */
+public class SnapshotList {
+
+    /**
+     * 序列号 -> 该序列号上存活的快照个数
+     */
+    private final TreeMap<Long, Integer> snapshots = new TreeMap<>();
+
+    private final ReentrantLock mutex = new ReentrantLock();
+
+    /**
+     * 创建快照
+     *
+     * 序列号在锁内读取：和oldest互斥，compaction不会用一个比新快照更大的序列号判断旧版本能否丢弃
+     *
+     * @param lastSequence 最后一个写入的序列号
+     * @return
+     */
+    public Snapshot create(LongSupplier lastSequence) {
+        mutex.lock();
+        try {
+            long sequence = lastSequence.getAsLong();
+            snapshots.merge(sequence, 1, Integer::sum);
+            return new Snapshot(sequence);
+        } finally {
+            mutex.unlock();
+        }
+    }
+
+    /**
+     * 释放快照，重复释放不做处理
+     * @param snapshot
+     */
+    public void release(Snapshot snapshot) {
+        mutex.lock();
+        try {
+            if (snapshot.isReleased()) {
+                return;
+            }
+            snapshot.setReleased(true);
+            Integer count = snapshots.get(snapshot.getSequence());
+            if (count == null || count <= 1) {
+                snapshots.remove(snapshot.getSequence());
+            } else {
+                snapshots.put(snapshot.getSequence(), count - 1);
+            }
+        } finally {
+            mutex.unlock();
+        }
+    }
+
+    /**
+     * 最小的快照序列号
+     * @param lastSequence 最后一个写入的序列号，没有存活的快照时返回它
+     * @return
+     */
+    public long oldest(LongSupplier lastSequence) {
+        mutex.lock();
+        try {
+            long sequence = lastSequence.getAsLong();
+            Map.Entry<Long, Integer> first = snapshots.firstEntry();
+            return first == null ? sequence : Math.min(first.getKey(), sequence);
+        } finally {
+            mutex.unlock();
+        }
+    }
+}
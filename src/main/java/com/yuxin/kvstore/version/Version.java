@@ -0,0 +1,250 @@
+package com.summer.kvstore.version;
+
+import com.summer.kvstore.comparator.KeyComparator;
+import com.summer.kvstore.constants.KVConstants;
+import com.summer.kvstore.model.command.Command;
+import com.summer.kvstore.model.sstable.SsTable;
+import com.summer.kvstore.statistics.PerfContext;
+import com.summer.kvstore.statistics.Statistics;
+import com.summer.kvstore.statistics.Ticker;
+import org.apache.commons.collections.CollectionUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 某一时刻各层sstable的不可变快照
+ *
+ * 创建后不再修改，读取时先增加引用，不需要加锁；flush和compaction生成新的Version替换当前版本。
+ * Version持有其中每个sstable的一个引用，最后一个引用释放时释放这些sstable，已淘汰的文件随之删除
+ */
+public class Version {
+
+    /**
+     * 每一层的sstable，level0按编号从大到小排列，其他level按最小key从小到大排列
+     */
+    private final List<List<SsTable>> levels;
+
+    /**
+     * 引用计数，VersionSet持有当前版本的一个引用
+     */
+    private final AtomicInteger refs = new AtomicInteger(1);
+
+    /**
+     * key的比较器
+     */
+    private final KeyComparator comparator;
+
+    /**
+     * 运行统计，为null表示不统计
+     */
+    private final Statistics statistics;
+
+    Version(List<List<SsTable>> levels, KeyComparator comparator, Statistics statistics) {
+        this.comparator = comparator;
+        this.statistics = statistics;
+        List<List<SsTable>> sortedLevels = new ArrayList<>();
+        for (int level = 0; level < KVConstants.SSTABLE_MAX_LEVEL; level++) {
+            List<SsTable> ssTables = new ArrayList<>(level < levels.size() ? levels.get(level) : new ArrayList<>());
+            if (level == 0) {
+                ssTables.sort((ssTable1, ssTable2) -> Long.compare(ssTable2.getFileNumber(), ssTable1.getFileNumber()));
+            } else {
+                ssTables.sort((ssTable1, ssTable2) -> comparator.compare(ssTable1.getTableMetaInfo().getSmallestKey(),
+                        ssTable2.getTableMetaInfo().getSmallestKey()));
+            }
+            for (SsTable ssTable : ssTables) {
+                if (!ssTable.ref()) {
+                    throw new IllegalStateException("sstable已释放," + ssTable.getFilePath());
+                }
+            }
+            sortedLevels.add(Collections.unmodifiableList(ssTables));
+        }
+        this.levels = Collections.unmodifiableList(sortedLevels);
+    }
+
+    /**
+     * 某一层的sstable
+     * @param level
+     * @return 不可修改的列表
+     */
+    public List<SsTable> getLevel(int level) {
+        return levels.get(level);
+    }
+
+    public KeyComparator getComparator() {
+        return comparator;
+    }
+
+    /**
+     * 增加一个引用
+     * @return 版本已经被释放时返回false
+     */
+    public boolean ref() {
+        while (true) {
+            int current = refs.get();
+            if (current <= 0) {
+                return false;
+            }
+            if (refs.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 释放一个引用，最后一个引用释放时释放其中的sstable
+     */
+    public void unref() {
+        if (refs.decrementAndGet() != 0) {
+            return;
+        }
+        for (List<SsTable> ssTables : levels) {
+            for (SsTable ssTable : ssTables) {
+                ssTable.unref();
+            }
+        }
+    }
+
+    /**
+     * 从sstable中查找
+     *
+     * 从新到旧查找，第一个有可见版本的sstable中的结果就是最新的
+     *
+     * @param key key值
+     * @param sequence 只查询序列号不大于它的版本
+     * @return
+     */
+    public Command get(byte[] key, long sequence) {
+        //1. 查找level0
+        Command l0Result = findFromL0Sstables(key, sequence);
+        if (l0Result != null) {
+            recordHit(Ticker.L0_HIT, 0);
+            return l0Result;
+        }
+
+        //2. 查找其他level
+        for (int level = 1;level < KVConstants.SSTABLE_MAX_LEVEL;++level) {
+            Command otherLevelResult = findFromOtherLevelSstables(key, level, sequence);
+            if (otherLevelResult != null) {
+                recordHit(level == 1 ? Ticker.L1_HIT : Ticker.L2_AND_UP_HIT, level);
+                return otherLevelResult;
+            }
+        }
+        return null;
+    }
+
+    private void recordHit(Ticker ticker, int level) {
+        if (statistics != null) {
+            statistics.recordTick(ticker);
+        }
+        PerfContext perfContext = PerfContext.current();
+        if (perfContext != null) {
+            perfContext.setFoundLevel(level);
+        }
+    }
+
+    /**
+     * 在level0查找
+     *
+     * level0因为不同sstable之间存在相同key信息，因此需要逐个遍历
+     *
+     * @param key
+     * @param sequence
+     * @return
+     */
+    private Command findFromL0Sstables(byte[] key, long sequence) {
+        List<SsTable> l0Sstables = levels.get(0);
+        if (CollectionUtils.isEmpty(l0Sstables)) {
+            return null;
+        }
+
+        //列表已按编号从大到小排列，存在多个key相同的数据时，以最新的为准
+        PerfContext perfContext = PerfContext.current();
+        for (SsTable ssTable : l0Sstables) {
+            if (perfContext != null) {
+                perfContext.addL0TableProbed();
+            }
+            Command command = ssTable.query(key, sequence);
+            if (command != null) {
+                return command;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * 在其他level查找
+     *
+     * 其他level的sstable之间不会存在key重叠的情况，因此可以采用二分查找
+     *
+     * @param key
+     * @param level 层编号
+     * @param sequence
+     * @return
+     */
+    private Command findFromOtherLevelSstables(byte[] key, Integer level, long sequence) {
+        List<SsTable> sstables = levels.get(level);
+        if (CollectionUtils.isEmpty(sstables)) {
+            return null;
+        }
+
+        //二分查找，列表已按最小key从小到大排列
+        return binarySearchSstables(key, sstables, sequence);
+    }
+
+    /**
+     * 二分查找
+     *
+     * @param key
+     * @param ssTables
+     * @param sequence
+     * @return
+     */
+    private Command binarySearchSstables(byte[] key, List<SsTable> ssTables, long sequence) {
+        int left = 0, right = ssTables.size() - 1;
+        while (left <= right) {
+            int mid = left + (right - left) / 2;
+            SsTable midSsTable = ssTables.get(mid);
+            if (comparator.compare(key, midSsTable.getTableMetaInfo().getSmallestKey()) >= 0
+                && comparator.compare(key, midSsTable.getTableMetaInfo().getLargestKey()) <= 0) {
+                return midSsTable.query(key, sequence);
+            } else if (comparator.compare(key, midSsTable.getTableMetaInfo().getSmallestKey()) < 0) {
+                right = mid - 1;
+            } else {
+                left = mid + 1;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * 转换为 level -> sstable列表
+     * @return
+     */
+    public Map<Integer, List<SsTable>> toLevelMap() {
+        Map<Integer, List<SsTable>> result = new HashMap<>();
+        for (int level = 0; level < levels.size(); level++) {
+            result.put(level, levels.get(level));
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        for (int level = 0; level < levels.size(); level++) {
+            sb.append("L").append(level).append("=[");
+            for (SsTable ssTable : levels.get(level)) {
+                sb.append(ssTable.getFileNumber()).append(" ");
+            }
+            sb.append("]");
+        }
+        return sb.append("}").toString();
+    }
+}
@@ -0,0 +1,250 @@
+package com.summer.kvstore.version;
+
+import com.summer.kvstore.model.sstable.SsTable;
+import com.summer.kvstore.utils.CodingUtils;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 版本变更，记录一次flush或compaction新增、删除的sstable，以及文件编号和序列号的进度
+ *
+ * 编码格式为若干个 tag(byte) + 字段：
+ * COMPARATOR: nameLen(varint) | name
+ * NEXT_FILE_NUMBER: nextFileNumber(long)
+ * LAST_SEQUENCE: lastSequence(long)
+ * LOG_NUMBER: logNumber(long)
+ * DELETED_FILE: level(varint) | fileNumber(long)
+ * NEW_FILE: level(varint) | fileNumber(long) | fileSize(long) | smallestKeyLen(varint) | smallestKey | largestKeyLen(varint) | largestKey
+ */
+@Getter
+public class VersionEdit {
+
+    private static final byte TAG_NEXT_FILE_NUMBER = 1;
+    private static final byte TAG_LAST_SEQUENCE = 2;
+    private static final byte TAG_DELETED_FILE = 3;
+    private static final byte TAG_NEW_FILE = 4;
+    private static final byte TAG_COMPARATOR = 5;
+    private static final byte TAG_LOG_NUMBER = 6;
+
+    /**
+     * key比较器的名字，为null表示没有记录
+     */
+    @Setter
+    private String comparatorName;
+
+    /**
+     * 下一个文件编号，为null表示没有变化
+     */
+    @Setter
+    private Long nextFileNumber;
+
+    /**
+     * 最后一个序列号，为null表示没有变化
+     */
+    @Setter
+    private Long lastSequence;
+
+    /**
+     * 编号小于此值的WAL中的数据都已经持久化，为null表示没有变化
+     */
+    @Setter
+    private Long logNumber;
+
+    /**
+     * 删除的sstable
+     */
+    private final List<DeletedFile> deletedFiles = new ArrayList<>();
+
+    /**
+     * 新增的sstable
+     */
+    private final List<NewFile> newFiles = new ArrayList<>();
+
+    /**
+     * 删除sstable
+     * @param level
+     * @param fileNumber
+     */
+    public void deleteFile(int level, long fileNumber) {
+        deletedFiles.add(new DeletedFile(level, fileNumber));
+    }
+
+    /**
+     * 新增sstable
+     * @param level
+     * @param ssTable
+     */
+    public void addFile(int level, SsTable ssTable) {
+        NewFile newFile = new NewFile(level, ssTable.getFileNumber(), ssTable.getTableMetaInfo().getFileSize(),
+                ssTable.getTableMetaInfo().getSmallestKey(), ssTable.getTableMetaInfo().getLargestKey());
+        newFile.ssTable = ssTable;
+        newFiles.add(newFile);
+    }
+
+    /**
+     * 编码为二进制
+     * @return
+     */
+    public byte[] encode() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (comparatorName != null) {
+            out.write(TAG_COMPARATOR);
+            writeBytes(out, comparatorName.getBytes(StandardCharsets.UTF_8));
+        }
+        if (nextFileNumber != null) {
+            out.write(TAG_NEXT_FILE_NUMBER);
+            CodingUtils.writeLong(out, nextFileNumber);
+        }
+        if (lastSequence != null) {
+            out.write(TAG_LAST_SEQUENCE);
+            CodingUtils.writeLong(out, lastSequence);
+        }
+        if (logNumber != null) {
+            out.write(TAG_LOG_NUMBER);
+            CodingUtils.writeLong(out, logNumber);
+        }
+        for (DeletedFile deletedFile : deletedFiles) {
+            out.write(TAG_DELETED_FILE);
+            CodingUtils.writeVarInt(out, deletedFile.level);
+            CodingUtils.writeLong(out, deletedFile.fileNumber);
+        }
+        for (NewFile newFile : newFiles) {
+            out.write(TAG_NEW_FILE);
+            CodingUtils.writeVarInt(out, newFile.level);
+            CodingUtils.writeLong(out, newFile.fileNumber);
+            CodingUtils.writeLong(out, newFile.fileSize);
+            writeBytes(out, newFile.smallestKey);
+            writeBytes(out, newFile.largestKey);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * 从二进制中解码
+     * @param bytes
+     * @return
+     */
+    public static VersionEdit decode(byte[] bytes) {
+        VersionEdit edit = new VersionEdit();
+        int[] offset = new int[]{0};
+        while (offset[0] < bytes.length) {
+            byte tag = bytes[offset[0]++];
+            switch (tag) {
+                case TAG_COMPARATOR:
+                    edit.comparatorName = new String(readBytes(bytes, offset), StandardCharsets.UTF_8);
+                    break;
+                case TAG_NEXT_FILE_NUMBER:
+                    edit.nextFileNumber = readLong(bytes, offset);
+                    break;
+                case TAG_LAST_SEQUENCE:
+                    edit.lastSequence = readLong(bytes, offset);
+                    break;
+                case TAG_LOG_NUMBER:
+                    edit.logNumber = readLong(bytes, offset);
+                    break;
+                case TAG_DELETED_FILE: {
+                    int level = readVarInt(bytes, offset);
+                    edit.deleteFile(level, readLong(bytes, offset));
+                    break;
+                }
+                case TAG_NEW_FILE: {
+                    int level = readVarInt(bytes, offset);
+                    long fileNumber = readLong(bytes, offset);
+                    long fileSize = readLong(bytes, offset);
+                    byte[] smallestKey = readBytes(bytes, offset);
+                    byte[] largestKey = readBytes(bytes, offset);
+                    edit.newFiles.add(new NewFile(level, fileNumber, fileSize, smallestKey, largestKey));
+                    break;
+                }
+                default:
+                    throw new IllegalStateException("未知的版本变更类型,tag=" + tag);
+            }
+        }
+        return edit;
+    }
+
+    private static void writeBytes(ByteArrayOutputStream out, byte[] value) {
+        CodingUtils.writeVarInt(out, value.length);
+        out.write(value, 0, value.length);
+    }
+
+    private static byte[] readBytes(byte[] bytes, int[] offset) {
+        int len = readVarInt(bytes, offset);
+        byte[] value = Arrays.copyOfRange(bytes, offset[0], offset[0] + len);
+        offset[0] += len;
+        return value;
+    }
+
+    private static int readVarInt(byte[] bytes, int[] offset) {
+        int value = CodingUtils.readVarInt(bytes, offset[0]);
+        offset[0] += CodingUtils.varIntLength(value);
+        return value;
+    }
+
+    private static long readLong(byte[] bytes, int[] offset) {
+        long value = CodingUtils.readLong(bytes, offset[0]);
+        offset[0] += 8;
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{comparator=").append(comparatorName)
+                .append(",nextFileNumber=").append(nextFileNumber)
+                .append(",lastSequence=").append(lastSequence)
+                .append(",logNumber=").append(logNumber).append(",deleted=[");
+        for (DeletedFile deletedFile : deletedFiles) {
+            sb.append(deletedFile.level).append("_").append(deletedFile.fileNumber).append(" ");
+        }
+        sb.append("],added=[");
+        for (NewFile newFile : newFiles) {
+            sb.append(newFile.level).append("_").append(newFile.fileNumber).append(" ");
+        }
+        return sb.append("]}").toString();
+    }
+
+    /**
+     * 删除的sstable
+     */
+    @Getter
+    public static class DeletedFile {
+        private final int level;
+        private final long fileNumber;
+
+        DeletedFile(int level, long fileNumber) {
+            this.level = level;
+            this.fileNumber = fileNumber;
+        }
+    }
+
+    /**
+     * 新增的sstable
+     */
+    @Getter
+    public static class NewFile {
+        private final int level;
+        private final long fileNumber;
+        private final long fileSize;
+        private final byte[] smallestKey;
+        private final byte[] largestKey;
+
+        /**
+         * 已打开的sstable，从MANIFEST中解码时为null
+         */
+        private SsTable ssTable;
+
+        NewFile(int level, long fileNumber, long fileSize, byte[] smallestKey, byte[] largestKey) {
+            this.level = level;
+            this.fileNumber = fileNumber;
+            this.fileSize = fileSize;
+            this.smallestKey = smallestKey;
+            this.largestKey = largestKey;
+        }
+    }
+}
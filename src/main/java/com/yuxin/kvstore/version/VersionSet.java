@@ -0,0 +1,548 @@
+package com.summer.kvstore.version;
+
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.summer.kvstore.cache.BlockCache;
+import com.summer.kvstore.cache.TableCache;
+import com.summer.kvstore.comparator.KeyComparator;
+import com.summer.kvstore.constants.KVConstants;
+import com.summer.kvstore.model.sstable.SsTable;
+import com.summer.kvstore.statistics.Statistics;
+import com.summer.kvstore.utils.CodingUtils;
+import com.summer.kvstore.utils.FileUtils;
+import com.summer.kvstore.utils.LoggerUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 版本管理
+ *
+ * 维护当前Version，flush和compaction通过logAndApply提交VersionEdit：先追加写入MANIFEST并刷盘，再发布新的Version。
+ * 启动时重放MANIFEST恢复各层的sstable、下一个文件编号和最后一个序列号；没有MANIFEST的老目录按文件名扫描sstable。
+ * 每次启动把当前状态写成一个新的MANIFEST，避免文件无限增长。启动时多个线程并行打开sstable，只读取文件尾部的元数据。
+ * MANIFEST中记录key比较器的名字，和打开时使用的比较器不一致时拒绝启动，避免按错误的顺序读取数据
+ *
+ * MANIFEST记录格式：crc32c(int) | len(int) | VersionEdit
+ */
+public class VersionSet implements Closeable {
+    private final Logger LOGGER = LoggerFactory.getLogger(VersionSet.class);
+
+    public static final String MANIFEST = "MANIFEST";
+    public static final String MANIFEST_TMP = "MANIFEST.tmp";
+
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    /**
+     * 数据目录
+     */
+    private final String dataDir;
+
+    /**
+     * 数据块缓存，为null表示不缓存
+     */
+    private final BlockCache blockCache;
+
+    /**
+     * sstable文件句柄缓存，为null表示每个sstable自己持有文件句柄
+     */
+    private final TableCache tableCache;
+
+    /**
+     * 运行统计，设置到打开的sstable和创建的版本上
+     */
+    private final Statistics statistics;
+
+    /**
+     * key的比较器
+     */
+    private final KeyComparator comparator;
+
+    /**
+     * 启动时并行打开sstable的线程数
+     */
+    private final int openThreads;
+
+    /**
+     * 文件编号发号器
+     */
+    private final AtomicLong nextFileNumber = new AtomicLong(1);
+
+    /**
+     * 最后一个序列号
+     */
+    private volatile long lastSequence;
+
+    /**
+     * 编号小于此值的WAL中的数据都已经持久化，恢复时跳过
+     */
+    private volatile long logNumber;
+
+    /**
+     * 当前版本
+     */
+    private volatile Version current;
+
+    /**
+     * 保证VersionEdit按顺序写入MANIFEST和发布
+     */
+    private final ReentrantLock mutex = new ReentrantLock();
+
+    /**
+     * MANIFEST文件
+     */
+    private RandomAccessFile manifestFile;
+
+    /**
+     * MANIFEST写入失败的原因。失败后文件已经截断回写入前的长度，但不再确定磁盘上的状态，
+     * 之后的版本变更都直接失败，需要重新打开
+     */
+    private volatile Throwable manifestError;
+
+    public VersionSet(String dataDir, BlockCache blockCache, TableCache tableCache, Statistics statistics,
+                      KeyComparator comparator, int openThreads) {
+        this.dataDir = dataDir;
+        this.blockCache = blockCache;
+        this.tableCache = tableCache;
+        this.statistics = statistics;
+        this.comparator = comparator;
+        this.openThreads = openThreads;
+    }
+
+    /**
+     * 启动时恢复版本
+     */
+    public void recover() {
+        try {
+            Map<Long, VersionEdit.NewFile> liveFiles = new HashMap<>();
+            File manifest = new File(dataDir + MANIFEST);
+            File manifestTmp = new File(dataDir + MANIFEST_TMP);
+            if (manifest.exists()) {
+                replayManifest(manifest, liveFiles);
+            } else if (manifestTmp.exists() && replayManifest(manifestTmp, liveFiles) > 0) {
+                //临时文件已经刷盘、重命名之前宕机：目录中原本没有MANIFEST（第一次打开老版本的目录），
+                //或者是先删除再重命名的旧实现留下的，这时只有完整写入的临时文件
+                LoggerUtil.warn(LOGGER, "[VersionSet][recover] MANIFEST missing,recovered from {}", MANIFEST_TMP);
+            } else {
+                scanSstables(liveFiles);
+            }
+
+            //打开sstable
+            List<List<SsTable>> levels = new ArrayList<>();
+            for (int level = 0; level < KVConstants.SSTABLE_MAX_LEVEL; level++) {
+                levels.add(new ArrayList<>());
+            }
+            List<VersionEdit.NewFile> newFiles = new ArrayList<>(liveFiles.values());
+            List<String> filePaths = new ArrayList<>();
+            for (VersionEdit.NewFile newFile : newFiles) {
+                if (newFile.getSsTable() == null) {
+                    String filePath = FileUtils.buildSstableFilePath(dataDir, newFile.getFileNumber(),
+                            newFile.getLevel());
+                    if (!new File(filePath).exists()) {
+                        throw new IllegalStateException("MANIFEST中的sstable文件不存在," + filePath);
+                    }
+                    filePaths.add(filePath);
+                }
+            }
+            Iterator<SsTable> openedFromFile = openTables(filePaths).iterator();
+            List<SsTable> opened = new ArrayList<>();
+            for (VersionEdit.NewFile newFile : newFiles) {
+                SsTable ssTable = newFile.getSsTable() == null ? openedFromFile.next() : newFile.getSsTable();
+                ssTable.setBlockCache(blockCache);
+                ssTable.setStatistics(statistics);
+                ssTable.setComparator(comparator);
+                opened.add(ssTable);
+                levels.get(newFile.getLevel()).add(ssTable);
+                nextFileNumber.set(Math.max(nextFileNumber.get(), newFile.getFileNumber() + 1));
+            }
+            current = new Version(levels, comparator, statistics);
+            //打开时的引用转交给Version
+            for (SsTable ssTable : opened) {
+                ssTable.unref();
+            }
+
+            deleteObsoleteFiles(liveFiles.keySet());
+            writeSnapshot();
+            LoggerUtil.info(LOGGER, "[VersionSet][recover] version={},nextFileNumber={},lastSequence={},logNumber={}",
+                    current, nextFileNumber.get(), lastSequence, logNumber);
+        } catch (Throwable t) {
+            throw new RuntimeException(t);
+        }
+    }
+
+    /**
+     * 重放MANIFEST，尾部不完整的记录（写入过程中宕机）直接忽略
+     *
+     * @return 完整读取的记录数
+     */
+    private int replayManifest(File manifest, Map<Long, VersionEdit.NewFile> liveFiles) throws IOException {
+        byte[] bytes;
+        try (RandomAccessFile file = new RandomAccessFile(manifest, "r")) {
+            bytes = new byte[(int) file.length()];
+            file.readFully(bytes);
+        }
+        int offset = 0;
+        int records = 0;
+        while (offset + RECORD_HEADER_SIZE <= bytes.length) {
+            int crc = CodingUtils.readInt(bytes, offset);
+            int len = CodingUtils.readInt(bytes, offset + 4);
+            int start = offset + RECORD_HEADER_SIZE;
+            if (len < 0 || start + len > bytes.length
+                    || crc != Hashing.crc32c().hashBytes(bytes, start, len).asInt()) {
+                break;
+            }
+            VersionEdit edit = VersionEdit.decode(Arrays.copyOfRange(bytes, start, start + len));
+            //没有记录比较器的MANIFEST由默认比较器写入
+            if (edit.getComparatorName() != null && !edit.getComparatorName().equals(comparator.name())) {
+                throw new IllegalArgumentException("比较器不一致,MANIFEST中为" + edit.getComparatorName()
+                        + ",当前为" + comparator.name());
+            }
+            for (VersionEdit.DeletedFile deletedFile : edit.getDeletedFiles()) {
+                liveFiles.remove(deletedFile.getFileNumber());
+            }
+            for (VersionEdit.NewFile newFile : edit.getNewFiles()) {
+                liveFiles.put(newFile.getFileNumber(), newFile);
+            }
+            if (edit.getNextFileNumber() != null) {
+                nextFileNumber.set(Math.max(nextFileNumber.get(), edit.getNextFileNumber()));
+            }
+            if (edit.getLastSequence() != null) {
+                lastSequence = Math.max(lastSequence, edit.getLastSequence());
+            }
+            if (edit.getLogNumber() != null) {
+                logNumber = Math.max(logNumber, edit.getLogNumber());
+            }
+            offset = start + len;
+            records++;
+        }
+        if (offset < bytes.length) {
+            LoggerUtil.warn(LOGGER, "[VersionSet][replayManifest] torn tail ignored,offset={},len={}",
+                    offset, bytes.length);
+        }
+        return records;
+    }
+
+    /**
+     * 老版本的目录没有MANIFEST，按文件名扫描sstable
+     */
+    private void scanSstables(Map<Long, VersionEdit.NewFile> liveFiles) {
+        File[] files = new File(dataDir).listFiles();
+        List<String> filePaths = new ArrayList<>();
+        for (File file : files == null ? new File[0] : files) {
+            if (file.isFile() && file.getName().endsWith(KVConstants.FILE_SUFFIX_SSTABLE)) {
+                filePaths.add(file.getAbsolutePath());
+            }
+        }
+        for (SsTable ssTable : openTables(filePaths)) {
+            VersionEdit edit = new VersionEdit();
+            edit.addFile(ssTable.getLevel(), ssTable);
+            VersionEdit.NewFile newFile = edit.getNewFiles().get(0);
+            liveFiles.put(newFile.getFileNumber(), newFile);
+        }
+    }
+
+    /**
+     * 并行打开sstable，每个文件只读取尾部的元数据
+     *
+     * @param filePaths
+     * @return 和filePaths顺序一致的sstable，有文件打开失败时关闭已经打开的文件并抛出异常
+     */
+    private List<SsTable> openTables(List<String> filePaths) {
+        List<SsTable> ssTables = new ArrayList<>(filePaths.size());
+        int threads = Math.min(openThreads, filePaths.size());
+        if (threads <= 1) {
+            for (String filePath : filePaths) {
+                ssTables.add(SsTable.createFromFile(filePath, tableCache));
+            }
+            return ssTables;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+                .setNameFormat("summer-kvstore-open-%s")
+                .setDaemon(true)
+                .build());
+        try {
+            List<Future<SsTable>> futures = new ArrayList<>(filePaths.size());
+            for (String filePath : filePaths) {
+                futures.add(executor.submit(() -> SsTable.createFromFile(filePath, tableCache)));
+            }
+            Throwable error = null;
+            for (Future<SsTable> future : futures) {
+                try {
+                    ssTables.add(future.get());
+                } catch (ExecutionException e) {
+                    error = error == null ? e.getCause() : error;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    error = error == null ? e : error;
+                }
+            }
+            if (error != null) {
+                for (SsTable ssTable : ssTables) {
+                    ssTable.unref();
+                }
+                throw new RuntimeException("打开sstable失败", error);
+            }
+            return ssTables;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * 删除不在当前版本中的sstable，一般是flush或compaction过程中宕机留下的
+     */
+    private void deleteObsoleteFiles(Set<Long> liveFileNumbers) {
+        File[] files = new File(dataDir).listFiles();
+        for (File file : files == null ? new File[0] : files) {
+            if (file.isFile() && file.getName().endsWith(KVConstants.FILE_SUFFIX_SSTABLE)
+                    && !liveFileNumbers.contains(FileUtils.parseFileNumber(file.getAbsolutePath()))) {
+                LoggerUtil.info(LOGGER, "[VersionSet][deleteObsoleteFiles] {}", file.getName());
+                if (!file.delete()) {
+                    LoggerUtil.warn(LOGGER, "[VersionSet][deleteObsoleteFiles] delete failed,{}", file.getName());
+                }
+            }
+        }
+    }
+
+    /**
+     * 把当前状态写成一个新的MANIFEST：先写临时文件并刷盘，再原子地重命名覆盖旧的MANIFEST，
+     * 最后刷新目录项。任何时刻宕机，磁盘上都有一个完整的MANIFEST
+     */
+    private void writeSnapshot() throws IOException {
+        VersionEdit snapshot = new VersionEdit();
+        snapshot.setComparatorName(comparator.name());
+        snapshot.setNextFileNumber(nextFileNumber.get());
+        snapshot.setLastSequence(lastSequence);
+        snapshot.setLogNumber(logNumber);
+        for (int level = 0; level < KVConstants.SSTABLE_MAX_LEVEL; level++) {
+            for (SsTable ssTable : current.getLevel(level)) {
+                snapshot.addFile(level, ssTable);
+            }
+        }
+
+        File tmp = new File(dataDir + MANIFEST_TMP);
+        try (RandomAccessFile tmpFile = new RandomAccessFile(tmp, "rw")) {
+            tmpFile.setLength(0);
+            tmpFile.write(encodeRecord(snapshot.encode()));
+            tmpFile.getChannel().force(true);
+        }
+        File manifest = new File(dataDir + MANIFEST);
+        Files.move(tmp.toPath(), manifest.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        FileUtils.syncDirectory(dataDir);
+        manifestFile = new RandomAccessFile(manifest, "rw");
+        manifestFile.seek(manifestFile.length());
+    }
+
+    /**
+     * 提交一次版本变更
+     *
+     * 写入MANIFEST并刷盘后发布新版本；删除的sstable标记为淘汰，在不再被任何版本引用时删除。
+     * 新增的sstable的创建者引用转交给新版本，调用方之后不需要再释放；提交失败时新增的sstable被删除。
+     *
+     * 写入失败时MANIFEST截断回写入前的长度，lastSequence和logNumber保持不变，之后的提交都会失败，
+     * 避免后面完整的记录接在损坏的记录之后，重启时随损坏的记录一起被丢弃
+     *
+     * @param edit
+     */
+    public void logAndApply(VersionEdit edit) {
+        mutex.lock();
+        try {
+            if (manifestError != null) {
+                releaseNewFiles(edit);
+                throw new IllegalStateException("MANIFEST写入失败，不能再提交版本变更", manifestError);
+            }
+            edit.setNextFileNumber(nextFileNumber.get());
+            //写入成功后才更新
+            long newLastSequence = lastSequence;
+            if (edit.getLastSequence() == null) {
+                edit.setLastSequence(newLastSequence);
+            } else {
+                newLastSequence = Math.max(newLastSequence, edit.getLastSequence());
+            }
+            long newLogNumber = logNumber;
+            if (edit.getLogNumber() != null) {
+                newLogNumber = Math.max(newLogNumber, edit.getLogNumber());
+            }
+
+            //构建新版本
+            Version base = current;
+            Set<Long> deletedFileNumbers = new HashSet<>();
+            for (VersionEdit.DeletedFile deletedFile : edit.getDeletedFiles()) {
+                deletedFileNumbers.add(deletedFile.getFileNumber());
+            }
+            List<List<SsTable>> levels = new ArrayList<>();
+            List<SsTable> deletedSsTables = new ArrayList<>();
+            for (int level = 0; level < KVConstants.SSTABLE_MAX_LEVEL; level++) {
+                List<SsTable> ssTables = new ArrayList<>();
+                for (SsTable ssTable : base.getLevel(level)) {
+                    if (deletedFileNumbers.contains(ssTable.getFileNumber())) {
+                        deletedSsTables.add(ssTable);
+                    } else {
+                        ssTables.add(ssTable);
+                    }
+                }
+                levels.add(ssTables);
+            }
+            for (VersionEdit.NewFile newFile : edit.getNewFiles()) {
+                levels.get(newFile.getLevel()).add(newFile.getSsTable());
+            }
+            Version version = new Version(levels, comparator, statistics);
+
+            long manifestLength = -1;
+            try {
+                manifestLength = manifestFile.getFilePointer();
+                appendManifest(encodeRecord(edit.encode()));
+            } catch (IOException e) {
+                manifestError = e;
+                //读取写入位置失败时还没有写入任何数据
+                if (manifestLength >= 0) {
+                    try {
+                        manifestFile.setLength(manifestLength);
+                        manifestFile.seek(manifestLength);
+                        manifestFile.getChannel().force(false);
+                    } catch (IOException truncateError) {
+                        e.addSuppressed(truncateError);
+                    }
+                }
+                LoggerUtil.error(LOGGER, e, "[VersionSet][logAndApply] write MANIFEST failed,edit={}", edit);
+                version.unref();
+                releaseNewFiles(edit);
+                throw new RuntimeException(e);
+            }
+
+            //发布新版本
+            lastSequence = Math.max(lastSequence, newLastSequence);
+            logNumber = newLogNumber;
+            for (SsTable ssTable : deletedSsTables) {
+                ssTable.markObsolete();
+            }
+            current = version;
+            base.unref();
+            for (VersionEdit.NewFile newFile : edit.getNewFiles()) {
+                newFile.getSsTable().unref();
+            }
+            LoggerUtil.debug(LOGGER, "[VersionSet][logAndApply] edit={},version={}", edit, version);
+        } finally {
+            mutex.unlock();
+        }
+    }
+
+    /**
+     * 追加一条记录到MANIFEST并刷盘
+     *
+     * @param record
+     * @throws IOException
+     */
+    void appendManifest(byte[] record) throws IOException {
+        manifestFile.write(record);
+        manifestFile.getChannel().force(false);
+    }
+
+    /**
+     * 提交失败时删除新增的sstable，释放创建者的引用
+     */
+    private static void releaseNewFiles(VersionEdit edit) {
+        for (VersionEdit.NewFile newFile : edit.getNewFiles()) {
+            if (newFile.getSsTable() != null) {
+                newFile.getSsTable().markObsolete();
+                newFile.getSsTable().unref();
+            }
+        }
+    }
+
+    /**
+     * MANIFEST写入失败的原因，不为null时不能再提交版本变更
+     * @return
+     */
+    public Throwable getManifestError() {
+        return manifestError;
+    }
+
+    /**
+     * 获取并引用当前版本，使用完需要调用unref
+     * @return
+     */
+    public Version current() {
+        while (true) {
+            Version version = current;
+            //读取后版本可能已经被替换并释放，重新读取
+            if (version.ref()) {
+                return version;
+            }
+        }
+    }
+
+    /**
+     * 数据目录，sstable、WAL和MANIFEST都在这个目录下
+     * @return
+     */
+    public String getDataDir() {
+        return dataDir;
+    }
+
+    /**
+     * 分配一个新的文件编号
+     * @return
+     */
+    public long newFileNumber() {
+        return nextFileNumber.getAndIncrement();
+    }
+
+    /**
+     * 恢复时发现的文件编号（例如WAL）可能还没有记录到MANIFEST中，之后分配的编号要大于它
+     * @param number
+     */
+    public void markFileNumberUsed(long number) {
+        nextFileNumber.accumulateAndGet(number + 1, Math::max);
+    }
+
+    public long getLogNumber() {
+        return logNumber;
+    }
+
+    public long getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * 更新最后一个写入的序列号，写入memtable之后调用，之后读取才能看到这些数据
+     * @param lastSequence
+     */
+    public void setLastSequence(long lastSequence) {
+        this.lastSequence = lastSequence;
+    }
+
+    private static byte[] encodeRecord(byte[] payload) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(RECORD_HEADER_SIZE + payload.length);
+        CodingUtils.writeInt(out, Hashing.crc32c().hashBytes(payload).asInt());
+        CodingUtils.writeInt(out, payload.length);
+        out.write(payload, 0, payload.length);
+        return out.toByteArray();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (manifestFile != null) {
+            manifestFile.close();
+        }
+        if (current != null) {
+            current.unref();
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package com.summer.kvstore.wal;
+
+import com.google.common.hash.Hashing;
+import com.summer.kvstore.model.command.Command;
+import com.summer.kvstore.model.command.CommandTypeEnum;
+import com.summer.kvstore.model.command.RmCommand;
+import com.summer.kvstore.model.command.SetCommand;
+import com.summer.kvstore.utils.CodingUtils;
+import lombok.Getter;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * WAL记录的二进制编解码
+ *
+ * 单条命令的记录格式：
+ * crc32c(int) | type(byte) | seq(varlong) | keyLen(varint) | valueLen(varint) | key | value
+ *
+ * 批量写入的记录格式，batch中的命令序列号从seq开始连续分配：
+ * crc32c(int) | BATCH(byte) | seq(varlong) | count(varint) | [type(byte) | keyLen(varint) | valueLen(varint) | key | value]...
+ *
+ * crc32c覆盖type到记录末尾的所有字节，一个batch要么全部恢复要么全部丢弃。
+ * type的最高位表示记录包含序列号，老版本的记录没有seq，解码后序列号为0
+ */
+public class WalRecordCodec {
+
+    /**
+     * 记录头部crc的长度
+     */
+    public static final int CRC_SIZE = 4;
+
+    /**
+     * type中表示记录包含序列号的标记位
+     */
+    private static final int SEQUENCE_FLAG = 0x80;
+
+    /**
+     * 批量写入记录的type，和命令类型的编码不重复
+     */
+    private static final byte TYPE_BATCH = 0x7F;
+
+    /**
+     * 编码一条命令
+     * @param command
+     * @return
+     */
+    public static byte[] encode(Command command) {
+        byte[] key = command.getKey();
+        byte[] value = valueBytes(command);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(CRC_SIZE + 1 + 20 + key.length + value.length);
+        //先占位crc
+        CodingUtils.writeInt(out, 0);
+        out.write(typeOf(command).getCode() | SEQUENCE_FLAG);
+        CodingUtils.writeVarLong(out, command.getSeq());
+        writeEntry(out, key, value);
+        return fillCrc(out.toByteArray());
+    }
+
+    /**
+     * 把一批命令编码为一条记录
+     * @param commands 序列号连续的命令，至少一条
+     * @return
+     */
+    public static byte[] encodeBatch(List<Command> commands) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        //先占位crc
+        CodingUtils.writeInt(out, 0);
+        out.write(TYPE_BATCH | SEQUENCE_FLAG);
+        CodingUtils.writeVarLong(out, commands.get(0).getSeq());
+        CodingUtils.writeVarInt(out, commands.size());
+        for (Command command : commands) {
+            out.write(typeOf(command).getCode());
+            writeEntry(out, command.getKey(), valueBytes(command));
+        }
+        return fillCrc(out.toByteArray());
+    }
+
+    /**
+     * 从指定位置解码一条记录
+     *
+     * @param buf WAL内容
+     * @param offset 记录开始位置
+     * @param end 有效数据结束位置
+     * @return 解码结果，记录不完整或者校验失败返回null
+     */
+    public static DecodeResult decode(byte[] buf, int offset, int end) {
+        try {
+            int pos = offset + CRC_SIZE;
+            if (pos + 1 > end) {
+                return null;
+            }
+            byte type = buf[pos++];
+            long seq = 0;
+            if ((type & SEQUENCE_FLAG) != 0) {
+                type = (byte) (type & ~SEQUENCE_FLAG);
+                seq = readVarLong(buf, pos, end);
+                pos += CodingUtils.varLongLength(seq);
+            }
+
+            List<Command> commands;
+            if (type == TYPE_BATCH) {
+                int count = readVarInt(buf, pos, end);
+                pos += CodingUtils.varIntLength(count);
+                //每条命令至少3个字节，count不可能超过剩余长度
+                if (count <= 0 || count > end - pos) {
+                    return null;
+                }
+                commands = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    if (pos + 1 > end) {
+                        return null;
+                    }
+                    byte entryType = buf[pos++];
+                    pos = readEntry(buf, pos, end, entryType, seq == 0 ? 0 : seq + i, commands);
+                    if (pos < 0) {
+                        return null;
+                    }
+                }
+            } else {
+                commands = new ArrayList<>(1);
+                pos = readEntry(buf, pos, end, type, seq, commands);
+                if (pos < 0) {
+                    return null;
+                }
+            }
+
+            if (CodingUtils.readInt(buf, offset) != crc32c(buf, offset + CRC_SIZE, pos - offset - CRC_SIZE)) {
+                return null;
+            }
+            return new DecodeResult(commands, pos);
+        } catch (IllegalArgumentException e) {
+            //varint不完整
+            return null;
+        }
+    }
+
+    private static CommandTypeEnum typeOf(Command command) {
+        return command instanceof SetCommand ? CommandTypeEnum.SET : CommandTypeEnum.RM;
+    }
+
+    private static byte[] valueBytes(Command command) {
+        if (command instanceof SetCommand && ((SetCommand) command).getValue() != null) {
+            return ((SetCommand) command).getValue();
+        }
+        return new byte[0];
+    }
+
+    /**
+     * 写入 keyLen | valueLen | key | value
+     */
+    private static void writeEntry(ByteArrayOutputStream out, byte[] key, byte[] value) {
+        CodingUtils.writeVarInt(out, key.length);
+        CodingUtils.writeVarInt(out, value.length);
+        out.write(key, 0, key.length);
+        out.write(value, 0, value.length);
+    }
+
+    /**
+     * 读取 keyLen | valueLen | key | value，解码出的命令放入commands
+     *
+     * @return 下一个字节的位置，数据不完整或者类型未知返回-1
+     */
+    private static int readEntry(byte[] buf, int pos, int end, byte type, long seq, List<Command> commands) {
+        int keyLen = readVarInt(buf, pos, end);
+        pos += CodingUtils.varIntLength(keyLen);
+        int valueLen = readVarInt(buf, pos, end);
+        pos += CodingUtils.varIntLength(valueLen);
+        if (keyLen < 0 || valueLen < 0 || (long) pos + keyLen + valueLen > end) {
+            return -1;
+        }
+
+        byte[] key = Arrays.copyOfRange(buf, pos, pos + keyLen);
+        Command command;
+        if (CommandTypeEnum.fromCode(type) == CommandTypeEnum.SET) {
+            command = new SetCommand(key, Arrays.copyOfRange(buf, pos + keyLen, pos + keyLen + valueLen));
+        } else if (CommandTypeEnum.fromCode(type) == CommandTypeEnum.RM) {
+            command = new RmCommand(key);
+        } else {
+            return -1;
+        }
+        command.setSeq(seq);
+        commands.add(command);
+        return pos + keyLen + valueLen;
+    }
+
+    private static byte[] fillCrc(byte[] record) {
+        int crc = crc32c(record, CRC_SIZE, record.length - CRC_SIZE);
+        record[0] = (byte) (crc >>> 24);
+        record[1] = (byte) (crc >>> 16);
+        record[2] = (byte) (crc >>> 8);
+        record[3] = (byte) crc;
+        return record;
+    }
+
+    private static int readVarInt(byte[] buf, int offset, int end) {
+        if (offset >= end) {
+            throw new IllegalArgumentException("varint越界");
+        }
+        int value = CodingUtils.readVarInt(buf, offset);
+        if (offset + CodingUtils.varIntLength(value) > end) {
+            throw new IllegalArgumentException("varint越界");
+        }
+        return value;
+    }
+
+    private static long readVarLong(byte[] buf, int offset, int end) {
+        if (offset >= end) {
+            throw new IllegalArgumentException("varlong越界");
+        }
+        long value = CodingUtils.readVarLong(buf, offset);
+        if (offset + CodingUtils.varLongLength(value) > end) {
+            throw new IllegalArgumentException("varlong越界");
+        }
+        return value;
+    }
+
+    private static int crc32c(byte[] buf, int offset, int len) {
+        return Hashing.crc32c().hashBytes(buf, offset, len).asInt();
+    }
+
+    /**
+     * 解码结果
+     */
+    @Getter
+    public static class DecodeResult {
+        /**
+         * 解码出的命令，单条命令的记录只有一条
+         */
+        private final List<Command> commands;
+
+        /**
+         * 下一条记录的开始位置
+         */
+        private final int nextOffset;
+
+        DecodeResult(List<Command> commands, int nextOffset) {
+            this.commands = Collections.unmodifiableList(commands);
+            this.nextOffset = nextOffset;
+        }
+
+        /**
+         * 单条命令的记录解码出的命令
+         * @return
+         */
+        public Command getCommand() {
+            return commands.get(0);
+        }
+    }
+}
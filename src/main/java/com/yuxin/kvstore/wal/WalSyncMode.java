@@ -0,0 +1,22 @@
+package com.summer.kvstore.wal;
+
+/**
+ * WAL刷盘策略
+ */
+public enum WalSyncMode {
+
+    /**
+     * 不主动fsync，交给操作系统刷盘
+     */
+    NONE,
+
+    /**
+     * 组提交fsync：距离上次fsync超过指定时间或者未刷盘数据超过指定字节数时fsync
+     */
+    GROUP,
+
+    /**
+     * 每次写入都fsync
+     */
+    ALWAYS
+}
@@ -0,0 +1,126 @@
+package com.summer.kvstore.wal;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * WAL写入器
+ *
+ * 同一时刻只有一个写入线程（组提交的leader）调用append，
+ * sync可以由后台线程并发调用
+ */
+public class WalWriter implements Closeable {
+
+    public static final String RW_MODE = "rw";
+
+    /**
+     * WAL文件
+     */
+    private final File file;
+
+    /**
+     * 文件句柄
+     */
+    private final RandomAccessFile walFile;
+
+    /**
+     * 刷盘策略
+     */
+    private final WalSyncMode syncMode;
+
+    /**
+     * GROUP模式下两次fsync的最大间隔（毫秒）
+     */
+    private final long syncIntervalMs;
+
+    /**
+     * GROUP模式下未刷盘数据的最大字节数
+     */
+    private final long syncBytes;
+
+    /**
+     * 未刷盘的字节数
+     */
+    private final AtomicLong unsyncedBytes = new AtomicLong();
+
+    /**
+     * 上次fsync的时间
+     */
+    private volatile long lastSyncTime = System.currentTimeMillis();
+
+    public WalWriter(File file, WalSyncMode syncMode, long syncIntervalMs, long syncBytes) throws IOException {
+        this.file = file;
+        this.syncMode = syncMode;
+        this.syncIntervalMs = syncIntervalMs;
+        this.syncBytes = syncBytes;
+        this.walFile = new RandomAccessFile(file, RW_MODE);
+        walFile.seek(walFile.length());
+    }
+
+    /**
+     * 追加一组记录，一次写入
+     *
+     * @param records 编码好的记录
+     * @param sync 是否要求本次写入fsync
+     */
+    public void append(byte[] records, boolean sync) throws IOException {
+        walFile.write(records);
+        long unsynced = unsyncedBytes.addAndGet(records.length);
+
+        if (sync || syncMode == WalSyncMode.ALWAYS) {
+            sync();
+        } else if (syncMode == WalSyncMode.GROUP
+                && (unsynced >= syncBytes || System.currentTimeMillis() - lastSyncTime >= syncIntervalMs)) {
+            sync();
+        }
+    }
+
+    /**
+     * GROUP模式下到达刷盘间隔则fsync，由后台线程定时调用，避免写入停止后数据一直不刷盘
+     */
+    public void syncIfDue() throws IOException {
+        if (syncMode == WalSyncMode.GROUP && unsyncedBytes.get() > 0
+                && System.currentTimeMillis() - lastSyncTime >= syncIntervalMs) {
+            sync();
+        }
+    }
+
+    /**
+     * fsync
+     */
+    public synchronized void sync() throws IOException {
+        long unsynced = unsyncedBytes.get();
+        if (unsynced == 0) {
+            return;
+        }
+        walFile.getChannel().force(false);
+        unsyncedBytes.addAndGet(-unsynced);
+        lastSyncTime = System.currentTimeMillis();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * 已写入但还没有fsync的字节数
+     * @return
+     */
+    public long getUnsyncedBytes() {
+        return unsyncedBytes.get();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!walFile.getChannel().isOpen()) {
+            return;
+        }
+        if (syncMode != WalSyncMode.NONE) {
+            sync();
+        }
+        walFile.close();
+    }
+}
@@ -0,0 +1,37 @@
+package com.summer.kvstore.cache;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BlockCacheTest {
+
+    @Test
+    public void evictWhenFull() {
+        BlockCache blockCache = new BlockCache(64 * 1024);
+        for (int i = 0; i < 1000; i++) {
+            blockCache.put(new BlockCacheKey(1, i * 1024L), new byte[1024]);
+        }
+        assertTrue(blockCache.getUsage() <= 64 * 1024);
+        assertNotNull(blockCache.get(new BlockCacheKey(1, 999 * 1024L)));
+        assertNull(blockCache.get(new BlockCacheKey(1, 0)));
+    }
+
+    @Test
+    public void evictFile() {
+        BlockCache blockCache = new BlockCache(1024 * 1024);
+        for (int i = 0; i < 100; i++) {
+            blockCache.put(new BlockCacheKey(i % 2, i), new byte[100]);
+        }
+        blockCache.evictFile(0);
+        for (int i = 0; i < 100; i++) {
+            if (i % 2 == 0) {
+                assertNull(blockCache.get(new BlockCacheKey(0, i)));
+            } else {
+                assertNotNull(blockCache.get(new BlockCacheKey(1, i)));
+            }
+        }
+    }
+}
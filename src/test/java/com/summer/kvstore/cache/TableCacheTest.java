@@ -0,0 +1,59 @@
+package com.summer.kvstore.cache;
+
+import com.summer.kvstore.model.Options;
+import com.summer.kvstore.service.LsmKvStore;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TableCacheTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    /**
+     * 每个测试使用独立的数据目录
+     */
+    private String dataDir;
+
+    @Before
+    public void setUp() {
+        dataDir = temporaryFolder.getRoot().getAbsolutePath() + File.separator;
+    }
+
+    /**
+     * sstable数量超过maxOpenFiles时只保留最近使用的文件句柄，关闭的文件读取时重新打开
+     */
+    @Test
+    public void boundedOpenFiles() throws IOException {
+        Options options = new Options();
+        options.setStoreThreshold(4);
+        options.setPartSize(3);
+        options.setMaxOpenFiles(2);
+        LsmKvStore kvStore = new LsmKvStore(dataDir, options);
+        for (int i = 0; i < 100; i++) {
+            kvStore.set("table" + i, i + "");
+        }
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < 100; i++) {
+                assertEquals(i + "", kvStore.get("table" + i));
+            }
+            assertTrue(kvStore.getOpenTableFiles() <= 2);
+        }
+        kvStore.close();
+
+        kvStore = new LsmKvStore(dataDir, options);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i + "", kvStore.get("table" + i));
+        }
+        assertTrue(kvStore.getOpenTableFiles() <= 2);
+        kvStore.close();
+    }
+}
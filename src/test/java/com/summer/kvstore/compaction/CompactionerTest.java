@@ -0,0 +1,346 @@
+package com.summer.kvstore.compaction;
+
+import com.summer.kvstore.compress.CompressionCodec;
+import com.summer.kvstore.compress.CompressionCodecs;
+import com.summer.kvstore.model.Options;
+import com.summer.kvstore.model.command.SetCommand;
+import com.summer.kvstore.model.sstable.SsTable;
+import com.summer.kvstore.model.sstable.SsTableBuilder;
+import com.summer.kvstore.statistics.Statistics;
+import com.summer.kvstore.statistics.Ticker;
+import com.summer.kvstore.version.SnapshotList;
+import com.summer.kvstore.version.Version;
+import com.summer.kvstore.version.VersionEdit;
+import com.summer.kvstore.version.VersionSet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CompactionerTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    /**
+     * 每个测试使用独立的数据目录
+     */
+    private String dataDir;
+
+    private Options options;
+
+    private Statistics statistics;
+
+    private VersionSet versionSet;
+
+    private Compactioner compactioner;
+
+    private long sequence;
+
+    @Before
+    public void setUp() {
+        dataDir = temporaryFolder.getRoot().getAbsolutePath() + File.separator;
+        options = new Options();
+        options.setCompression(CompressionCodecs.NONE);
+        options.setStatisticsJmxEnabled(false);
+        statistics = new Statistics();
+        versionSet = new VersionSet(dataDir, null, null, statistics, options.getComparator(), 1);
+        versionSet.recover();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (compactioner != null) {
+            compactioner.close();
+        }
+        versionSet.close();
+    }
+
+    @Test
+    public void failedCompactionIsNotRetriedUntilInputsChange() throws InterruptedException {
+        AtomicInteger attempts = new AtomicInteger();
+        AtomicBoolean failing = new AtomicBoolean(true);
+        options.setCompressionPerLevel(Arrays.asList(null, new FailingCodec(attempts, failing)));
+        options.setL0CompactionTrigger(1);
+        compactioner = newCompactioner();
+
+        addTable(0, "a", "b", "c");
+        compactioner.maybeScheduleCompaction();
+        waitForTicker(Ticker.COMPACTION_FAILURES, 1);
+        //同样的输入不会再被选中
+        assertNull(compactioner.pickCompaction());
+        assertEquals(1, attempts.get());
+        assertEquals(1, levelSize(0));
+
+        //level0有新文件后输入集合变化，重新尝试
+        SsTable added = addTable(0, "b", "d");
+        Compactioner.Compaction compaction = compactioner.pickCompaction();
+        try {
+            assertEquals(2, compaction.inputs.size());
+            assertTrue(compaction.inputs.contains(added));
+        } finally {
+            compaction.version.unref();
+        }
+        compactioner.maybeScheduleCompaction();
+        waitForTicker(Ticker.COMPACTION_FAILURES, 2);
+        assertNull(compactioner.pickCompaction());
+        assertEquals(2, attempts.get());
+
+        failing.set(false);
+        addTable(0, "e");
+        compactioner.maybeScheduleCompaction();
+        for (int i = 0; i < 250 && levelSize(0) > 0; i++) {
+            Thread.sleep(20);
+        }
+        assertEquals(0, levelSize(0));
+        assertEquals(1, levelSize(1));
+        assertEquals(2, statistics.getTickerCount(Ticker.COMPACTION_FAILURES));
+    }
+
+    @Test
+    public void computeScore() {
+        options.setL0CompactionTrigger(4);
+        options.setMaxBytesForLevelBase(1000);
+        options.setLevelSizeMultiplier(10);
+        compactioner = newCompactioner();
+
+        addTable(0, "a");
+        addTable(0, "b");
+        SsTable l1 = addTable(1, "c", "d");
+        SsTable l2 = addTable(2, "e", "f");
+        Version version = versionSet.current();
+        try {
+            //level0按文件数，其他层按总大小除以目标大小
+            assertEquals(0.5, compactioner.computeScore(version, 0), 1e-9);
+            assertEquals(l1.getTableMetaInfo().getFileSize() / 1000.0,
+                    compactioner.computeScore(version, 1), 1e-9);
+            assertEquals(l2.getTableMetaInfo().getFileSize() / 10000.0,
+                    compactioner.computeScore(version, 2), 1e-9);
+        } finally {
+            version.unref();
+        }
+
+        addTable(0, "g");
+        addTable(0, "h");
+        version = versionSet.current();
+        try {
+            assertEquals(1.0, compactioner.computeScore(version, 0), 1e-9);
+        } finally {
+            version.unref();
+        }
+    }
+
+    @Test
+    public void pickHighestScoreLevel() {
+        options.setL0CompactionTrigger(2);
+        options.setMaxBytesForLevelBase(Long.MAX_VALUE / 2);
+        compactioner = newCompactioner();
+
+        assertNull(compactioner.pickCompaction());
+        SsTable l0a = addTable(0, "b", "d");
+        SsTable l0b = addTable(0, "c", "e");
+        SsTable l1a = addTable(1, "a", "b");
+        addTable(1, "m", "n");
+        SsTable l2a = addTable(2, "a", "z");
+
+        //level0的文件全部参与，加上level1中重叠的文件
+        Compactioner.Compaction compaction = compactioner.pickCompaction();
+        try {
+            assertEquals(0, compaction.level);
+            assertEquals(fileNumbers(l0a, l0b), fileNumbers(compaction.inputs));
+            assertEquals(fileNumbers(l1a), fileNumbers(compaction.outputLevelInputs));
+            assertEquals(fileNumbers(l2a), fileNumbers(compaction.deeperSstables));
+        } finally {
+            compaction.version.unref();
+        }
+
+        //level1的分数更高时优先level1
+        options.setMaxBytesForLevelBase(1);
+        compaction = compactioner.pickCompaction();
+        try {
+            assertEquals(1, compaction.level);
+            assertEquals(fileNumbers(l1a), fileNumbers(compaction.inputs));
+            assertEquals(fileNumbers(l2a), fileNumbers(compaction.outputLevelInputs));
+        } finally {
+            compaction.version.unref();
+        }
+    }
+
+    @Test
+    public void compactPointerRotation() {
+        options.setMaxBytesForLevelBase(1);
+        compactioner = newCompactioner();
+
+        SsTable first = addTable(1, "a", "b");
+        SsTable second = addTable(1, "c", "d");
+        SsTable third = addTable(1, "e", "f");
+
+        //每次从上一次compaction的最大key之后选择
+        assertEquals(fileNumbers(first), fileNumbers(compactOnce(1)));
+        assertEquals(fileNumbers(second), fileNumbers(compactOnce(1)));
+        assertEquals(fileNumbers(third), fileNumbers(compactOnce(1)));
+        assertEquals(0, levelSize(1));
+        assertEquals(3, levelSize(2));
+
+        //之后没有更大的key时回到这一层的开头
+        SsTable wrapped = addTable(1, "0", "1");
+        SsTable next = addTable(1, "x", "y");
+        assertEquals(fileNumbers(next), fileNumbers(compactOnce(1)));
+        assertEquals(fileNumbers(wrapped), fileNumbers(compactOnce(1)));
+    }
+
+    @Test
+    public void splitOutputAtTargetFileSize() {
+        options.setL0CompactionTrigger(1);
+        options.setTargetFileSize(1024);
+        SnapshotList snapshots = new SnapshotList();
+        compactioner = new Compactioner(options, null, null, statistics, versionSet, snapshots);
+
+        String[] keys = new String[300];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = String.format("key%05d", i);
+        }
+        addTable(0, keys);
+        //快照保留每个key的旧版本，同一个key的两个版本不能拆分到两个文件
+        snapshots.create(versionSet::getLastSequence);
+        addTable(0, keys);
+
+        Compactioner.Compaction compaction = compactioner.pickCompaction();
+        List<SsTable> outputs;
+        try {
+            outputs = compactioner.doCompaction(compaction);
+            assertTrue("outputs=" + outputs.size(), outputs.size() > 1);
+            for (int i = 0; i < outputs.size() - 1; i++) {
+                assertTrue(outputs.get(i).getTableMetaInfo().getFileSize() >= options.getTargetFileSize());
+                assertTrue(options.getComparator().compare(outputs.get(i).getTableMetaInfo().getLargestKey(),
+                        outputs.get(i + 1).getTableMetaInfo().getSmallestKey()) < 0);
+            }
+            compactioner.installCompaction(compaction, outputs);
+        } finally {
+            compaction.version.unref();
+        }
+        assertEquals(0, levelSize(0));
+        assertEquals(outputs.size(), levelSize(1));
+    }
+
+    private Compactioner newCompactioner() {
+        return new Compactioner(options, null, null, statistics, versionSet, new SnapshotList());
+    }
+
+    /**
+     * 按给定的key写一个sstable并加入到某一层，key需要有序
+     */
+    private SsTable addTable(int level, String... keys) {
+        SsTableBuilder builder = new SsTableBuilder(dataDir, versionSet.newFileNumber(), options.getPartSize(),
+                CompressionCodecs.NONE, level, options.getBloomBitsPerKey());
+        for (String key : keys) {
+            SetCommand command = new SetCommand(key, "value-" + key);
+            command.setSeq(++sequence);
+            builder.add(command);
+        }
+        SsTable ssTable = builder.finish();
+        ssTable.setComparator(options.getComparator());
+        ssTable.setStatistics(statistics);
+        versionSet.setLastSequence(sequence);
+        VersionEdit edit = new VersionEdit();
+        edit.addFile(level, ssTable);
+        versionSet.logAndApply(edit);
+        return ssTable;
+    }
+
+    /**
+     * 同步执行一次compaction
+     *
+     * @return 输入层参与compaction的文件
+     */
+    private List<SsTable> compactOnce(int level) {
+        Compactioner.Compaction compaction = compactioner.pickCompaction();
+        try {
+            assertEquals(level, compaction.level);
+            compactioner.installCompaction(compaction, compactioner.doCompaction(compaction));
+            return compaction.inputs;
+        } finally {
+            compaction.version.unref();
+        }
+    }
+
+    private static Set<Long> fileNumbers(SsTable... ssTables) {
+        return fileNumbers(Arrays.asList(ssTables));
+    }
+
+    private static Set<Long> fileNumbers(List<SsTable> ssTables) {
+        Set<Long> fileNumbers = new HashSet<>();
+        for (SsTable ssTable : ssTables) {
+            fileNumbers.add(ssTable.getFileNumber());
+        }
+        return fileNumbers;
+    }
+
+    private int levelSize(int level) {
+        Version version = versionSet.current();
+        try {
+            return version.getLevel(level).size();
+        } finally {
+            version.unref();
+        }
+    }
+
+    private void waitForTicker(Ticker ticker, long count) throws InterruptedException {
+        for (int i = 0; i < 250 && statistics.getTickerCount(ticker) < count; i++) {
+            Thread.sleep(20);
+        }
+        assertEquals(count, statistics.getTickerCount(ticker));
+    }
+
+    /**
+     * 第一次压缩数据块时失败，用来模拟compaction写出时的磁盘错误
+     */
+    private static class FailingCodec implements CompressionCodec {
+        private final AtomicInteger attempts;
+
+        private final AtomicBoolean failing;
+
+        FailingCodec(AtomicInteger attempts, AtomicBoolean failing) {
+            this.attempts = attempts;
+            this.failing = failing;
+        }
+
+        @Override
+        public byte id() {
+            return CompressionCodecs.NONE.id();
+        }
+
+        @Override
+        public String name() {
+            return "failing";
+        }
+
+        @Override
+        public byte[] compress(byte[] data) throws IOException {
+            if (failing.get()) {
+                attempts.incrementAndGet();
+                throw new IOException("disk full");
+            }
+            return data;
+        }
+
+        @Override
+        public byte[] uncompress(byte[] data) {
+            return data;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.summer.kvstore.memtable;
+
+import com.summer.kvstore.comparator.BytewiseComparator;
+import com.summer.kvstore.iterator.InternalIterator;
+import com.summer.kvstore.model.command.Command;
+import com.summer.kvstore.model.command.RmCommand;
+import com.summer.kvstore.model.command.SetCommand;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MemtableTest {
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static Command set(String key, String value, long seq) {
+        Command command = new SetCommand(key, value);
+        command.setSeq(seq);
+        return command;
+    }
+
+    @Test
+    public void multiVersionGet() {
+        Memtable memtable = new Memtable(BytewiseComparator.INSTANCE, 4096);
+        memtable.add(set("key1", "v1", 1));
+        memtable.add(set("key1", "v2", 3));
+        Command rm = new RmCommand("key1");
+        rm.setSeq(5);
+        memtable.add(rm);
+
+        assertNull(memtable.get(bytes("key1"), 0));
+        assertArrayEquals(bytes("v1"), ((SetCommand) memtable.get(bytes("key1"), 2)).getValue());
+        assertArrayEquals(bytes("v2"), ((SetCommand) memtable.get(bytes("key1"), 4)).getValue());
+        assertTrue(memtable.get(bytes("key1"), 5) instanceof RmCommand);
+        assertNull(memtable.get(bytes("key0"), 10));
+        assertNull(memtable.get(bytes("key2"), 10));
+    }
+
+    @Test
+    public void largeValueAndNullValue() {
+        Memtable memtable = new Memtable(BytewiseComparator.INSTANCE, 4096);
+        byte[] large = new byte[100 * 1024];
+        large[large.length - 1] = 7;
+        Command command = new SetCommand(bytes("large"), large);
+        command.setSeq(1);
+        memtable.add(command);
+        memtable.add(set("null", null, 2));
+
+        assertArrayEquals(large, ((SetCommand) memtable.get(bytes("large"), 1)).getValue());
+        assertNull(((SetCommand) memtable.get(bytes("null"), 2)).getValue());
+        assertTrue(memtable.approximateMemoryUsage() >= large.length);
+    }
+
+    @Test
+    public void concurrentInsert() throws InterruptedException {
+        Memtable memtable = new Memtable(BytewiseComparator.INSTANCE, 4096);
+        AtomicLong sequence = new AtomicLong();
+        int threadCount = 4;
+        int perThread = 5000;
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            int id = t;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    //不同线程写入交错的key，同一个key也会有多个版本
+                    String key = String.format("key%05d", (i * threadCount + id) % 3000);
+                    memtable.add(set(key, "value" + i, sequence.incrementAndGet()));
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(threadCount * perThread, memtable.size());
+
+        //按key从小到大、同一个key序列号从大到小
+        InternalIterator iterator = memtable.iterator();
+        int count = 0;
+        byte[] lastKey = null;
+        long lastSeq = Long.MAX_VALUE;
+        for (iterator.seekToFirst(); iterator.isValid(); iterator.next()) {
+            byte[] key = iterator.key();
+            long seq = iterator.command().getSeq();
+            if (lastKey != null) {
+                int cmp = BytewiseComparator.INSTANCE.compare(lastKey, key);
+                assertTrue(cmp < 0 || (cmp == 0 && lastSeq > seq));
+            }
+            lastKey = key;
+            lastSeq = seq;
+            count++;
+        }
+        assertEquals(threadCount * perThread, count);
+
+        iterator.seek(bytes("key01000"));
+        assertArrayEquals(bytes("key01000"), iterator.key());
+    }
+
+    /**
+     * 多个线程并发插入的同时并发读取，包括切换arena块和单独分配大块的路径，插入完成的数据必须能读到
+     */
+    @Test
+    public void concurrentInsertAndGet() throws InterruptedException {
+        Memtable memtable = new Memtable(BytewiseComparator.INSTANCE, 4096);
+        AtomicLong sequence = new AtomicLong();
+        int writerCount = 4;
+        int perWriter = 3000;
+        //每个写线程已经插入完成的条数
+        AtomicIntegerArray inserted = new AtomicIntegerArray(writerCount);
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < writerCount; t++) {
+            int id = t;
+            threads.add(new Thread(() -> {
+                try {
+                    for (int i = 0; i < perWriter; i++) {
+                        Command command = new SetCommand(bytes("writer" + id + "-" + i), value(id, i));
+                        command.setSeq(sequence.incrementAndGet());
+                        memtable.add(command);
+                        inserted.set(id, i + 1);
+                    }
+                } catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                }
+            }));
+        }
+        AtomicBoolean done = new AtomicBoolean();
+        for (int t = 0; t < 2; t++) {
+            threads.add(new Thread(() -> {
+                Random random = new Random();
+                try {
+                    while (!done.get()) {
+                        int id = random.nextInt(writerCount);
+                        int count = inserted.get(id);
+                        if (count == 0) {
+                            continue;
+                        }
+                        int i = random.nextInt(count);
+                        Command command = memtable.get(bytes("writer" + id + "-" + i), Long.MAX_VALUE);
+                        assertTrue("writer" + id + "-" + i, command instanceof SetCommand);
+                        assertArrayEquals(value(id, i), ((SetCommand) command).getValue());
+                    }
+                } catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads.subList(0, writerCount)) {
+            thread.join();
+        }
+        done.set(true);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (error.get() != null) {
+            throw new AssertionError(error.get());
+        }
+        assertEquals(writerCount * perWriter, memtable.size());
+        for (int id = 0; id < writerCount; id++) {
+            for (int i = 0; i < perWriter; i++) {
+                Command command = memtable.get(bytes("writer" + id + "-" + i), Long.MAX_VALUE);
+                assertArrayEquals(value(id, i), ((SetCommand) command).getValue());
+            }
+        }
+    }
+
+    /**
+     * 每50条有一条超过arena块大小1/4的value，走单独分配大块的路径
+     */
+    private static byte[] value(int id, int i) {
+        byte[] value = new byte[i % 50 == 0 ? 2000 : 16];
+        Arrays.fill(value, (byte) (id * 31 + i));
+        return value;
+    }
+}
@@ -1,34 +1,189 @@
 package com.summer.kvstore.model.sstable;
 
+import com.summer.kvstore.comparator.BytewiseComparator;
+import com.summer.kvstore.compress.CompressionCodec;
+import com.summer.kvstore.compress.CompressionCodecs;
+import com.summer.kvstore.constants.KVConstants;
 import com.summer.kvstore.model.command.Command;
 import com.summer.kvstore.model.command.RmCommand;
 import com.summer.kvstore.model.command.SetCommand;
-import com.summer.kvstore.constants.KVConstants;
+import com.summer.kvstore.utils.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 public class SsTableTest {
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    /**
+     * 每个测试使用独立的数据目录
+     */
+    private String dataDir;
+
+    @Before
+    public void setUp() {
+        dataDir = temporaryFolder.getRoot().getAbsolutePath() + File.separator;
+    }
+
     @Test
     public void createFromIndex() throws IOException {
-        ConcurrentSkipListMap<String, Command> index = new ConcurrentSkipListMap<>();
+        ConcurrentSkipListMap<byte[], Command> index = new ConcurrentSkipListMap<>(BytewiseComparator.INSTANCE);
         for (int i = 0; i < 10; i++) {
             SetCommand setCommand = new SetCommand("key" + i, "value" + i);
             index.put(setCommand.getKey(), setCommand);
         }
-        index.put("key100", new SetCommand("key100", "value100"));
-        index.put("key100", new RmCommand("key100"));
-        SsTable ssTable = SsTable.createFromIndex(1L, 3, index, true, 0);
+        index.put(bytes("key100"), new SetCommand("key100", "value100"));
+        index.put(bytes("key100"), new RmCommand("key100"));
+        SsTable ssTable = SsTable.createFromIndex(dataDir, 1L, 3, index, CompressionCodecs.SNAPPY, 0,
+                KVConstants.DEFAULT_BLOOM_BITS_PER_KEY);
+        ssTable.close();
+    }
+
+    @Test
+    public void query() throws IOException {
+        createFromIndex();
+        SsTable ssTable = SsTable.createFromFile(FileUtils.buildSstableFilePath(dataDir, 1L, 0));
+        assertEquals(TableMetaInfo.VERSION_CODEC, ssTable.getTableMetaInfo().getVersion());
+        for (int i = 0; i < 10; i++) {
+            Command command = ssTable.query(bytes("key" + i));
+            assertArrayEquals(bytes("value" + i), ((SetCommand) command).getValue());
+        }
+        assertTrue(ssTable.query(bytes("key100")) instanceof RmCommand);
+        assertNull(ssTable.query(bytes("key05")));
+        assertNull(ssTable.query(bytes("a")));
+        assertNull(ssTable.query(bytes("z")));
+        ssTable.close();
+    }
+
+    /**
+     * 超过一个重启点间隔的数据块，块内二分查找
+     */
+    @Test
+    public void queryLargeDataPart() throws IOException {
+        ConcurrentSkipListMap<byte[], Command> index = new ConcurrentSkipListMap<>(BytewiseComparator.INSTANCE);
+        for (int i = 0; i < 1000; i++) {
+            String key = String.format("key%05d", i);
+            index.put(bytes(key), new SetCommand(key, "value" + i));
+        }
+        SsTable.createFromIndex(dataDir, 2L, 100, index, CompressionCodecs.SNAPPY, 0,
+                KVConstants.DEFAULT_BLOOM_BITS_PER_KEY).close();
+
+        SsTable ssTable = SsTable.createFromFile(FileUtils.buildSstableFilePath(dataDir, 2L, 0));
+        for (int i = 0; i < 1000; i++) {
+            Command command = ssTable.query(bytes(String.format("key%05d", i)));
+            assertArrayEquals(bytes("value" + i), ((SetCommand) command).getValue());
+        }
+        assertNull(ssTable.query(bytes("key00010x")));
+        ssTable.close();
+    }
+
+    /**
+     * 读取时按元数据中的算法id解压，和写入时使用的算法一致
+     */
+    @Test
+    public void compressionCodec() throws IOException {
+        ConcurrentSkipListMap<byte[], Command> index = new ConcurrentSkipListMap<>(BytewiseComparator.INSTANCE);
+        for (int i = 0; i < 1000; i++) {
+            String key = String.format("key%05d", i);
+            index.put(bytes(key), new SetCommand(key, "value" + i));
+        }
+        List<CompressionCodec> codecs = Arrays.asList(CompressionCodecs.NONE, CompressionCodecs.SNAPPY,
+                CompressionCodecs.DEFLATE_FAST, CompressionCodecs.DEFLATE_BEST);
+        for (int c = 0; c < codecs.size(); c++) {
+            long fileNumber = 10L + c;
+            SsTable.createFromIndex(dataDir, fileNumber, 100, index, codecs.get(c), 0,
+                    KVConstants.DEFAULT_BLOOM_BITS_PER_KEY).close();
+
+            SsTable ssTable = SsTable.createFromFile(FileUtils.buildSstableFilePath(dataDir, fileNumber, 0));
+            assertEquals(codecs.get(c).id(), ssTable.getCodec().id());
+            for (int i = 0; i < 1000; i += 7) {
+                Command command = ssTable.query(bytes(String.format("key%05d", i)));
+                assertArrayEquals(bytes("value" + i), ((SetCommand) command).getValue());
+            }
+            ssTable.close();
+        }
     }
 
+    /**
+     * 多个线程并发查询同一个sstable
+     */
     @Test
-    public void query() {
-        SsTable ssTable = SsTable.createFromFile(KVConstants.WORK_DIR + "1.sst", true);
-        System.out.println(ssTable.query("key0"));
-//        System.out.println(ssTable.query("key5"));
-//        System.out.println(ssTable.query("key9"));
-//        System.out.println(ssTable.query("key100"));
-    }
-}
\ No newline at end of file
+    public void concurrentQuery() throws Exception {
+        ConcurrentSkipListMap<byte[], Command> index = new ConcurrentSkipListMap<>(BytewiseComparator.INSTANCE);
+        for (int i = 0; i < 1000; i++) {
+            String key = String.format("key%05d", i);
+            index.put(bytes(key), new SetCommand(key, "value" + i));
+        }
+        SsTable ssTable = SsTable.createFromIndex(dataDir, 4L, 10, index, CompressionCodecs.SNAPPY, 0,
+                KVConstants.DEFAULT_BLOOM_BITS_PER_KEY);
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Boolean>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    Command command = ssTable.query(bytes(String.format("key%05d", i)));
+                    if (!Arrays.equals(bytes("value" + i), ((SetCommand) command).getValue())) {
+                        return false;
+                    }
+                }
+                return true;
+            }));
+        }
+        for (Future<Boolean> future : futures) {
+            assertTrue(future.get());
+        }
+        executor.shutdown();
+        ssTable.close();
+    }
+
+    /**
+     * 布隆过滤器不会漏判，误判率在合理范围内
+     */
+    @Test
+    public void bloomFilter() throws IOException {
+        ConcurrentSkipListMap<byte[], Command> index = new ConcurrentSkipListMap<>(BytewiseComparator.INSTANCE);
+        for (int i = 0; i < 1000; i++) {
+            String key = "key" + i;
+            index.put(bytes(key), new SetCommand(key, "value" + i));
+        }
+        SsTable.createFromIndex(dataDir, 3L, 100, index, CompressionCodecs.SNAPPY, 0, 10).close();
+
+        SsTable ssTable = SsTable.createFromFile(FileUtils.buildSstableFilePath(dataDir, 3L, 0));
+        BloomFilter bloomFilter = ssTable.getBloomFilter();
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(bloomFilter.mayContain(bytes("key" + i)));
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (bloomFilter.mayContain(bytes("missing" + i))) {
+                falsePositives++;
+            }
+        }
+        assertTrue("falsePositives=" + falsePositives, falsePositives < 300);
+        ssTable.close();
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
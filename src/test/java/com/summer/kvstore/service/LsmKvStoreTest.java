@@ -1,17 +1,66 @@
 package com.summer.kvstore.service;
 
+import com.summer.kvstore.comparator.BytewiseComparator;
+import com.summer.kvstore.comparator.KeyComparator;
+import com.summer.kvstore.compress.CompressionCodec;
+import com.summer.kvstore.compress.CompressionCodecs;
 import com.summer.kvstore.constants.KVConstants;
+import com.summer.kvstore.iterator.KvIterator;
+import com.summer.kvstore.model.Options;
+import com.summer.kvstore.model.ReadOptions;
+import com.summer.kvstore.model.WriteBatch;
+import com.summer.kvstore.statistics.HistogramType;
+import com.summer.kvstore.statistics.PerfContext;
+import com.summer.kvstore.statistics.Statistics;
+import com.summer.kvstore.statistics.Ticker;
+import com.summer.kvstore.utils.FileUtils;
+import com.summer.kvstore.version.Snapshot;
+import com.summer.kvstore.version.VersionSet;
+import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
+import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class LsmKvStoreTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    /**
+     * 每个测试使用独立的数据目录
+     */
+    private String dataDir;
+
+    @Before
+    public void setUp() {
+        dataDir = temporaryFolder.getRoot().getAbsolutePath() + File.separator;
+    }
     @Test
     public void set() throws IOException {
-        KvStore kvStore = new LsmKvStore(KVConstants.WORK_DIR, 4, 3);
+        KvStore kvStore = new LsmKvStore(dataDir, 4, 3);
         for (int i = 1000; i < 1022; i++) {
             kvStore.set(i + "", i + "");
         }
@@ -28,10 +77,11 @@ public class LsmKvStoreTest {
         }
 
         kvStore.printfStats();
+        kvStore.close();
 
         /**
         kvStore.close();
-        kvStore = new LsmKvStore(KVConstants.WORK_DIR, 4, 3);
+        kvStore = new LsmKvStore(dataDir, 4, 3);
         for (int i = 0; i < 11; i++) {
             assertNull(kvStore.get(i + ""));
         }
@@ -39,6 +89,497 @@ public class LsmKvStoreTest {
          **/
     }
 
+    @Test
+    public void scan() throws IOException {
+        KvStore kvStore = new LsmKvStore(dataDir, 4, 3);
+        for (int i = 1000; i < 1030; i++) {
+            kvStore.set("scan" + i, i + "");
+        }
+        //覆盖写和删除分布在memtable和各个sstable中
+        kvStore.set("scan1012", "new");
+        kvStore.rm("scan1013");
+
+        List<Map.Entry<String, String>> result = kvStore.scan("scan1010", "scan1016");
+        assertEquals(5, result.size());
+        assertEquals("scan1010", result.get(0).getKey());
+        assertEquals("new", result.get(2).getValue());
+        assertEquals("scan1014", result.get(3).getKey());
+        assertEquals("scan1015", result.get(4).getKey());
+
+        try (KvIterator iterator = kvStore.iterator()) {
+            iterator.seek("scan1028");
+            assertEquals("scan1028", iterator.key());
+            iterator.next();
+            assertEquals("1029", iterator.value());
+            iterator.next();
+            assertFalse(iterator.isValid() && iterator.key().startsWith("scan"));
+        }
+        kvStore.close();
+    }
+
+    /**
+     * 测试重启后能从MANIFEST恢复sstable，文件编号继续递增
+     */
+    @Test
+    public void reopen() throws IOException {
+        KvStore kvStore = new LsmKvStore(dataDir, 4, 3);
+        for (int i = 0; i < 40; i++) {
+            kvStore.set("reopen" + i, i + "");
+        }
+        kvStore.close();
+
+        for (int round = 0; round < 2; round++) {
+            kvStore = new LsmKvStore(dataDir, 4, 3);
+            for (int i = 0; i < 40; i++) {
+                assertEquals((i + round * 100) + "", kvStore.get("reopen" + i));
+            }
+            //重启后生成的sstable不能覆盖已有的文件
+            for (int i = 0; i < 40; i++) {
+                kvStore.set("reopen" + i, (i + (round + 1) * 100) + "");
+            }
+            kvStore.close();
+        }
+    }
+
+    /**
+     * 测试替换MANIFEST时宕机只留下临时文件，重启后从完整的临时文件恢复，不会按文件名扫描复活已淘汰的sstable
+     */
+    @Test
+    public void recoverFromManifestTmp() throws IOException {
+        KvStore kvStore = new LsmKvStore(dataDir, 4, 3);
+        for (int i = 0; i < 40; i++) {
+            kvStore.set("manifest" + i, "old" + i);
+        }
+        kvStore.close();
+        File[] ssTables = new File(dataDir).listFiles((dir, name) -> name.endsWith(KVConstants.FILE_SUFFIX_SSTABLE));
+        assertTrue(ssTables != null && ssTables.length > 0);
+        byte[] staleSsTable = Files.readAllBytes(ssTables[0].toPath());
+
+        kvStore = new LsmKvStore(dataDir, 4, 3);
+        for (int i = 0; i < 40; i++) {
+            kvStore.set("manifest" + i, "new" + i);
+        }
+        kvStore.close();
+
+        //已淘汰的sstable残留在目录中，MANIFEST只剩下临时文件
+        File stale = new File(FileUtils.buildSstableFilePath(dataDir, 99999L, 0));
+        Files.write(stale.toPath(), staleSsTable);
+        Files.move(new File(dataDir + VersionSet.MANIFEST).toPath(),
+                new File(dataDir + VersionSet.MANIFEST_TMP).toPath());
+
+        kvStore = new LsmKvStore(dataDir, 4, 3);
+        for (int i = 0; i < 40; i++) {
+            assertEquals("new" + i, kvStore.get("manifest" + i));
+        }
+        kvStore.close();
+        assertFalse(stale.exists());
+        assertTrue(new File(dataDir + VersionSet.MANIFEST).exists());
+        assertFalse(new File(dataDir + VersionSet.MANIFEST_TMP).exists());
+    }
+
+    /**
+     * 测试多个immutable memtable排队持久化，相邻的合并写入，重启后从WAL恢复未持久化的数据
+     */
+    @Test
+    public void immutableQueue() throws IOException {
+        Options options = new Options();
+        options.setStoreThreshold(4);
+        options.setPartSize(3);
+        options.setMaxWriteBufferNumber(4);
+        options.setMaxWriteBufferNumberToMerge(2);
+        KvStore kvStore = new LsmKvStore(dataDir, options);
+        for (int i = 0; i < 200; i++) {
+            kvStore.set("queue" + i, i + "");
+        }
+        for (int i = 0; i < 200; i += 2) {
+            kvStore.set("queue" + i, "new" + i);
+        }
+        for (int i = 0; i < 200; i++) {
+            assertEquals(i % 2 == 0 ? "new" + i : i + "", kvStore.get("queue" + i));
+        }
+        kvStore.close();
+
+        kvStore = new LsmKvStore(dataDir, options);
+        for (int i = 0; i < 200; i++) {
+            assertEquals(i % 2 == 0 ? "new" + i : i + "", kvStore.get("queue" + i));
+        }
+        kvStore.close();
+        //已经持久化的WAL都被删除
+        String[] wals = new File(dataDir).list((dir, name) -> name.startsWith(LsmKvStore.WAL_PREFIX));
+        assertTrue(wals != null && wals.length <= options.getMaxWriteBufferNumber() + 1);
+    }
+
+    @Test
+    public void writeBatch() throws IOException {
+        KvStore kvStore = new LsmKvStore(dataDir, 4, 3);
+        kvStore.set("batch0", "old");
+        WriteBatch batch = new WriteBatch();
+        for (int i = 1; i < 10; i++) {
+            batch.set("batch" + i, i + "");
+        }
+        batch.rm("batch0");
+        batch.set("batch9", "last");
+        kvStore.write(batch);
+        batch.clear();
+        kvStore.close();
+
+        //重启后从WAL或sstable中恢复整个batch
+        kvStore = new LsmKvStore(dataDir, 4, 3);
+        assertNull(kvStore.get("batch0"));
+        assertEquals("1", kvStore.get("batch1"));
+        assertEquals("last", kvStore.get("batch9"));
+        assertEquals(9, kvStore.scan("batch", "batch:").size());
+        kvStore.close();
+    }
+
+    /**
+     * immutable memtable队列已满时写入停顿，持久化完成后继续
+     */
+    @Test
+    public void stallWhenImmutableQueueFull() throws Exception {
+        CountDownLatch flushStarted = new CountDownLatch(1);
+        CountDownLatch releaseFlush = new CountDownLatch(1);
+        Options options = new Options();
+        options.setStoreThreshold(2);
+        options.setMaxWriteBufferNumber(2);
+        options.setCompression(new FlushHookCodec(() -> {
+            flushStarted.countDown();
+            releaseFlush.await();
+        }));
+        LsmKvStore kvStore = new LsmKvStore(dataDir, options);
+
+        AtomicInteger written = new AtomicInteger();
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < 20; i++) {
+                kvStore.set("stall" + i, i + "");
+                written.incrementAndGet();
+            }
+        });
+        writer.start();
+        assertTrue(flushStarted.await(10, TimeUnit.SECONDS));
+        //第一个memtable正在持久化，第二个memtable写满后队列已满，写入停顿
+        Statistics statistics = kvStore.getStatistics();
+        for (int i = 0; i < 500 && statistics.getTickerCount(Ticker.WRITE_STALLS) == 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, statistics.getTickerCount(Ticker.WRITE_STALLS));
+        //持久化被阻塞，停顿的写入不会返回
+        int stalledAt = written.get();
+        assertTrue("written=" + stalledAt, stalledAt < 20);
+        assertTrue(writer.isAlive());
+        assertEquals(stalledAt, written.get());
+
+        releaseFlush.countDown();
+        writer.join(10000);
+        assertEquals(20, written.get());
+        for (int i = 0; i < 20; i++) {
+            assertEquals(i + "", kvStore.get("stall" + i));
+        }
+        assertTrue(statistics.getTickerCount(Ticker.STALL_MICROS) > 0);
+        kvStore.close();
+    }
+
+    /**
+     * 后台持久化失败后存储变为只读：之后的写入在写WAL之前失败，读取不受影响，重启后失败的写入不存在
+     */
+    @Test
+    public void backgroundErrorMakesStoreReadOnly() throws Exception {
+        Options options = new Options();
+        options.setStoreThreshold(2);
+        options.setCompression(new FlushHookCodec(() -> {
+            throw new IOException("disk full");
+        }));
+        LsmKvStore kvStore = new LsmKvStore(dataDir, options);
+        //第4条写入切换memtable，后台持久化失败
+        for (int i = 0; i < 4; i++) {
+            kvStore.set("error" + i, i + "");
+        }
+        for (int i = 0; i < 100 && kvStore.getBackgroundError() == null; i++) {
+            Thread.sleep(20);
+        }
+        assertTrue(kvStore.getBackgroundError() != null);
+
+        try {
+            kvStore.set("error-after", "x");
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        assertNull(kvStore.get("error-after"));
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i + "", kvStore.get("error" + i));
+        }
+        kvStore.close();
+
+        //没有持久化的数据保留在WAL中
+        options.setCompression(CompressionCodecs.NONE);
+        kvStore = new LsmKvStore(dataDir, options);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i + "", kvStore.get("error" + i));
+        }
+        assertNull(kvStore.get("error-after"));
+        kvStore.close();
+    }
+
+    /**
+     * 压缩数据块时执行回调的不压缩算法，用来阻塞或者让持久化失败
+     */
+    private static class FlushHookCodec implements CompressionCodec {
+        private final FlushHook hook;
+
+        FlushHookCodec(FlushHook hook) {
+            this.hook = hook;
+        }
+
+        @Override
+        public byte id() {
+            return CompressionCodecs.NONE.id();
+        }
+
+        @Override
+        public String name() {
+            return "flushHook";
+        }
+
+        @Override
+        public byte[] compress(byte[] data) throws IOException {
+            try {
+                hook.run();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            return CompressionCodecs.NONE.compress(data);
+        }
+
+        @Override
+        public byte[] uncompress(byte[] data) throws IOException {
+            return CompressionCodecs.NONE.uncompress(data);
+        }
+    }
+
+    private interface FlushHook {
+        void run() throws IOException, InterruptedException;
+    }
+
+    /**
+     * 读取不加锁，flush和compaction发布新版本的同时并发读取，已经写入的数据始终可见且不会读到更旧的值
+     */
+    @Test
+    public void concurrentGetDuringFlushAndCompaction() throws Exception {
+        Options options = new Options();
+        options.setStoreThreshold(16);
+        options.setPartSize(4);
+        options.setL0CompactionTrigger(2);
+        options.setMaxBytesForLevelBase(4 * 1024);
+        options.setTargetFileSize(1024);
+        options.setStatisticsJmxEnabled(false);
+        LsmKvStore kvStore = new LsmKvStore(dataDir, options);
+
+        int keys = 200;
+        int rounds = 30;
+        //所有key都写完的轮数，读取到的值不能小于它
+        AtomicInteger completedRound = new AtomicInteger(-1);
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        List<Thread> readers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread reader = new Thread(() -> {
+                Random random = new Random();
+                try {
+                    while (completedRound.get() < rounds - 1) {
+                        int round = completedRound.get();
+                        if (round < 0) {
+                            continue;
+                        }
+                        String key = "concurrent" + random.nextInt(keys);
+                        String value = kvStore.get(key);
+                        assertTrue(key + "=" + value + ",round=" + round,
+                                value != null && Integer.parseInt(value) >= round);
+                    }
+                } catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                }
+            });
+            reader.start();
+            readers.add(reader);
+        }
+        for (int round = 0; round < rounds && error.get() == null; round++) {
+            for (int i = 0; i < keys; i++) {
+                kvStore.set("concurrent" + i, round + "");
+            }
+            completedRound.set(round);
+        }
+        completedRound.set(rounds - 1);
+        for (Thread reader : readers) {
+            reader.join(10000);
+        }
+        if (error.get() != null) {
+            throw new AssertionError(error.get());
+        }
+        assertTrue(kvStore.getStatistics().getTickerCount(Ticker.FLUSH_BYTES_WRITTEN) > 0);
+        assertTrue(kvStore.getStatistics().getTickerCount(Ticker.COMPACTION_BYTES_WRITTEN) > 0);
+        for (int i = 0; i < keys; i++) {
+            assertEquals((rounds - 1) + "", kvStore.get("concurrent" + i));
+        }
+        kvStore.close();
+    }
+
+    /**
+     * 快照读取看不到之后的覆盖写和删除，包括数据被flush和compaction之后
+     */
+    @Test
+    public void snapshot() throws IOException {
+        KvStore kvStore = new LsmKvStore(dataDir, 4, 3);
+        for (int i = 0; i < 10; i++) {
+            kvStore.set("snapshot" + i, "old");
+        }
+        Snapshot snapshot = kvStore.getSnapshot();
+        ReadOptions readOptions = new ReadOptions(snapshot);
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 10; i++) {
+                kvStore.set("snapshot" + i, "new" + round);
+            }
+        }
+        kvStore.rm("snapshot0");
+
+        assertNull(kvStore.get("snapshot0"));
+        assertEquals("new4", kvStore.get("snapshot1"));
+        for (int i = 0; i < 10; i++) {
+            assertEquals("old", kvStore.get("snapshot" + i, readOptions));
+        }
+        List<Map.Entry<String, String>> result = kvStore.scan("snapshot", "snapshot:", readOptions);
+        assertEquals(10, result.size());
+        assertEquals("old", result.get(0).getValue());
+        assertEquals(9, kvStore.scan("snapshot", "snapshot:").size());
+
+        kvStore.releaseSnapshot(snapshot);
+        kvStore.close();
+    }
+
+    /**
+     * 二进制key按无符号字节排序，数据目录不能换用其他比较器打开
+     */
+    @Test
+    public void binaryKey() throws IOException {
+        KvStore kvStore = new LsmKvStore(dataDir, 4, 3);
+        byte[][] keys = new byte[][]{{1, 0}, {1, 0x7F}, {1, (byte) 0x80}, {1, (byte) 0xFF}, {1, (byte) 0xFF, 0}};
+        //倒序写入，部分数据会flush到sstable
+        for (int i = keys.length - 1; i >= 0; i--) {
+            kvStore.set(keys[i], new byte[]{(byte) i, (byte) 0xFF});
+        }
+        for (int i = 0; i < keys.length; i++) {
+            assertArrayEquals(new byte[]{(byte) i, (byte) 0xFF}, kvStore.get(keys[i]));
+        }
+        try (KvIterator iterator = kvStore.iterator()) {
+            iterator.seek(keys[0]);
+            for (byte[] key : keys) {
+                assertArrayEquals(key, iterator.keyBytes());
+                iterator.next();
+            }
+        }
+        kvStore.close();
+
+        Options options = new Options();
+        options.setComparator(new KeyComparator() {
+            @Override
+            public String name() {
+                return "reverse";
+            }
+
+            @Override
+            public int compare(byte[] a, byte[] b) {
+                return BytewiseComparator.INSTANCE.compare(b, a);
+            }
+        });
+        try {
+            new LsmKvStore(dataDir, options);
+            fail();
+        } catch (RuntimeException expected) {
+        }
+    }
+
+    /**
+     * 读写计数、各层命中和延迟直方图，统计信息可以通过JMX读取，关闭后注销
+     */
+    @Test
+    public void statistics() throws Exception {
+        Options options = new Options();
+        options.setStoreThreshold(10);
+        options.setPartSize(3);
+        LsmKvStore kvStore = new LsmKvStore(dataDir, options);
+        for (int i = 0; i < 50; i++) {
+            kvStore.set("stats" + i, "v" + i);
+        }
+        for (int i = 0; i < 50; i++) {
+            assertEquals("v" + i, kvStore.get("stats" + i));
+        }
+        assertNull(kvStore.get("stats-missing"));
+
+        Statistics statistics = kvStore.getStatistics();
+        assertEquals(50, statistics.getTickerCount(Ticker.KEYS_WRITTEN));
+        assertEquals(51, statistics.getTickerCount(Ticker.KEYS_READ));
+        assertEquals(50, statistics.getTickerCount(Ticker.KEYS_FOUND));
+        assertEquals(51, statistics.getTickerCount(Ticker.MEMTABLE_HIT)
+                + statistics.getTickerCount(Ticker.MEMTABLE_MISS));
+        assertEquals(50, statistics.getTickerCount(Ticker.MEMTABLE_HIT) + statistics.getTickerCount(Ticker.L0_HIT)
+                + statistics.getTickerCount(Ticker.L1_HIT) + statistics.getTickerCount(Ticker.L2_AND_UP_HIT));
+        assertTrue(statistics.getTickerCount(Ticker.FLUSH_BYTES_WRITTEN) > 0);
+        assertEquals(51, statistics.getHistogramData(HistogramType.GET).getCount());
+        assertEquals(50, statistics.getHistogramData(HistogramType.WRITE).getCount());
+
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("com.summer.kvstore:type=Statistics,dataDir="
+                + ObjectName.quote(new File(dataDir).getAbsolutePath()));
+        assertTrue(mBeanServer.isRegistered(name));
+        TabularData tickers = (TabularData) mBeanServer.getAttribute(name, "Tickers");
+        assertEquals(50L, tickers.get(new Object[]{"KEYS_WRITTEN"}).get("value"));
+        kvStore.close();
+        assertFalse(mBeanServer.isRegistered(name));
+    }
+
+    /**
+     * 开启PerfContext后记录单次读取在各阶段的明细，关闭后不再记录
+     */
+    @Test
+    public void perfContext() throws IOException {
+        Options options = new Options();
+        options.setStoreThreshold(10);
+        options.setPartSize(3);
+        options.setBlockCacheSize(0);
+        KvStore kvStore = new LsmKvStore(dataDir, options);
+        for (int i = 0; i < 50; i++) {
+            kvStore.set("perf" + i, "v" + i);
+        }
+        //关闭时等待持久化完成，最早写入的数据在sstable中
+        kvStore.close();
+        kvStore = new LsmKvStore(dataDir, options);
+        kvStore.set("perf-memtable", "v");
+
+        PerfContext.enable();
+        try {
+            PerfContext perfContext = PerfContext.get();
+            perfContext.reset();
+            assertEquals("v0", kvStore.get("perf0"));
+            assertTrue(perfContext.getFoundLevel() >= 0);
+            assertTrue(perfContext.getBloomChecked() >= 1);
+            assertTrue(perfContext.getBlockReadCount() >= 1);
+            assertTrue(perfContext.getBlockReadBytes() > 0);
+            assertTrue(perfContext.getMemtableLookupNanos() > 0);
+
+            perfContext.reset();
+            assertEquals("v", kvStore.get("perf-memtable"));
+            assertEquals(PerfContext.LEVEL_MEMTABLE, perfContext.getFoundLevel());
+            assertEquals(0, perfContext.getBlockReadCount());
+
+            PerfContext.disable();
+            perfContext.reset();
+            kvStore.get("perf0");
+            assertEquals(0, perfContext.getBloomChecked());
+            assertEquals(PerfContext.LEVEL_NOT_FOUND, perfContext.getFoundLevel());
+        } finally {
+            PerfContext.disable();
+            kvStore.close();
+        }
+    }
+
     /**
      * 测试数据库启动能正常初始化加载sstable内容
      *
@@ -49,7 +590,7 @@ public class LsmKvStoreTest {
      */
     @Test
     public void testInitSstables() throws Exception {
-        KvStore kvStore = new LsmKvStore(KVConstants.WORK_DIR, 4, 3);
+        KvStore kvStore = new LsmKvStore(dataDir, 4, 3);
 
         //set的逻辑
         for(int i = 1;i <= 10;i++){
@@ -60,6 +601,7 @@ public class LsmKvStoreTest {
         for(int i = 1;i <= 10;i++){
             System.out.println(i + ",获取到了" + kvStore.get(i + ""));
         }
+        kvStore.close();
     }
 
     /**
@@ -72,7 +614,7 @@ public class LsmKvStoreTest {
      */
     @Test
     public void testRecoverWalLog() throws Exception {
-        KvStore kvStore = new LsmKvStore(KVConstants.WORK_DIR, 4, 3);
+        KvStore kvStore = new LsmKvStore(dataDir, 4, 3);
 
         //set的逻辑
         for(int i = 1;i <= 2;i++){
@@ -83,5 +625,6 @@ public class LsmKvStoreTest {
         for(int i = 1;i <= 2;i++){
             System.out.println(i + ",获取到了" + kvStore.get(i + ""));
         }
+        kvStore.close();
     }
 }
\ No newline at end of file
@@ -0,0 +1,49 @@
+package com.summer.kvstore.statistics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramTest {
+
+    @Test
+    public void percentile() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        HistogramData data = histogram.getData();
+        assertEquals(1000, data.getCount());
+        assertEquals(1000, data.getMin());
+        assertEquals(1000000, data.getMax());
+        assertEquals(500500.0, data.getAverage(), 1e-6);
+        //子桶的上界，相对误差不超过1/16
+        assertTrue(data.getMedian() >= 500000 && data.getMedian() <= 500000 * 17 / 16);
+        assertTrue(data.getPercentile99() >= 990000 && data.getPercentile99() <= 1000000);
+    }
+
+    @Test
+    public void merge() {
+        Histogram first = new Histogram();
+        Histogram second = new Histogram();
+        for (int i = 0; i < 100; i++) {
+            first.record(10);
+            second.record(1000);
+        }
+        Histogram all = new Histogram();
+        all.merge(first);
+        all.merge(second);
+        all.merge(new Histogram());
+
+        HistogramData data = all.getData();
+        assertEquals(200, data.getCount());
+        assertEquals(10, data.getMin());
+        assertEquals(1000, data.getMax());
+        assertEquals(505.0, data.getAverage(), 1e-6);
+        assertEquals(10, data.getMedian());
+        assertTrue(data.getPercentile99() >= 1000 && data.getPercentile99() <= 1000 * 17 / 16);
+        //合并不改变被合并的直方图
+        assertEquals(100, first.getData().getCount());
+    }
+}
@@ -0,0 +1,145 @@
+package com.summer.kvstore.version;
+
+import com.summer.kvstore.comparator.BytewiseComparator;
+import com.summer.kvstore.compress.CompressionCodecs;
+import com.summer.kvstore.constants.KVConstants;
+import com.summer.kvstore.model.command.SetCommand;
+import com.summer.kvstore.model.sstable.SsTable;
+import com.summer.kvstore.model.sstable.SsTableBuilder;
+import com.summer.kvstore.statistics.Statistics;
+import com.summer.kvstore.utils.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class VersionSetTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    /**
+     * 每个测试使用独立的数据目录
+     */
+    private String dataDir;
+
+    private final Statistics statistics = new Statistics();
+
+    private long sequence;
+
+    @Before
+    public void setUp() {
+        dataDir = temporaryFolder.getRoot().getAbsolutePath() + File.separator;
+    }
+
+    /**
+     * MANIFEST写入一半失败：文件截断回写入前的长度，序列号和logNumber不变，之后的提交都失败，重启后恢复失败前的版本
+     */
+    @Test
+    public void failedManifestAppend() throws IOException {
+        AtomicBoolean failAppend = new AtomicBoolean();
+        VersionSet versionSet = new VersionSet(dataDir, null, null, statistics, BytewiseComparator.INSTANCE, 1) {
+            @Override
+            void appendManifest(byte[] record) throws IOException {
+                if (failAppend.get()) {
+                    super.appendManifest(Arrays.copyOf(record, record.length / 2));
+                    throw new IOException("disk full");
+                }
+                super.appendManifest(record);
+            }
+        };
+        versionSet.recover();
+        SsTable live = newTable(versionSet, "a", "b");
+        VersionEdit edit = new VersionEdit();
+        edit.addFile(0, live);
+        edit.setLogNumber(5L);
+        edit.setLastSequence(sequence);
+        versionSet.logAndApply(edit);
+        long manifestLength = new File(dataDir + VersionSet.MANIFEST).length();
+        long lastSequence = versionSet.getLastSequence();
+
+        failAppend.set(true);
+        SsTable failed = newTable(versionSet, "c", "d");
+        edit = new VersionEdit();
+        edit.addFile(0, failed);
+        edit.deleteFile(0, live.getFileNumber());
+        edit.setLogNumber(9L);
+        edit.setLastSequence(sequence);
+        try {
+            versionSet.logAndApply(edit);
+            fail();
+        } catch (RuntimeException expected) {
+        }
+        assertNotNull(versionSet.getManifestError());
+        assertEquals(manifestLength, new File(dataDir + VersionSet.MANIFEST).length());
+        assertEquals(5L, versionSet.getLogNumber());
+        assertEquals(lastSequence, versionSet.getLastSequence());
+        assertEquals(Arrays.asList(live.getFileNumber()), fileNumbers(versionSet, 0));
+        assertFalse(new File(tablePath(failed)).exists());
+
+        //写入恢复后也不能再提交
+        failAppend.set(false);
+        SsTable rejected = newTable(versionSet, "e");
+        edit = new VersionEdit();
+        edit.addFile(0, rejected);
+        try {
+            versionSet.logAndApply(edit);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        assertEquals(manifestLength, new File(dataDir + VersionSet.MANIFEST).length());
+        assertFalse(new File(tablePath(rejected)).exists());
+        versionSet.close();
+
+        versionSet = new VersionSet(dataDir, null, null, statistics, BytewiseComparator.INSTANCE, 1);
+        versionSet.recover();
+        assertEquals(Arrays.asList(live.getFileNumber()), fileNumbers(versionSet, 0));
+        assertEquals(5L, versionSet.getLogNumber());
+        assertTrue(new File(tablePath(live)).exists());
+        versionSet.close();
+    }
+
+    private SsTable newTable(VersionSet versionSet, String... keys) {
+        SsTableBuilder builder = new SsTableBuilder(dataDir, versionSet.newFileNumber(), 100,
+                CompressionCodecs.NONE, 0, KVConstants.DEFAULT_BLOOM_BITS_PER_KEY);
+        for (String key : keys) {
+            SetCommand command = new SetCommand(key, "value-" + key);
+            command.setSeq(++sequence);
+            builder.add(command);
+        }
+        SsTable ssTable = builder.finish();
+        ssTable.setComparator(BytewiseComparator.INSTANCE);
+        ssTable.setStatistics(statistics);
+        return ssTable;
+    }
+
+    private String tablePath(SsTable ssTable) {
+        return FileUtils.buildSstableFilePath(dataDir, ssTable.getFileNumber(), 0);
+    }
+
+    private static List<Long> fileNumbers(VersionSet versionSet, int level) {
+        Version version = versionSet.current();
+        try {
+            List<Long> fileNumbers = new ArrayList<>();
+            for (SsTable ssTable : version.getLevel(level)) {
+                fileNumbers.add(ssTable.getFileNumber());
+            }
+            return fileNumbers;
+        } finally {
+            version.unref();
+        }
+    }
+}
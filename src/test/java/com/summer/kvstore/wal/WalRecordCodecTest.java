@@ -0,0 +1,93 @@
+package com.summer.kvstore.wal;
+
+import com.summer.kvstore.model.command.Command;
+import com.summer.kvstore.model.command.RmCommand;
+import com.summer.kvstore.model.command.SetCommand;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class WalRecordCodecTest {
+
+    @Test
+    public void encodeAndDecode() {
+        byte[] set = WalRecordCodec.encode(new SetCommand("key1", "value1"));
+        byte[] rm = WalRecordCodec.encode(new RmCommand("key1"));
+        byte[] wal = new byte[set.length + rm.length];
+        System.arraycopy(set, 0, wal, 0, set.length);
+        System.arraycopy(rm, 0, wal, set.length, rm.length);
+
+        WalRecordCodec.DecodeResult first = WalRecordCodec.decode(wal, 0, wal.length);
+        assertArrayEquals(bytes("value1"), ((SetCommand) first.getCommand()).getValue());
+        assertEquals(set.length, first.getNextOffset());
+
+        WalRecordCodec.DecodeResult second = WalRecordCodec.decode(wal, first.getNextOffset(), wal.length);
+        assertTrue(second.getCommand() instanceof RmCommand);
+        assertArrayEquals(bytes("key1"), second.getCommand().getKey());
+        assertEquals(wal.length, second.getNextOffset());
+    }
+
+    /**
+     * 尾部记录不完整或者内容损坏时返回null
+     */
+    @Test
+    public void tornTail() {
+        byte[] record = WalRecordCodec.encode(new SetCommand("key1", "value1"));
+        for (int len = 0; len < record.length; len++) {
+            assertNull(WalRecordCodec.decode(Arrays.copyOf(record, len), 0, len));
+        }
+
+        record[record.length - 1] ^= 1;
+        assertNull(WalRecordCodec.decode(record, 0, record.length));
+    }
+
+    /**
+     * batch编码为一条记录，序列号连续分配，损坏时整个batch丢弃
+     */
+    @Test
+    public void batch() {
+        Command set = new SetCommand("key1", "value1");
+        set.setSeq(10);
+        Command rm = new RmCommand("key2");
+        rm.setSeq(11);
+        byte[] record = WalRecordCodec.encodeBatch(Arrays.asList(set, rm));
+
+        WalRecordCodec.DecodeResult result = WalRecordCodec.decode(record, 0, record.length);
+        List<Command> commands = result.getCommands();
+        assertEquals(2, commands.size());
+        assertArrayEquals(bytes("value1"), ((SetCommand) commands.get(0)).getValue());
+        assertEquals(10, commands.get(0).getSeq());
+        assertTrue(commands.get(1) instanceof RmCommand);
+        assertEquals(11, commands.get(1).getSeq());
+        assertEquals(record.length, result.getNextOffset());
+
+        for (int len = 0; len < record.length; len++) {
+            assertNull(WalRecordCodec.decode(Arrays.copyOf(record, len), 0, len));
+        }
+    }
+
+    /**
+     * 二进制key和value原样编解码
+     */
+    @Test
+    public void binaryKey() {
+        byte[] key = new byte[]{0, (byte) 0xFF, (byte) 0x80, 1};
+        byte[] value = new byte[]{(byte) 0xC3, 0x28, 0};
+        byte[] record = WalRecordCodec.encode(new SetCommand(key, value));
+
+        WalRecordCodec.DecodeResult result = WalRecordCodec.decode(record, 0, record.length);
+        assertArrayEquals(key, result.getCommand().getKey());
+        assertArrayEquals(value, ((SetCommand) result.getCommand()).getValue());
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
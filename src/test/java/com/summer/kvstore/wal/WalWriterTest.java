@@ -0,0 +1,140 @@
+package com.summer.kvstore.wal;
+
+import com.summer.kvstore.model.Options;
+import com.summer.kvstore.model.command.Command;
+import com.summer.kvstore.model.command.SetCommand;
+import com.summer.kvstore.service.LsmKvStore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class WalWriterTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    /**
+     * NONE只在要求sync时刷盘，ALWAYS每次写入都刷盘，GROUP按字节数和时间间隔刷盘；三种模式写入的内容相同
+     */
+    @Test
+    public void syncModes() throws Exception {
+        byte[] record = record(1);
+
+        WalWriter none = new WalWriter(temporaryFolder.newFile("none"), WalSyncMode.NONE, 100, 1024);
+        none.append(record, false);
+        none.append(record, false);
+        assertEquals(2L * record.length, none.getUnsyncedBytes());
+        none.append(record, true);
+        assertEquals(0, none.getUnsyncedBytes());
+        none.close();
+
+        WalWriter always = new WalWriter(temporaryFolder.newFile("always"), WalSyncMode.ALWAYS, 100, 1024);
+        for (int i = 0; i < 3; i++) {
+            always.append(record, false);
+            assertEquals(0, always.getUnsyncedBytes());
+        }
+        always.close();
+
+        //按字节数：未刷盘的数据达到syncBytes时刷盘
+        WalWriter groupBytes = new WalWriter(temporaryFolder.newFile("groupBytes"), WalSyncMode.GROUP,
+                Long.MAX_VALUE, record.length * 3L);
+        groupBytes.append(record, false);
+        groupBytes.append(record, false);
+        assertEquals(2L * record.length, groupBytes.getUnsyncedBytes());
+        groupBytes.append(record, false);
+        assertEquals(0, groupBytes.getUnsyncedBytes());
+        groupBytes.close();
+
+        //按时间：写入停止后由syncIfDue在间隔到达后刷盘
+        WalWriter groupTime = new WalWriter(temporaryFolder.newFile("groupTime"), WalSyncMode.GROUP, 200,
+                Long.MAX_VALUE);
+        groupTime.syncIfDue();
+        groupTime.append(record, false);
+        groupTime.syncIfDue();
+        assertEquals(record.length, groupTime.getUnsyncedBytes());
+        Thread.sleep(250);
+        groupTime.syncIfDue();
+        assertEquals(0, groupTime.getUnsyncedBytes());
+        groupTime.append(record, false);
+        groupTime.append(record, false);
+        //关闭时刷盘
+        groupTime.close();
+        assertEquals(0, groupTime.getUnsyncedBytes());
+
+        for (String name : new String[]{"none", "always", "groupBytes", "groupTime"}) {
+            assertEquals(name, 3, decodeAll(new File(temporaryFolder.getRoot(), name)).size());
+        }
+    }
+
+    /**
+     * WAL尾部的记录只写了一半（写入过程中宕机），重新打开时保留完整的前缀，丢弃并截断残缺的记录，之后的写入正常恢复
+     */
+    @Test
+    public void tornTail() throws IOException {
+        File dataDir = temporaryFolder.newFolder();
+        File walFile = new File(dataDir, LsmKvStore.WAL_PREFIX + 1);
+        List<Integer> offsets = new ArrayList<>();
+        try (WalWriter writer = new WalWriter(walFile, WalSyncMode.ALWAYS, 100, 1024)) {
+            for (int i = 1; i <= 10; i++) {
+                offsets.add((int) walFile.length());
+                writer.append(record(i), false);
+            }
+        }
+        //截断到最后一条记录的中间
+        int lastStart = offsets.get(offsets.size() - 1);
+        try (RandomAccessFile file = new RandomAccessFile(walFile, "rw")) {
+            file.setLength(lastStart + (file.length() - lastStart) / 2);
+        }
+
+        Options options = new Options();
+        options.setStoreThreshold(1000);
+        String dir = dataDir.getAbsolutePath() + File.separator;
+        LsmKvStore kvStore = new LsmKvStore(dir, options);
+        for (int i = 1; i <= 9; i++) {
+            assertEquals("value" + i, kvStore.get("key" + i));
+        }
+        assertNull(kvStore.get("key10"));
+        //残缺的尾部已经截断
+        assertTrue(!walFile.exists() || walFile.length() == lastStart);
+        kvStore.set("key11", "value11");
+        kvStore.close();
+
+        kvStore = new LsmKvStore(dir, options);
+        assertEquals("value9", kvStore.get("key9"));
+        assertNull(kvStore.get("key10"));
+        assertEquals("value11", kvStore.get("key11"));
+        kvStore.close();
+    }
+
+    private static byte[] record(int i) {
+        Command command = new SetCommand("key" + i, "value" + i);
+        command.setSeq(i);
+        return WalRecordCodec.encode(command);
+    }
+
+    private static List<Command> decodeAll(File file) throws IOException {
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        List<Command> commands = new ArrayList<>();
+        int offset = 0;
+        while (offset < bytes.length) {
+            WalRecordCodec.DecodeResult result = WalRecordCodec.decode(bytes, offset, bytes.length);
+            if (result == null) {
+                break;
+            }
+            commands.addAll(result.getCommands());
+            offset = result.getNextOffset();
+        }
+        return commands;
+    }
+}